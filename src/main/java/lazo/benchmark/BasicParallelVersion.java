@@ -44,7 +44,7 @@ public class BasicParallelVersion {
 		if (task != null) {
 		    LazoSketch ls = new LazoSketch(k, SketchType.MINHASH);
 		    for (Integer i : task.value) {
-			ls.update(i.toString());
+			ls.update(i.intValue());
 		    }
 		    li.insert(task.key, ls);
 		} else {
@@ -0,0 +1,103 @@
+package lazo.benchmark;
+
+import java.util.Arrays;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.MinHash;
+import lazo.sketch.MinHashOptimal;
+import lazo.sketch.SketchType;
+
+/**
+ * Compares the per-value update path of the sketches with the batch updateAll
+ * path on the same data
+ */
+public class BatchSketchSpeed {
+
+    public static void totalSpeedRandomData(int setCardinality, int numSketches, int k) {
+
+	// Create a dummy set
+	String[] sampleSet = new String[setCardinality];
+	for (int i = 0; i < setCardinality; i++) {
+	    sampleSet[i] = Integer.toString(i);
+	}
+
+	// MinHash, per-value and batch
+	long mh_start = System.currentTimeMillis();
+	long[] perValue = null;
+	for (int i = 0; i < numSketches; i++) {
+	    MinHash mh = new MinHash(k);
+	    for (String s : sampleSet) {
+		mh.update(s);
+	    }
+	    perValue = mh.getHashValues();
+	}
+	long mh_end = System.currentTimeMillis();
+
+	long mh_batch_start = System.currentTimeMillis();
+	long[] batch = null;
+	for (int i = 0; i < numSketches; i++) {
+	    MinHash mh = new MinHash(k);
+	    mh.updateAll(sampleSet);
+	    batch = mh.getHashValues();
+	}
+	long mh_batch_end = System.currentTimeMillis();
+
+	// MinHashOptimal, per-value and batch
+	long oph_start = System.currentTimeMillis();
+	for (int i = 0; i < numSketches; i++) {
+	    MinHashOptimal mh = new MinHashOptimal(k);
+	    for (String s : sampleSet) {
+		mh.update(s);
+	    }
+	    mh.densify();
+	}
+	long oph_end = System.currentTimeMillis();
+
+	long oph_batch_start = System.currentTimeMillis();
+	for (int i = 0; i < numSketches; i++) {
+	    MinHashOptimal mh = new MinHashOptimal(k);
+	    mh.updateAll(sampleSet);
+	    mh.densify();
+	}
+	long oph_batch_end = System.currentTimeMillis();
+
+	// LazoSketch (MinHash + cardinality), per-value and batch
+	long lazo_start = System.currentTimeMillis();
+	for (int i = 0; i < numSketches; i++) {
+	    LazoSketch ls = new LazoSketch(k, SketchType.MINHASH);
+	    for (String s : sampleSet) {
+		ls.update(s);
+	    }
+	}
+	long lazo_end = System.currentTimeMillis();
+
+	long lazo_batch_start = System.currentTimeMillis();
+	for (int i = 0; i < numSketches; i++) {
+	    LazoSketch ls = new LazoSketch(k, SketchType.MINHASH);
+	    ls.updateAll(sampleSet);
+	}
+	long lazo_batch_end = System.currentTimeMillis();
+
+	System.out.println("Same MinHash values: " + Arrays.equals(perValue, batch));
+	System.out.println("Total MinHash time: " + (mh_end - mh_start));
+	System.out.println("Total MinHash batch time: " + (mh_batch_end - mh_batch_start));
+	System.out.println("Total MinHashOptimal time: " + (oph_end - oph_start));
+	System.out.println("Total MinHashOptimal batch time: " + (oph_batch_end - oph_batch_start));
+	System.out.println("Total LazoSketch time: " + (lazo_end - lazo_start));
+	System.out.println("Total LazoSketch batch time: " + (lazo_batch_end - lazo_batch_start));
+
+    }
+
+    public static void main(String args[]) {
+
+	int setCardinality = 100000;
+	int numSketches = 100;
+	int k = 512;
+
+	// warm up
+	totalSpeedRandomData(setCardinality, 5, k);
+
+	totalSpeedRandomData(setCardinality, numSketches, k);
+
+    }
+}
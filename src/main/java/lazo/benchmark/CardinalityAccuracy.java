@@ -0,0 +1,49 @@
+package lazo.benchmark;
+
+import lazo.sketch.CardinalityType;
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchType;
+
+/**
+ * Compares the relative error of the HyperLogLog cardinality estimator with
+ * the one derived from the MinHash values, for several set cardinalities
+ */
+public class CardinalityAccuracy {
+
+    public static double meanRelativeError(int setCardinality, int trials, int k, SketchType sketchType,
+	    CardinalityType cardinalityType) {
+	double error = 0;
+	for (int t = 0; t < trials; t++) {
+	    String[] set = new String[setCardinality];
+	    for (int i = 0; i < setCardinality; i++) {
+		set[i] = t + "-" + i;
+	    }
+	    LazoSketch ls = new LazoSketch(k, sketchType, cardinalityType);
+	    ls.updateAll(set);
+	    error += Math.abs(ls.getCardinality() - setCardinality) / (double) setCardinality;
+	}
+	return error / trials;
+    }
+
+    public static void main(String args[]) {
+
+	int trials = 20;
+	int[] setCardinalities = new int[] { 100, 1000, 10000, 100000, 1000000 };
+	int[] ks = new int[] { 64, 256 };
+
+	for (int setCardinality : setCardinalities) {
+	    StringBuilder row = new StringBuilder();
+	    row.append(setCardinality);
+	    row.append(String.format(" HLL: %.4f", meanRelativeError(setCardinality, trials, 64,
+		    SketchType.MINHASH, CardinalityType.HYPERLOGLOG)));
+	    for (int k : ks) {
+		row.append(String.format(" MINHASH(k=%d): %.4f", k, meanRelativeError(setCardinality, trials, k,
+			SketchType.MINHASH, CardinalityType.MINHASH)));
+		row.append(String.format(" MINHASH_OPTIMAL(k=%d): %.4f", k, meanRelativeError(setCardinality,
+			trials, k, SketchType.MINHASH_OPTIMAL, CardinalityType.MINHASH)));
+	    }
+	    System.out.println(row);
+	}
+
+    }
+}
@@ -0,0 +1,125 @@
+package lazo.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import lazo.sketch.ConcurrentLazoSketch;
+import lazo.sketch.LazoSketch;
+
+/**
+ * One column fed by several producer threads through a queue of value
+ * batches. Compares a shared ConcurrentLazoSketch with one LazoSketch per
+ * thread merged at the end, from 1 to 64 threads
+ */
+public class ConcurrentSketchSpeed {
+
+    private static final String[] END = new String[0];
+
+    private static BlockingQueue<String[]> fill(String[][] batches, int threads) {
+	BlockingQueue<String[]> queue = new ArrayBlockingQueue<>(batches.length + threads);
+	queue.addAll(Arrays.asList(batches));
+	for (int t = 0; t < threads; t++) {
+	    queue.add(END);
+	}
+	return queue;
+    }
+
+    private static void run(List<Thread> workers) throws InterruptedException {
+	for (Thread worker : workers) {
+	    worker.start();
+	}
+	for (Thread worker : workers) {
+	    worker.join();
+	}
+    }
+
+    public static void compare(String[][] batches, int threads, int k, boolean perValue) throws InterruptedException {
+	// shared concurrent sketch
+	ConcurrentLazoSketch shared = new ConcurrentLazoSketch(k);
+	BlockingQueue<String[]> queue = fill(batches, threads);
+	List<Thread> workers = new ArrayList<>();
+	for (int t = 0; t < threads; t++) {
+	    workers.add(new Thread(() -> {
+		try {
+		    for (String[] batch = queue.take(); batch != END; batch = queue.take()) {
+			if (perValue) {
+			    for (String value : batch) {
+				shared.update(value);
+			    }
+			} else {
+			    shared.updateAll(batch);
+			}
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }));
+	}
+	long start = System.currentTimeMillis();
+	run(workers);
+	LazoSketch sharedResult = shared.toLazoSketch();
+	long end = System.currentTimeMillis();
+
+	// one sketch per thread, merged
+	LazoSketch[] partial = new LazoSketch[threads];
+	BlockingQueue<String[]> queue2 = fill(batches, threads);
+	workers.clear();
+	for (int t = 0; t < threads; t++) {
+	    int thread = t;
+	    workers.add(new Thread(() -> {
+		LazoSketch mine = new LazoSketch(k);
+		try {
+		    for (String[] batch = queue2.take(); batch != END; batch = queue2.take()) {
+			if (perValue) {
+			    for (String value : batch) {
+				mine.update(value);
+			    }
+			} else {
+			    mine.updateAll(batch);
+			}
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+		partial[thread] = mine;
+	    }));
+	}
+	long merge_start = System.currentTimeMillis();
+	run(workers);
+	LazoSketch merged = partial[0];
+	for (int t = 1; t < threads; t++) {
+	    merged = merged.merge(partial[t]);
+	}
+	long merge_end = System.currentTimeMillis();
+
+	System.out.println(threads + " threads" + (perValue ? " (update)" : " (updateAll)") + ": concurrent "
+		+ (end - start) + " ms, per-thread + merge " + (merge_end - merge_start) + " ms, same result: "
+		+ (Arrays.equals(sharedResult.getHashValues(), merged.getHashValues())
+			&& sharedResult.getCardinality() == merged.getCardinality()));
+    }
+
+    public static void main(String args[]) throws InterruptedException {
+
+	int numValues = 2000000;
+	int batchSize = 1000;
+	int k = 64;
+
+	String[][] batches = new String[numValues / batchSize][batchSize];
+	for (int i = 0; i < numValues; i++) {
+	    batches[i / batchSize][i % batchSize] = Integer.toString(i);
+	}
+
+	// warm up
+	compare(batches, 4, k, true);
+	compare(batches, 4, k, false);
+
+	for (int threads = 1; threads <= 64; threads *= 2) {
+	    compare(batches, threads, k, true);
+	    compare(batches, threads, k, false);
+	}
+
+    }
+}
@@ -0,0 +1,86 @@
+package lazo.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import lazo.index.DurableLazoIndex;
+import lazo.index.LazoIndex;
+import lazo.index.SyncPolicy;
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchType;
+
+/**
+ * Insert throughput of a DurableLazoIndex with each SyncPolicy, from one and
+ * from several threads, against a plain LazoIndex, and the time to recover
+ * the index from its log. Arguments: number of keys, and number of writer
+ * threads.
+ */
+public class DurableIndexSpeed {
+
+    private static LazoSketch sketchOf(int key, int k) {
+	LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH);
+	long[] hv = new long[k];
+	for (int i = 0; i < k; i++) {
+	    hv[i] = (key * 31L + i) * 0x9E3779B97F4A7C15L;
+	}
+	sketch.setHashValues(hv);
+	sketch.setCardinality(100 + key % 1000);
+	return sketch;
+    }
+
+    private static void delete(Path dir) throws IOException {
+	try (Stream<Path> files = Files.walk(dir)) {
+	    files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+	}
+    }
+
+    private static long insert(DurableLazoIndex index, int numKeys, int numThreads, int k) throws InterruptedException {
+	long s = System.currentTimeMillis();
+	Thread[] writers = new Thread[numThreads];
+	for (int t = 0; t < numThreads; t++) {
+	    int writer = t;
+	    writers[t] = new Thread(() -> {
+		for (int key = writer; key < numKeys; key += numThreads) {
+		    index.insert("column-" + key, sketchOf(key, k));
+		}
+	    });
+	    writers[t].start();
+	}
+	for (Thread writer : writers) {
+	    writer.join();
+	}
+	return System.currentTimeMillis() - s;
+    }
+
+    public static void main(String args[]) throws Exception {
+
+	int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+	int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+	int k = 64;
+
+	long s = System.currentTimeMillis();
+	LazoIndex plain = new LazoIndex(k, 0.05f);
+	for (int key = 0; key < numKeys; key++) {
+	    plain.insert("column-" + key, sketchOf(key, k));
+	}
+	System.out.println("LazoIndex: " + (System.currentTimeMillis() - s) + "ms");
+
+	for (SyncPolicy policy : SyncPolicy.values()) {
+	    for (int threads : new int[] { 1, numThreads }) {
+		Path dir = Files.createTempDirectory("lazo-durable");
+		DurableLazoIndex index = new DurableLazoIndex(dir, k, 0.05f, policy, 1024, 100, 0);
+		long time = insert(index, numKeys, threads, k);
+		index.close();
+		long r = System.currentTimeMillis();
+		new DurableLazoIndex(dir, k, 0.05f).close();
+		long recovery = System.currentTimeMillis() - r;
+		System.out.println(policy + " threads: " + threads + " insert: " + time + "ms ("
+			+ (numKeys * 1000L / Math.max(1, time)) + " keys/s) recovery: " + recovery + "ms");
+		delete(dir);
+	    }
+	}
+    }
+}
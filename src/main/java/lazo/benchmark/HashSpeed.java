@@ -0,0 +1,86 @@
+package lazo.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+
+import lazo.sketch.HashFunctionType;
+import lazo.sketch.SketchUtils;
+import lazo.sketch.ValueHasher;
+
+/**
+ * Throughput of the hash functions on short and long values, through Guava's
+ * HashFunction (allocates a HashCode per value) and through ValueHasher (in
+ * place)
+ */
+public class HashSpeed {
+
+    static long sink;
+
+    public static void hashSpeed(String[] values, int rounds) {
+	for (HashFunctionType hft : HashFunctionType.values()) {
+	    HashFunction hf = SketchUtils.initializeHashFunction(hft, 666);
+	    ValueHasher hasher = new ValueHasher(hf, 666);
+
+	    long start = System.nanoTime();
+	    for (int r = 0; r < rounds; r++) {
+		for (String v : values) {
+		    sink += hf.hashString(v, StandardCharsets.UTF_8).asLong();
+		}
+	    }
+	    long guava = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int r = 0; r < rounds; r++) {
+		for (String v : values) {
+		    sink += hasher.hash(v);
+		}
+	    }
+	    long inPlace = System.nanoTime() - start;
+
+	    // hashing alone, without encoding the strings
+	    byte[][] bytes = new byte[values.length][];
+	    for (int i = 0; i < values.length; i++) {
+		bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+	    }
+	    start = System.nanoTime();
+	    for (int r = 0; r < rounds; r++) {
+		for (byte[] v : bytes) {
+		    sink += hasher.hash(v, 0, v.length);
+		}
+	    }
+	    long bytesOnly = System.nanoTime() - start;
+
+	    long total = (long) values.length * rounds;
+	    System.out.println(hft + " HashFunction: " + (guava / total) + " ns/value, ValueHasher: "
+		    + (inPlace / total) + " ns/value, bytes only: " + (bytesOnly / total) + " ns/value");
+	}
+    }
+
+    public static void main(String args[]) {
+
+	int numValues = 100000;
+	int rounds = 50;
+
+	String[] shortValues = new String[numValues];
+	String[] longValues = new String[numValues];
+	for (int i = 0; i < numValues; i++) {
+	    shortValues[i] = Integer.toString(i);
+	    StringBuilder sb = new StringBuilder();
+	    while (sb.length() < 100) {
+		sb.append("value-").append(i);
+	    }
+	    longValues[i] = sb.toString();
+	}
+
+	// warm up
+	hashSpeed(shortValues, 10);
+	hashSpeed(longValues, 10);
+
+	System.out.println("short values (~6 bytes)");
+	hashSpeed(shortValues, rounds);
+	System.out.println("long values (~100 bytes)");
+	hashSpeed(longValues, rounds);
+
+    }
+}
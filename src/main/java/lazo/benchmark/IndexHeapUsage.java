@@ -0,0 +1,86 @@
+package lazo.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import lazo.index.IndexStorageType;
+import lazo.index.LazoIndex;
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchType;
+
+/**
+ * Inserts many sketches into a LazoIndex and reports the heap (and off-heap
+ * memory) it retains, the time spent in GC while inserting, and the query
+ * time. Arguments: number of keys, and HEAP or OFF_HEAP.
+ */
+public class IndexHeapUsage {
+
+    private static long usedHeap() {
+	Runtime rt = Runtime.getRuntime();
+	for (int i = 0; i < 3; i++) {
+	    System.gc();
+	}
+	return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long gcMillis() {
+	long total = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    total += gc.getCollectionTime();
+	}
+	return total;
+    }
+
+    public static void main(String args[]) {
+
+	int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	IndexStorageType storageType = args.length > 1 ? IndexStorageType.valueOf(args[1]) : IndexStorageType.HEAP;
+	int k = 64;
+	Random gen = new Random(111);
+
+	// a few distinct sketches, shifted per key so that most buckets are
+	// small, as in a large lake
+	LazoSketch[] templates = new LazoSketch[1000];
+	for (int t = 0; t < templates.length; t++) {
+	    templates[t] = new LazoSketch(k, SketchType.MINHASH);
+	    int size = 10 + gen.nextInt(1000);
+	    for (int i = 0; i < size; i++) {
+		templates[t].update(gen.nextLong());
+	    }
+	}
+
+	long heapStart = usedHeap();
+	long gcStart = gcMillis();
+	long s = System.currentTimeMillis();
+	LazoIndex index = new LazoIndex(k, 0.05f, storageType);
+	for (int key = 0; key < numKeys; key++) {
+	    LazoSketch template = templates[key % templates.length];
+	    LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH);
+	    long[] hv = template.getHashValues().clone();
+	    // keys of the same template share about half of their minima
+	    for (int i = 0; i < k; i += 2) {
+		hv[i] += key;
+	    }
+	    sketch.setHashValues(hv);
+	    index.insert("column-" + key, sketch);
+	}
+	long e = System.currentTimeMillis();
+	long gcTime = gcMillis() - gcStart;
+	long heap = usedHeap() - heapStart;
+
+	long q = System.currentTimeMillis();
+	long results = 0;
+	for (LazoSketch template : templates) {
+	    results += index.querySimilarity(template, 0.3f).size();
+	}
+	long qe = System.currentTimeMillis();
+
+	System.out.println(storageType + " keys: " + numKeys + " tables: " + index.__getNumHashTables());
+	System.out.println("insert time: " + (e - s) + " gc time: " + gcTime);
+	System.out.println("retained heap: " + heap / (1 << 20) + "MB, " + heap / numKeys + " bytes/key, off-heap: "
+		+ index.getOffHeapBytes() / (1 << 20) + "MB");
+	System.out.println("query time: " + (qe - q) + " (results " + results + ")");
+	index.close();
+    }
+}
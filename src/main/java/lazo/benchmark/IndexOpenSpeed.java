@@ -0,0 +1,87 @@
+package lazo.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import lazo.index.LazoIndex;
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchType;
+
+/**
+ * Compares building a LazoIndex by inserting its sketches with opening one
+ * saved with save(Path): time to build, save and open it, and the time of
+ * the first and of all queries on each. Arguments: number of keys, and the
+ * file to save to (a temporary file by default).
+ */
+public class IndexOpenSpeed {
+
+    private static long query(LazoIndex index, LazoSketch[] templates) {
+	long results = 0;
+	for (LazoSketch template : templates) {
+	    results += index.querySimilarity(template, 0.3f).size();
+	}
+	return results;
+    }
+
+    public static void main(String args[]) throws IOException {
+
+	int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	Path path = args.length > 1 ? Paths.get(args[1]) : Files.createTempFile("lazo", ".index");
+	int k = 64;
+	Random gen = new Random(111);
+
+	// as in IndexHeapUsage
+	LazoSketch[] templates = new LazoSketch[1000];
+	for (int t = 0; t < templates.length; t++) {
+	    templates[t] = new LazoSketch(k, SketchType.MINHASH);
+	    int size = 10 + gen.nextInt(1000);
+	    for (int i = 0; i < size; i++) {
+		templates[t].update(gen.nextLong());
+	    }
+	}
+
+	long s = System.currentTimeMillis();
+	LazoIndex index = new LazoIndex(k, 0.05f);
+	for (int key = 0; key < numKeys; key++) {
+	    LazoSketch template = templates[key % templates.length];
+	    LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH);
+	    long[] hv = template.getHashValues().clone();
+	    for (int i = 0; i < k; i += 2) {
+		hv[i] += key;
+	    }
+	    sketch.setHashValues(hv);
+	    index.insert("column-" + key, sketch);
+	}
+	long e = System.currentTimeMillis();
+	long q = System.currentTimeMillis();
+	long results = query(index, templates);
+	long qe = System.currentTimeMillis();
+
+	long ss = System.currentTimeMillis();
+	index.save(path);
+	long se = System.currentTimeMillis();
+	index.close();
+
+	long os = System.currentTimeMillis();
+	LazoIndex opened = LazoIndex.open(path);
+	long oe = System.currentTimeMillis();
+	opened.querySimilarity(templates[0], 0.3f);
+	long fe = System.currentTimeMillis();
+	long oq = System.currentTimeMillis();
+	long openedResults = query(opened, templates);
+	long oqe = System.currentTimeMillis();
+	opened.close();
+
+	System.out.println("keys: " + numKeys + " file: " + Files.size(path) / (1 << 20) + "MB");
+	System.out.println("build time: " + (e - s) + " query time: " + (qe - q) + " (results " + results + ")");
+	System.out.println("save time: " + (se - ss));
+	System.out.println("open time: " + (oe - os) + " first query: " + (fe - oe) + " query time: " + (oqe - oq)
+		+ " (results " + openedResults + ")");
+	if (args.length < 2) {
+	    Files.delete(path);
+	}
+    }
+}
@@ -0,0 +1,44 @@
+package lazo.benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.ParallelSketchBuilder;
+import lazo.sketch.SketchType;
+
+/**
+ * Time to sketch a single large column with ParallelSketchBuilder for an
+ * increasing number of threads
+ */
+public class ParallelSketchSpeed {
+
+    public static long time(String[] values, int k, int threads) {
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	ParallelSketchBuilder builder = new ParallelSketchBuilder(() -> new LazoSketch(k, SketchType.MINHASH), pool);
+	long start = System.currentTimeMillis();
+	builder.build(values);
+	long end = System.currentTimeMillis();
+	pool.shutdown();
+	return end - start;
+    }
+
+    public static void main(String args[]) {
+
+	int setCardinality = 10000000;
+	int k = 64;
+	int maxThreads = Runtime.getRuntime().availableProcessors();
+
+	String[] values = new String[setCardinality];
+	for (int i = 0; i < setCardinality; i++) {
+	    values[i] = Integer.toString(i);
+	}
+
+	// warm up
+	time(values, k, maxThreads);
+
+	for (int threads = 1; threads <= maxThreads; threads *= 2) {
+	    System.out.println("threads: " + threads + " time: " + time(values, k, threads));
+	}
+
+    }
+}
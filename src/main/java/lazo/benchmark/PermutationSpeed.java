@@ -0,0 +1,57 @@
+package lazo.benchmark;
+
+import lazo.sketch.HashFunctionType;
+import lazo.sketch.MinHash;
+import lazo.sketch.PermutationFamilyType;
+import lazo.sketch.SketchUtils;
+
+/**
+ * Compares throughput and accuracy of the permutation families on the batch
+ * update path
+ */
+public class PermutationSpeed {
+
+    public static void totalSpeedRandomData(int setCardinality, int numSketches, int k) {
+
+	// Create a dummy set
+	String[] sampleSet = new String[setCardinality];
+	String[] halfSet = new String[setCardinality];
+	for (int i = 0; i < setCardinality; i++) {
+	    sampleSet[i] = Integer.toString(i);
+	    halfSet[i] = Integer.toString(i + setCardinality / 2);
+	}
+	// real jaccard of both sets
+	float js = (float) (setCardinality / 2) / (float) (setCardinality + setCardinality / 2);
+
+	for (PermutationFamilyType pft : PermutationFamilyType.values()) {
+	    long start = System.currentTimeMillis();
+	    for (int i = 0; i < numSketches; i++) {
+		MinHash mh = new MinHash(k, 666, HashFunctionType.MURMUR3, pft);
+		mh.updateAll(sampleSet);
+	    }
+	    long end = System.currentTimeMillis();
+
+	    MinHash a = new MinHash(k, 666, HashFunctionType.MURMUR3, pft);
+	    MinHash b = new MinHash(k, 666, HashFunctionType.MURMUR3, pft);
+	    a.updateAll(sampleSet);
+	    b.updateAll(halfSet);
+	    float estimatedJs = SketchUtils.jaccard(a.getHashValues(), b.getHashValues());
+
+	    System.out.println(pft + " time: " + (end - start) + " js: " + js + " estimated js: " + estimatedJs);
+	}
+
+    }
+
+    public static void main(String args[]) {
+
+	int setCardinality = 100000;
+	int numSketches = 100;
+	int k = 512;
+
+	// warm up
+	totalSpeedRandomData(setCardinality, 5, k);
+
+	totalSpeedRandomData(setCardinality, numSketches, k);
+
+    }
+}
@@ -0,0 +1,54 @@
+package lazo.benchmark;
+
+import java.nio.ByteBuffer;
+
+import lazo.index.LazoIndex;
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchType;
+
+/**
+ * Time to write many small-column sketches to a single buffer, and to load
+ * them back into an index
+ */
+public class SerializationSpeed {
+
+    public static void main(String args[]) {
+
+	int numSketches = 1000000;
+	int setCardinality = 20;
+	int k = 64;
+
+	LazoSketch template = new LazoSketch(k, SketchType.MINHASH);
+	for (int i = 0; i < setCardinality; i++) {
+	    template.update(i);
+	}
+	ByteBuffer buf = ByteBuffer.allocateDirect(numSketches * template.getSerializedSize());
+
+	long start = System.currentTimeMillis();
+	for (int i = 0; i < numSketches; i++) {
+	    template.writeTo(buf);
+	}
+	long end = System.currentTimeMillis();
+	System.out.println("bytes: " + buf.position() + " write time: " + (end - start));
+
+	buf.flip();
+	start = System.currentTimeMillis();
+	long total = 0;
+	while (buf.hasRemaining()) {
+	    LazoSketch sketch = LazoSketch.wrap(buf);
+	    total += sketch.getCardinality() + sketch.getHashValues()[0];
+	}
+	end = System.currentTimeMillis();
+	System.out.println("read time: " + (end - start) + " (" + total + ")");
+
+	buf.rewind();
+	LazoIndex index = new LazoIndex(k);
+	start = System.currentTimeMillis();
+	for (int i = 0; buf.hasRemaining() && i < numSketches / 10; i++) {
+	    index.insert(i, LazoSketch.wrap(buf));
+	}
+	end = System.currentTimeMillis();
+	System.out.println("index load time (" + numSketches / 10 + " sketches): " + (end - start));
+
+    }
+}
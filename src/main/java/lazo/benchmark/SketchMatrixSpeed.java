@@ -0,0 +1,92 @@
+package lazo.benchmark;
+
+import java.util.Random;
+
+import lazo.sketch.SketchMatrix;
+import lazo.sketch.SketchUtils;
+
+/**
+ * Compares one query against many sketches, with SketchUtils.jaccard over
+ * separate arrays and with a SketchMatrix, and reports the scan bandwidth
+ */
+public class SketchMatrixSpeed {
+
+    public static void scan(long[][] sketches, SketchMatrix matrix, long[] query, int repetitions) {
+	float checksum = 0;
+	long start = System.nanoTime();
+	for (int rep = 0; rep < repetitions; rep++) {
+	    for (long[] sketch : sketches) {
+		checksum += SketchUtils.jaccard(sketch, query);
+	    }
+	}
+	long end = System.nanoTime();
+
+	float[] out = new float[matrix.size()];
+	long matrix_start = System.nanoTime();
+	for (int rep = 0; rep < repetitions; rep++) {
+	    matrix.jaccardAll(query, out);
+	    checksum -= sum(out);
+	}
+	long matrix_end = System.nanoTime();
+
+	long topk_start = System.nanoTime();
+	for (int rep = 0; rep < repetitions; rep++) {
+	    checksum += matrix.topK(query, 10).length;
+	}
+	long topk_end = System.nanoTime();
+
+	double bytes = (double) repetitions * matrix.size() * matrix.getK() * 8;
+	System.out.println("checksum: " + checksum);
+	System.out.println("jaccard per pair: " + (end - start) / 1000000 + " ms, "
+		+ String.format("%.2f", bytes / (end - start)) + " GB/s");
+	System.out.println("jaccardAll: " + (matrix_end - matrix_start) / 1000000 + " ms, "
+		+ String.format("%.2f", bytes / (matrix_end - matrix_start)) + " GB/s");
+	System.out.println("topK(10): " + (topk_end - topk_start) / 1000000 + " ms, "
+		+ String.format("%.2f", bytes / (topk_end - topk_start)) + " GB/s");
+    }
+
+    private static float sum(float[] values) {
+	float sum = 0;
+	for (float v : values) {
+	    sum += v;
+	}
+	return sum;
+    }
+
+    public static void main(String args[]) {
+
+	int numSketches = 500000;
+	int k = 64;
+	int repetitions = 20;
+
+	Random rnd = new Random(42);
+	long[] query = new long[k];
+	for (int i = 0; i < k; i++) {
+	    query[i] = rnd.nextLong();
+	}
+	// scattered arrays, as sketches kept in separate objects are
+	long[][] sketches = new long[numSketches][];
+	SketchMatrix matrix = new SketchMatrix(k);
+	for (int s = 0; s < numSketches; s++) {
+	    long[] hv = new long[k];
+	    for (int i = 0; i < k; i++) {
+		hv[i] = rnd.nextInt(4) == 0 ? query[i] : rnd.nextLong();
+	    }
+	    sketches[s] = hv;
+	    matrix.add(hv);
+	}
+	// scatter the arrays over the heap
+	for (int s = numSketches - 1; s > 0; s--) {
+	    int j = rnd.nextInt(s + 1);
+	    long[] t = sketches[s];
+	    sketches[s] = sketches[j];
+	    sketches[j] = t;
+	}
+
+	// warm up
+	scan(sketches, matrix, query, 3);
+
+	scan(sketches, matrix, query, repetitions);
+
+    }
+}
@@ -0,0 +1,63 @@
+package lazo.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchPool;
+import lazo.sketch.SketchType;
+
+/**
+ * Sketches many columns one at a time, with a new LazoSketch per column and
+ * with sketches reused through a SketchPool, and reports time and the bytes
+ * allocated per column (HotSpot only)
+ */
+public class SketchPoolSpeed {
+
+    private static long allocatedBytes() {
+	return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+		.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void sketchColumns(String[][] columns, int k, boolean pooled) {
+	SketchPool<LazoSketch> pool = new SketchPool<>(() -> new LazoSketch(k, SketchType.MINHASH));
+	long checksum = 0;
+	long allocatedStart = allocatedBytes();
+	long start = System.currentTimeMillis();
+	for (String[] column : columns) {
+	    LazoSketch ls = pooled ? pool.acquire() : new LazoSketch(k, SketchType.MINHASH);
+	    ls.updateAll(column);
+	    checksum += ls.getCardinality() + ls.getHashValues()[0];
+	    if (pooled) {
+		pool.release(ls);
+	    }
+	}
+	long end = System.currentTimeMillis();
+	System.out.println((pooled ? "pooled" : "new per column") + " time: " + (end - start) + " bytes/column: "
+		+ (allocatedBytes() - allocatedStart) / columns.length + " (checksum " + checksum + ")");
+    }
+
+    public static void main(String args[]) {
+
+	int numColumns = 5000;
+	int k = 256;
+
+	// mostly small columns, and a few large ones that make the
+	// cardinality estimator dense
+	String[][] columns = new String[numColumns][];
+	for (int c = 0; c < numColumns; c++) {
+	    int size = c % 100 == 0 ? 50000 : 200;
+	    columns[c] = new String[size];
+	    for (int i = 0; i < size; i++) {
+		columns[c][i] = Integer.toString(c * 31 + i);
+	    }
+	}
+
+	// warm up
+	sketchColumns(columns, k, false);
+	sketchColumns(columns, k, true);
+
+	sketchColumns(columns, k, false);
+	sketchColumns(columns, k, true);
+
+    }
+}
@@ -0,0 +1,61 @@
+package lazo.benchmark;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.TableSketcher;
+
+/**
+ * Sketches a wide table row by row, with one LazoSketch per column and with a
+ * TableSketcher
+ */
+public class TableSketchSpeed {
+
+    public static void sketchTable(String[][] rows, int columns, int k) {
+	long start = System.currentTimeMillis();
+	LazoSketch[] sketches = new LazoSketch[columns];
+	for (int c = 0; c < columns; c++) {
+	    sketches[c] = new LazoSketch(k);
+	}
+	for (String[] row : rows) {
+	    for (int c = 0; c < columns; c++) {
+		sketches[c].update(row[c]);
+	    }
+	}
+	long end = System.currentTimeMillis();
+
+	long table_start = System.currentTimeMillis();
+	TableSketcher table = new TableSketcher(columns, k);
+	for (String[] row : rows) {
+	    table.updateRow(row);
+	}
+	LazoSketch[] tableSketches = table.getSketches();
+	long table_end = System.currentTimeMillis();
+
+	long checksum = 0;
+	for (int c = 0; c < columns; c++) {
+	    checksum += sketches[c].getHashValues()[0] - tableSketches[c].getHashValues()[0];
+	}
+	System.out.println("Same hash values: " + (checksum == 0));
+	System.out.println("Total LazoSketch per column time: " + (end - start));
+	System.out.println("Total TableSketcher time: " + (table_end - table_start));
+    }
+
+    public static void main(String args[]) {
+
+	int columns = 200;
+	int numRows = 20000;
+	int k = 256;
+
+	String[][] rows = new String[numRows][columns];
+	for (int r = 0; r < numRows; r++) {
+	    for (int c = 0; c < columns; c++) {
+		rows[r][c] = Integer.toString((r * 7 + c * 13) % (c * 100 + 10));
+	    }
+	}
+
+	// warm up
+	sketchTable(rows, columns, k);
+
+	sketchTable(rows, columns, k);
+
+    }
+}
@@ -0,0 +1,68 @@
+package lazo.benchmark;
+
+import java.util.Random;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.SketchType;
+import lazo.sketch.ValueHashCache;
+
+/**
+ * Sketches many columns drawn from a shared, skewed pool of values, with and
+ * without the global value hash cache
+ */
+public class ValueHashCacheSpeed {
+
+    public static long sketchColumns(String[][] columns, int k) {
+	long start = System.currentTimeMillis();
+	for (String[] column : columns) {
+	    LazoSketch ls = new LazoSketch(k, SketchType.MINHASH);
+	    for (String value : column) {
+		ls.update(value);
+	    }
+	}
+	return System.currentTimeMillis() - start;
+    }
+
+    public static void main(String args[]) {
+
+	int numColumns = 2000;
+	int columnSize = 2000;
+	int poolSize = 50000;
+	int valueLength = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+	int k = 64;
+
+	// values drawn with a skewed (roughly zipfian) popularity
+	Random rnd = new Random(42);
+	String[] pool = new String[poolSize];
+	for (int i = 0; i < poolSize; i++) {
+	    StringBuilder sb = new StringBuilder();
+	    while (sb.length() < valueLength) {
+		sb.append(Integer.toHexString(rnd.nextInt()));
+	    }
+	    pool[i] = sb.toString();
+	}
+	String[][] columns = new String[numColumns][columnSize];
+	for (int c = 0; c < numColumns; c++) {
+	    for (int i = 0; i < columnSize; i++) {
+		int index = (int) (poolSize * Math.pow(rnd.nextDouble(), 3));
+		// new String objects, as a parser would produce
+		columns[c][i] = new String(pool[index]);
+	    }
+	}
+
+	// warm up
+	sketchColumns(columns, k);
+
+	ValueHashCache.disable();
+	System.out.println("no cache time: " + sketchColumns(columns, k));
+
+	for (int capacity : new int[] { 1 << 14, 1 << 17 }) {
+	    // cache all values, regardless of their length
+	    ValueHashCache cache = ValueHashCache.enable(capacity, 0);
+	    System.out.println("cache time: " + sketchColumns(columns, k));
+	    System.out.println(cache);
+	    ValueHashCache.disable();
+	}
+
+    }
+}
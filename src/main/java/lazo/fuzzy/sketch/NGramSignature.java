@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import lazo.sketch.CompactHyperLogLog;
 import lazo.sketch.LazoSketch;
 import lazo.sketch.Sketch;
 import lazo.sketch.SketchType;
@@ -27,18 +28,26 @@ public class NGramSignature implements Signature {
     }
 
     public NGramSignature(int n, int k) {
+	this(n, k, CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * A single string has few n-grams, so a low cardinalityPrecision is
+     * usually enough
+     */
+    public NGramSignature(int n, int k, int cardinalityPrecision) {
 	this.n = n;
 	this.k = k;
 
 	this.sketches = new HashMap<>();
 	// Fill in sketches and cardinalities
 	for (int ngramSize = 2; ngramSize < n + 1; ngramSize++) {
-	    LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH);
+	    LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH, cardinalityPrecision);
 	    // Minimum is 2 and maximum is the actual 'n' provided
 	    this.setSketch(ngramSize, sketch);
 	}
 	// We add an additional sketch for the entire string
-	this.setSketch(ORIGINAL_STRING, new LazoSketch(k, SketchType.MINHASH));
+	this.setSketch(ORIGINAL_STRING, new LazoSketch(k, SketchType.MINHASH, cardinalityPrecision));
     }
 
     public void setSketch(int ngramSize, LazoSketch sketch) {
@@ -58,6 +67,13 @@ public class NGramSignature implements Signature {
 	this.sketches.get(ORIGINAL_STRING).update(s);
     }
 
+    @Override
+    public void reset() {
+	for (LazoSketch sketch : sketches.values()) {
+	    sketch.reset();
+	}
+    }
+
     @Override
     public LazoSketch getSketch(int ngramSize) {
 	return this.sketches.get(ngramSize);
@@ -6,6 +6,11 @@ public interface Signature {
 
     public void update(String s);
 
+    /**
+     * Empties the signature in place, see Sketch.reset
+     */
+    public void reset();
+
     public Sketch getSketch(int ngramSize);
 
     public long getCardinality(int ngramSize);
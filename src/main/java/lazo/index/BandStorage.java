@@ -0,0 +1,599 @@
+package lazo.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The band hash tables of a LazoIndex, over dense int ids of the keys. Each
+ * band has a LongIntHashMap from segment hash to its posting list, and the
+ * posting lists of all bands live in one int arena. A segment hash with a
+ * single key, the usual case in a large index, keeps the id in the table
+ * itself and has no posting list at all. For each id the storage also keeps
+ * its cardinality, and the segment hashes it was inserted with, so it can be
+ * removed; these are the 32-bit hashes of LazoIndex, so they take an int
+ * each.
+ *
+ * Posting lists double their capacity when they fill up, moving to the end of
+ * the arena if they cannot grow in place; the arena is compacted when more
+ * than half of it is left behind by moves and removals.
+ *
+ * All arrays come from an IndexMemory, so with a DirectMemory the whole
+ * storage is off the heap, except for the segments of keys inserted again
+ * without being removed first.
+ *
+ * A storage saved to an IndexFile is read back over the mapped arrays, with
+ * the posting lists packed one after the other. Such a storage can be
+ * queried but not changed.
+ */
+final class BandStorage {
+
+    // table values: (id << 1) for a single key, (bucket << 1) | 1 otherwise
+    static final int MAX_ID = Integer.MAX_VALUE >>> 1;
+
+    private static final int MIN_COMPACTION = 1 << 16;
+
+    private final int bands;
+    private final IndexMemory memory;
+    private final LongIntHashMap[] tables;
+
+    // postings of bucket b in arena[start[b], start[b] + size[b]), with room
+    // for capacity[b]
+    private LongArray start;
+    private IntArray size;
+    private IntArray capacity;
+    // buckets that fit in all three arrays
+    private long maxBuckets = 16;
+    private int numBuckets;
+    private IntArray freeBuckets;
+    private int numFreeBuckets;
+    private IntArray arena;
+    private long arenaTop;
+    private long wasted;
+
+    // cardinality of each id
+    private LongArray cardinalities;
+    // segments of id in keySegments[id * bands, (id + 1) * bands)
+    private IntArray keySegments;
+    private LongArray present;
+    // ids that fit in cardinalities, keySegments and present
+    private long maxIds;
+    private int idBound;
+    // more segments of the ids inserted again without being removed, rare,
+    // as (band, segment) pairs of the bands whose segment was new
+    private final Map<Integer, int[]> extraSegments = new HashMap<>();
+
+    BandStorage(int bands) {
+	this(bands, IndexMemory.HEAP);
+    }
+
+    BandStorage(int bands, IndexMemory memory) {
+	this.bands = bands;
+	this.memory = memory;
+	this.tables = new LongIntHashMap[bands];
+	for (int b = 0; b < bands; b++) {
+	    this.tables[b] = new LongIntHashMap(memory, 0);
+	}
+	this.start = memory.allocateLongs(16);
+	this.size = memory.allocateInts(16);
+	this.capacity = memory.allocateInts(16);
+	this.freeBuckets = memory.allocateInts(16);
+	this.arena = memory.allocateInts(64);
+	this.cardinalities = memory.allocateLongs(64);
+	this.keySegments = memory.allocateInts(64L * bands);
+	this.present = memory.allocateLongs(1);
+	this.maxIds = 64;
+    }
+
+    /**
+     * A read-only storage over the arrays of a saved one
+     */
+    private BandStorage(int bands, LongIntHashMap[] tables, LongArray start, IntArray size, int numBuckets,
+	    IntArray arena, LongArray cardinalities, LongArray present, int idBound) {
+	this.bands = bands;
+	this.memory = null;
+	this.tables = tables;
+	this.start = start;
+	this.size = size;
+	this.numBuckets = numBuckets;
+	this.maxBuckets = numBuckets;
+	this.arena = arena;
+	this.arenaTop = arena.length();
+	this.cardinalities = cardinalities;
+	this.present = present;
+	this.idBound = idBound;
+	this.maxIds = idBound;
+    }
+
+    private boolean isReadOnly() {
+	return memory == null;
+    }
+
+    int getNumBands() {
+	return bands;
+    }
+
+    /**
+     * One more than the largest id stored, or stored before
+     */
+    int getIdBound() {
+	return idBound;
+    }
+
+    boolean contains(int id) {
+	return id < idBound && (present.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    long getCardinality(int id) {
+	return cardinalities.get(id);
+    }
+
+    /**
+     * Adds id to the posting list of segments[b] in each band b, and sets its
+     * cardinality. An id that is already stored keeps its previous segments
+     * too, as a set would.
+     */
+    void add(int id, int[] segments, long cardinality) {
+	if (this.isReadOnly()) {
+	    throw new UnsupportedOperationException("The storage is read-only");
+	}
+	if (id < 0 || id > MAX_ID) {
+	    throw new IllegalArgumentException("Id out of range: " + id);
+	}
+	if (this.contains(id)) {
+	    cardinalities.set(id, cardinality);
+	    int[] extra = extraSegments.get(id);
+	    int n = extra == null ? 0 : extra.length;
+	    extra = extra == null ? new int[2 * bands] : Arrays.copyOf(extra, n + 2 * bands);
+	    int m = n;
+	    for (int b = 0; b < bands; b++) {
+		if (!this.isPosted(b, segments[b], id)) {
+		    extra[m++] = b;
+		    extra[m++] = segments[b];
+		}
+	    }
+	    if (m == n) {
+		return;
+	    }
+	    // recorded before posting, so that remove also finds the postings
+	    // made before a failure
+	    extraSegments.put(id, Arrays.copyOf(extra, m));
+	    for (int i = n; i < m; i += 2) {
+		this.post(extra[i], extra[i + 1], id);
+	    }
+	    return;
+	}
+	this.ensureIds(id);
+	cardinalities.set(id, cardinality);
+	long base = (long) id * bands;
+	for (int b = 0; b < bands; b++) {
+	    keySegments.set(base + b, segments[b]);
+	}
+	present.set(id >>> 6, present.get(id >>> 6) | (1L << id));
+	for (int b = 0; b < bands; b++) {
+	    this.post(b, segments[b], id);
+	}
+    }
+
+    /**
+     * Removes id from all its posting lists. Returns false if it is not
+     * stored.
+     */
+    boolean remove(int id) {
+	if (this.isReadOnly()) {
+	    throw new UnsupportedOperationException("The storage is read-only");
+	}
+	if (!this.contains(id)) {
+	    return false;
+	}
+	long base = (long) id * bands;
+	for (int b = 0; b < bands; b++) {
+	    this.unpost(b, keySegments.get(base + b), id);
+	}
+	int[] extra = extraSegments.remove(id);
+	if (extra != null) {
+	    for (int i = 0; i < extra.length; i += 2) {
+		this.unpost(extra[i], extra[i + 1], id);
+	    }
+	}
+	present.set(id >>> 6, present.get(id >>> 6) & ~(1L << id));
+	return true;
+    }
+
+    /**
+     * The ids of segment in band, in a new array, or null if there are none
+     */
+    int[] get(int band, long segment) {
+	int value = tables[band].get(segment);
+	if (value == LongIntHashMap.MISSING) {
+	    return null;
+	}
+	if ((value & 1) == 0) {
+	    return new int[] { value >>> 1 };
+	}
+	int bucket = value >>> 1;
+	long from = start.get(bucket);
+	return arena.toArray(from, from + size.get(bucket));
+    }
+
+    /**
+     * Adds the ids stored in source, each as newIds[id], with the same
+     * segments and cardinality. Ids with a negative new id are left out.
+     * The segments are read back from the posting lists of source, so it can
+     * be a read-only storage that does not keep them.
+     */
+    void addAll(BandStorage source, int[] newIds) {
+	if (this.isReadOnly()) {
+	    throw new UnsupportedOperationException("The storage is read-only");
+	}
+	if (source.bands != bands) {
+	    throw new IllegalArgumentException("Different number of bands");
+	}
+	for (int id = 0; id < source.idBound; id++) {
+	    int newId = newIds[id];
+	    if (newId >= 0 && source.contains(id)) {
+		if (this.contains(newId)) {
+		    throw new IllegalArgumentException("Id already stored: " + newId);
+		}
+		this.ensureIds(newId);
+		cardinalities.set(newId, source.getCardinality(id));
+		present.set(newId >>> 6, present.get(newId >>> 6) | (1L << newId));
+	    }
+	}
+	// ids seen in the current band, any other segment of theirs in the band
+	// comes from inserting them again
+	BitSet seen = new BitSet(source.idBound);
+	for (int b = 0; b < bands; b++) {
+	    seen.clear();
+	    LongIntHashMap table = source.tables[b];
+	    for (int slot = 0; slot < table.capacity(); slot++) {
+		int value = table.valueAt(slot);
+		if (value == LongIntHashMap.MISSING) {
+		    continue;
+		}
+		long segment = table.keyAt(slot);
+		if ((value & 1) == 0) {
+		    this.addPosting(b, segment, value >>> 1, newIds, seen);
+		} else {
+		    int bucket = value >>> 1;
+		    long from = source.start.get(bucket);
+		    for (long i = from; i < from + source.size.get(bucket); i++) {
+			this.addPosting(b, segment, source.arena.get(i), newIds, seen);
+		    }
+		}
+	    }
+	}
+    }
+
+    private void addPosting(int band, long segment, int sourceId, int[] newIds, BitSet seen) {
+	int id = newIds[sourceId];
+	if (id < 0) {
+	    return;
+	}
+	long base = (long) id * bands;
+	if (!seen.get(sourceId)) {
+	    seen.set(sourceId);
+	    keySegments.set(base + band, (int) segment);
+	} else {
+	    // kept with the other segments, so that remove finds it
+	    int[] extra = extraSegments.get(id);
+	    int n = extra == null ? 0 : extra.length;
+	    extra = extra == null ? new int[2] : Arrays.copyOf(extra, n + 2);
+	    extra[n] = band;
+	    extra[n + 1] = (int) segment;
+	    extraSegments.put(id, extra);
+	}
+	this.post(band, segment, id);
+    }
+
+    private void ensureIds(int id) {
+	if (id >= maxIds) {
+	    // a multiple of 64, for the bits of present
+	    long length = Math.max(2 * maxIds, (id + 64L) & ~63L);
+	    // each array is replaced as soon as it is resized, so a failure
+	    // leaves them consistent
+	    cardinalities = cardinalities.resize(length);
+	    keySegments = keySegments.resize(length * bands);
+	    present = present.resize(length >>> 6);
+	    maxIds = length;
+	}
+	idBound = Math.max(idBound, id + 1);
+    }
+
+    private boolean isPosted(int band, long segment, int id) {
+	int value = tables[band].get(segment);
+	if (value == LongIntHashMap.MISSING) {
+	    return false;
+	}
+	if ((value & 1) == 0) {
+	    return value >>> 1 == id;
+	}
+	int bucket = value >>> 1;
+	long from = start.get(bucket);
+	for (long i = from; i < from + size.get(bucket); i++) {
+	    if (arena.get(i) == id) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private void post(int band, long segment, int id) {
+	LongIntHashMap table = tables[band];
+	int value = table.get(segment);
+	if (value == LongIntHashMap.MISSING) {
+	    table.put(segment, id << 1);
+	    return;
+	}
+	int bucket;
+	if ((value & 1) == 0) {
+	    // the second key of this segment
+	    bucket = this.newBucket();
+	    this.append(bucket, value >>> 1);
+	    table.put(segment, (bucket << 1) | 1);
+	} else {
+	    bucket = value >>> 1;
+	}
+	this.append(bucket, id);
+    }
+
+    private void unpost(int band, long segment, int id) {
+	LongIntHashMap table = tables[band];
+	int value = table.get(segment);
+	if (value == LongIntHashMap.MISSING) {
+	    return;
+	}
+	if ((value & 1) == 0) {
+	    if (value >>> 1 == id) {
+		table.remove(segment);
+	    }
+	    return;
+	}
+	int bucket = value >>> 1;
+	long from = start.get(bucket);
+	int n = size.get(bucket);
+	for (long i = from; i < from + n; i++) {
+	    if (arena.get(i) == id) {
+		arena.set(i, arena.get(from + n - 1));
+		size.set(bucket, --n);
+		break;
+	    }
+	}
+	if (n == 1) {
+	    // back to a single key in the table
+	    table.put(segment, arena.get(from) << 1);
+	    this.freeBucket(bucket);
+	}
+    }
+
+    private int newBucket() {
+	if (numFreeBuckets > 0) {
+	    return freeBuckets.get(--numFreeBuckets);
+	}
+	if (numBuckets == MAX_ID) {
+	    throw new IllegalStateException("Too many posting lists in the index");
+	}
+	if (numBuckets == maxBuckets) {
+	    long length = 2 * maxBuckets;
+	    start = start.resize(length);
+	    size = size.resize(length);
+	    capacity = capacity.resize(length);
+	    maxBuckets = length;
+	}
+	return numBuckets++;
+    }
+
+    private void freeBucket(int bucket) {
+	wasted += capacity.get(bucket);
+	size.set(bucket, 0);
+	capacity.set(bucket, 0);
+	try {
+	    if (numFreeBuckets == freeBuckets.length()) {
+		freeBuckets = freeBuckets.resize(2 * freeBuckets.length());
+	    }
+	    freeBuckets.set(numFreeBuckets++, bucket);
+	} catch (IllegalStateException e) {
+	    // out of memory, the bucket is not reused
+	}
+	this.maybeCompact();
+    }
+
+    private void append(int bucket, int id) {
+	int n = size.get(bucket);
+	if (n == capacity.get(bucket)) {
+	    this.grow(bucket);
+	}
+	arena.set(start.get(bucket) + n, id);
+	size.set(bucket, n + 1);
+    }
+
+    private void grow(int bucket) {
+	int oldCapacity = capacity.get(bucket);
+	int newCapacity = Math.max(2, 2 * oldCapacity);
+	long from = start.get(bucket);
+	if (oldCapacity > 0 && from + oldCapacity == arenaTop) {
+	    // last in the arena, grows in place
+	    this.ensureArena(newCapacity - oldCapacity);
+	} else {
+	    this.ensureArena(newCapacity);
+	    if (oldCapacity > 0) {
+		arena.copyTo(from, arena, arenaTop, size.get(bucket));
+	    }
+	    wasted += oldCapacity;
+	    from = arenaTop;
+	    start.set(bucket, from);
+	}
+	arenaTop = from + newCapacity;
+	capacity.set(bucket, newCapacity);
+	this.maybeCompact();
+    }
+
+    private void ensureArena(int more) {
+	if (arenaTop + more > arena.length()) {
+	    arena = arena.resize(Math.max(2 * arena.length(), arenaTop + more));
+	}
+    }
+
+    private void maybeCompact() {
+	if (arenaTop < MIN_COMPACTION || wasted <= arenaTop / 2) {
+	    return;
+	}
+	IntArray compacted;
+	try {
+	    compacted = memory.allocateInts(arenaTop - wasted + (arenaTop - wasted) / 2);
+	} catch (IllegalStateException e) {
+	    // out of memory, try again later
+	    return;
+	}
+	long top = 0;
+	for (int bucket = 0; bucket < numBuckets; bucket++) {
+	    int c = capacity.get(bucket);
+	    if (c > 0) {
+		arena.copyTo(start.get(bucket), compacted, top, size.get(bucket));
+		start.set(bucket, top);
+		top += c;
+	    }
+	}
+	arena.free();
+	arena = compacted;
+	arenaTop = top;
+	wasted = 0;
+    }
+
+    /**
+     * Releases all arrays, the storage must not be used afterwards
+     */
+    void free() {
+	for (LongIntHashMap table : tables) {
+	    table.free();
+	}
+	start.free();
+	size.free();
+	arena.free();
+	cardinalities.free();
+	present.free();
+	if (!this.isReadOnly()) {
+	    capacity.free();
+	    freeBuckets.free();
+	    keySegments.free();
+	}
+	extraSegments.clear();
+    }
+
+    /**
+     * Writes the sizes of the storage to the header of out
+     */
+    void writeHeader(IndexFile.Writer out) throws IOException {
+	out.putInt(bands);
+	out.putInt(numBuckets);
+	out.putInt(idBound);
+	for (LongIntHashMap table : tables) {
+	    out.putInt(table.capacity());
+	    out.putInt(table.size());
+	}
+    }
+
+    /**
+     * Writes the arrays of the storage to out, one section each: the keys and
+     * values of each table, then the start and size of each bucket, the
+     * posting lists, the cardinalities and the bits of present ids. Posting
+     * lists are packed, without the room they had to grow.
+     */
+    void writeArrays(IndexFile.Writer out) throws IOException {
+	for (LongIntHashMap table : tables) {
+	    out.beginSection();
+	    for (int slot = 0; slot < table.capacity(); slot++) {
+		out.putLong(table.keyAt(slot));
+	    }
+	    out.endSection();
+	    out.beginSection();
+	    for (int slot = 0; slot < table.capacity(); slot++) {
+		out.putInt(table.valueAt(slot));
+	    }
+	    out.endSection();
+	}
+	out.beginSection();
+	long packed = 0;
+	for (int bucket = 0; bucket < numBuckets; bucket++) {
+	    out.putLong(packed);
+	    packed += size.get(bucket);
+	}
+	out.endSection();
+	out.beginSection();
+	for (int bucket = 0; bucket < numBuckets; bucket++) {
+	    out.putInt(size.get(bucket));
+	}
+	out.endSection();
+	out.beginSection();
+	for (int bucket = 0; bucket < numBuckets; bucket++) {
+	    long from = start.get(bucket);
+	    for (long i = from; i < from + size.get(bucket); i++) {
+		out.putInt(arena.get(i));
+	    }
+	}
+	out.endSection();
+	out.beginSection();
+	for (int id = 0; id < idBound; id++) {
+	    out.putLong(cardinalities.get(id));
+	}
+	out.endSection();
+	out.beginSection();
+	for (int i = 0; i < (idBound + 63) >>> 6; i++) {
+	    out.putLong(present.get(i));
+	}
+	out.endSection();
+    }
+
+    /**
+     * A read-only storage over the sections of in, as written by writeHeader
+     * and writeArrays
+     */
+    static BandStorage read(ByteBuffer header, IndexFile in) throws IOException {
+	int bands = header.getInt();
+	int numBuckets = header.getInt();
+	int idBound = header.getInt();
+	if (bands <= 0 || numBuckets < 0 || idBound < 0 || idBound > MAX_ID + 1) {
+	    throw new IOException("Corrupt LazoIndex file: bad band storage header");
+	}
+	int[] tableSizes = new int[bands];
+	long[] tableCapacities = new long[bands];
+	for (int b = 0; b < bands; b++) {
+	    tableCapacities[b] = header.getInt();
+	    tableSizes[b] = header.getInt();
+	}
+	LongIntHashMap[] tables = new LongIntHashMap[bands];
+	for (int b = 0; b < bands; b++) {
+	    LongArray keys = checkLength(in.nextLongs(), tableCapacities[b]);
+	    IntArray values = checkLength(in.nextInts(), tableCapacities[b]);
+	    try {
+		tables[b] = new LongIntHashMap(keys, values, tableSizes[b]);
+	    } catch (IllegalArgumentException e) {
+		throw new IOException("Corrupt LazoIndex file: bad table of band " + b, e);
+	    }
+	}
+	LongArray start = checkLength(in.nextLongs(), numBuckets);
+	IntArray size = checkLength(in.nextInts(), numBuckets);
+	IntArray arena = in.nextInts();
+	LongArray cardinalities = checkLength(in.nextLongs(), idBound);
+	LongArray present = checkLength(in.nextLongs(), (idBound + 63) >>> 6);
+	return new BandStorage(bands, tables, start, size, numBuckets, arena, cardinalities, present, idBound);
+    }
+
+    private static IntArray checkLength(IntArray array, long length) throws IOException {
+	if (array.length() != length) {
+	    throw new IOException("Corrupt LazoIndex file: section of " + array.length() + " ints, not " + length);
+	}
+	return array;
+    }
+
+    private static LongArray checkLength(LongArray array, long length) throws IOException {
+	if (array.length() != length) {
+	    throw new IOException("Corrupt LazoIndex file: section of " + array.length() + " longs, not " + length);
+	}
+	return array;
+    }
+
+}
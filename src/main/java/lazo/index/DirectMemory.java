@@ -0,0 +1,315 @@
+package lazo.index;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IndexMemory of direct ByteBuffers, outside the JVM heap. Arrays up to
+ * CHUNK_BYTES are one buffer of their exact size; larger ones are split in
+ * chunks of CHUNK_BYTES, so they can go past 2GB and grow without copying.
+ *
+ * The memory has a capacity in bytes that allocations cannot exceed, and
+ * close() releases all its buffers at once. Buffers are released right away
+ * where the JVM allows it (Java 8 cleaners, Unsafe.invokeCleaner from Java
+ * 9), and by the GC otherwise.
+ */
+final class DirectMemory extends IndexMemory {
+
+    static final int CHUNK_SHIFT = 24;
+    static final int CHUNK_BYTES = 1 << CHUNK_SHIFT;
+
+    private final long capacity;
+    private long allocatedBytes;
+    private boolean closed;
+    private final Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    DirectMemory(long capacity) {
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("Capacity must be positive (> 0)");
+	}
+	this.capacity = capacity;
+    }
+
+    long getCapacity() {
+	return capacity;
+    }
+
+    @Override
+    synchronized long getOffHeapBytes() {
+	return allocatedBytes;
+    }
+
+    private synchronized ByteBuffer allocate(int bytes) {
+	if (closed) {
+	    throw new IllegalStateException("The index is closed");
+	}
+	if (allocatedBytes + bytes > capacity) {
+	    throw new IllegalStateException("Off-heap capacity of " + capacity + " bytes exceeded");
+	}
+	ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	allocatedBytes += bytes;
+	buffers.add(buffer);
+	return buffer;
+    }
+
+    private synchronized void release(ByteBuffer buffer) {
+	if (buffers.remove(buffer)) {
+	    allocatedBytes -= buffer.capacity();
+	    Cleaner.clean(buffer);
+	}
+    }
+
+    /**
+     * Releases all buffers. Arrays of this memory must not be used afterwards.
+     */
+    synchronized void close() {
+	for (ByteBuffer buffer : buffers) {
+	    Cleaner.clean(buffer);
+	}
+	buffers.clear();
+	allocatedBytes = 0;
+	closed = true;
+    }
+
+    /**
+     * Buffers of length elements of 1 << shift bytes
+     */
+    private ByteBuffer[] allocateChunks(long length, int shift) {
+	long bytes = length << shift;
+	if (bytes <= CHUNK_BYTES) {
+	    return new ByteBuffer[] { this.allocate((int) bytes) };
+	}
+	List<ByteBuffer> chunks = new ArrayList<>();
+	try {
+	    for (long b = 0; b < bytes; b += CHUNK_BYTES) {
+		chunks.add(this.allocate(CHUNK_BYTES));
+	    }
+	} catch (IllegalStateException e) {
+	    for (ByteBuffer chunk : chunks) {
+		this.release(chunk);
+	    }
+	    throw e;
+	}
+	return chunks.toArray(new ByteBuffer[chunks.size()]);
+    }
+
+    /**
+     * Chunks of newLength elements with the first ones of chunks. Full
+     * chunks are kept as they are.
+     */
+    private ByteBuffer[] resizeChunks(ByteBuffer[] chunks, long length, long newLength, int shift) {
+	long bytes = length << shift;
+	long newBytes = newLength << shift;
+	if (bytes >= CHUNK_BYTES && newBytes > bytes) {
+	    ByteBuffer[] resized = Arrays.copyOf(chunks, (int) ((newBytes + CHUNK_BYTES - 1) >>> CHUNK_SHIFT));
+	    try {
+		for (int c = chunks.length; c < resized.length; c++) {
+		    resized[c] = this.allocate(CHUNK_BYTES);
+		}
+	    } catch (IllegalStateException e) {
+		for (int c = chunks.length; c < resized.length && resized[c] != null; c++) {
+		    this.release(resized[c]);
+		}
+		throw e;
+	    }
+	    return resized;
+	}
+	ByteBuffer[] resized = this.allocateChunks(newLength, shift);
+	// same layout, so chunk c goes to chunk c
+	long copied = Math.min(bytes, newBytes);
+	for (int c = 0; c < chunks.length && ((long) c << CHUNK_SHIFT) < copied; c++) {
+	    ByteBuffer src = chunks[c].duplicate();
+	    src.position(0);
+	    src.limit((int) Math.min(src.capacity(), copied - ((long) c << CHUNK_SHIFT)));
+	    ByteBuffer dst = resized[c].duplicate();
+	    dst.position(0);
+	    dst.put(src);
+	}
+	this.freeChunks(chunks);
+	return resized;
+    }
+
+    private void freeChunks(ByteBuffer[] chunks) {
+	for (ByteBuffer chunk : chunks) {
+	    this.release(chunk);
+	}
+    }
+
+    @Override
+    IntArray allocateInts(long length) {
+	return new DirectIntArray(this, this.allocateChunks(length, 2), length);
+    }
+
+    @Override
+    LongArray allocateLongs(long length) {
+	return new DirectLongArray(this, this.allocateChunks(length, 3), length);
+    }
+
+    /**
+     * A read-only int array over chunks of CHUNK_BYTES that belong to no
+     * memory, such as the mapped sections of an IndexFile
+     */
+    static IntArray wrapInts(ByteBuffer[] chunks, long length) {
+	return new DirectIntArray(null, chunks, length);
+    }
+
+    /**
+     * A read-only long array over chunks, see wrapInts
+     */
+    static LongArray wrapLongs(ByteBuffer[] chunks, long length) {
+	return new DirectLongArray(null, chunks, length);
+    }
+
+    /**
+     * Unmaps a mapped buffer now. It must not be used afterwards.
+     */
+    static void unmap(ByteBuffer buffer) {
+	Cleaner.clean(buffer);
+    }
+
+    static final class DirectIntArray extends IntArray {
+
+	private static final int SHIFT = CHUNK_SHIFT - 2;
+	private static final long MASK = (1L << SHIFT) - 1;
+
+	private final DirectMemory memory;
+	private final ByteBuffer[] chunks;
+	private final long length;
+
+	DirectIntArray(DirectMemory memory, ByteBuffer[] chunks, long length) {
+	    this.memory = memory;
+	    this.chunks = chunks;
+	    this.length = length;
+	}
+
+	@Override
+	long length() {
+	    return length;
+	}
+
+	@Override
+	int get(long i) {
+	    return chunks[(int) (i >>> SHIFT)].getInt((int) (i & MASK) << 2);
+	}
+
+	@Override
+	void set(long i, int value) {
+	    chunks[(int) (i >>> SHIFT)].putInt((int) (i & MASK) << 2, value);
+	}
+
+	@Override
+	IntArray resize(long newLength) {
+	    if (memory == null) {
+		throw new UnsupportedOperationException("The array is read-only");
+	    }
+	    return new DirectIntArray(memory, memory.resizeChunks(chunks, length, newLength, 2), newLength);
+	}
+
+	@Override
+	void free() {
+	    if (memory != null) {
+		memory.freeChunks(chunks);
+	    }
+	}
+    }
+
+    static final class DirectLongArray extends LongArray {
+
+	private static final int SHIFT = CHUNK_SHIFT - 3;
+	private static final long MASK = (1L << SHIFT) - 1;
+
+	private final DirectMemory memory;
+	private final ByteBuffer[] chunks;
+	private final long length;
+
+	DirectLongArray(DirectMemory memory, ByteBuffer[] chunks, long length) {
+	    this.memory = memory;
+	    this.chunks = chunks;
+	    this.length = length;
+	}
+
+	@Override
+	long length() {
+	    return length;
+	}
+
+	@Override
+	long get(long i) {
+	    return chunks[(int) (i >>> SHIFT)].getLong((int) (i & MASK) << 3);
+	}
+
+	@Override
+	void set(long i, long value) {
+	    chunks[(int) (i >>> SHIFT)].putLong((int) (i & MASK) << 3, value);
+	}
+
+	@Override
+	LongArray resize(long newLength) {
+	    if (memory == null) {
+		throw new UnsupportedOperationException("The array is read-only");
+	    }
+	    return new DirectLongArray(memory, memory.resizeChunks(chunks, length, newLength, 3), newLength);
+	}
+
+	@Override
+	void free() {
+	    if (memory != null) {
+		memory.freeChunks(chunks);
+	    }
+	}
+    }
+
+    /**
+     * Releases direct buffers without waiting for the GC, through the JDK
+     * internals that allow it, if any
+     */
+    private static final class Cleaner {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+	    Object unsafe = null;
+	    Method invokeCleaner = null;
+	    try {
+		// Java 9 and later
+		Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+		invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+		theUnsafe.setAccessible(true);
+		unsafe = theUnsafe.get(null);
+	    } catch (ReflectiveOperationException | RuntimeException e) {
+		invokeCleaner = null;
+	    }
+	    UNSAFE = unsafe;
+	    INVOKE_CLEANER = invokeCleaner;
+	}
+
+	static void clean(ByteBuffer buffer) {
+	    try {
+		if (INVOKE_CLEANER != null) {
+		    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} else {
+		    // Java 8
+		    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+		    cleanerMethod.setAccessible(true);
+		    Object cleaner = cleanerMethod.invoke(buffer);
+		    if (cleaner != null) {
+			cleaner.getClass().getMethod("clean").invoke(cleaner);
+		    }
+		}
+	    } catch (ReflectiveOperationException | RuntimeException e) {
+		// the GC releases it when the buffer is unreachable
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,419 @@
+package lazo.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.PermutationFamilyType;
+
+/**
+ * A LazoIndex whose changes survive a crash. Every insert, remove and update
+ * is appended to a write-ahead log in a directory, with the key, the hash
+ * values and the cardinality of the sketch, and is synced to disk according
+ * to a SyncPolicy. In the background, the index is saved as a snapshot every
+ * snapshotInterval records, and the log before it is deleted. Creating a
+ * DurableLazoIndex on the same directory loads the last snapshot and replays
+ * the log after it.
+ *
+ * The directory holds snapshot-&lt;n&gt;.lazo, an index written by
+ * LazoIndex.save with the changes logged before segment n, and the log
+ * segments wal-&lt;n&gt;.log from it on.
+ *
+ * A change is applied to the index only if the log has not failed, and is
+ * then always appended to it, so the index never holds a change the log
+ * lacks; the change throws if syncing it fails.
+ *
+ * The index can be used from several threads: queries run concurrently with
+ * each other, and changes one at a time. Changes wait while a snapshot is
+ * being written, queries do not. Keys must be strings, integers, longs or
+ * Serializable.
+ */
+public class DurableLazoIndex implements AutoCloseable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".lazo";
+
+    private final Path dir;
+    private final SyncPolicy syncPolicy;
+    private final int batchSize;
+    private final long snapshotInterval;
+
+    private final LazoIndex index;
+    private final WriteAheadLog wal;
+    // queries read, changes write; snapshots read after rolling the log
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object();
+    private final ScheduledExecutorService background;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    // sequence number of the last record in the last snapshot, negative for
+    // records replayed from an older log
+    private volatile long snapshotSeq;
+    private volatile IOException snapshotFailure;
+    private boolean closed;
+
+    /**
+     * A durable index in dir, with BATCH sync of 1024 records or 100ms and a
+     * snapshot every million records
+     */
+    public DurableLazoIndex(Path dir, int k, float d) throws IOException {
+	this(dir, k, d, SyncPolicy.BATCH, 1024, 100, 1000000);
+    }
+
+    /**
+     * A durable index in dir, which is created if needed or recovered if it
+     * holds an index already; k and d must then be those it was created with.
+     * batchSize and syncIntervalMillis bound the records synced at once with
+     * the BATCH and NONE policies. A snapshot is taken every snapshotInterval
+     * records, never if 0.
+     */
+    public DurableLazoIndex(Path dir, int k, float d, SyncPolicy syncPolicy, int batchSize, long syncIntervalMillis,
+	    long snapshotInterval) throws IOException {
+	if (dir == null || syncPolicy == null) {
+	    throw new IllegalArgumentException("Directory and sync policy cannot be null");
+	}
+	if (batchSize <= 0 || syncIntervalMillis <= 0) {
+	    throw new IllegalArgumentException("Batch size and sync interval must be positive (> 0)");
+	}
+	if (snapshotInterval < 0) {
+	    throw new IllegalArgumentException("Snapshot interval cannot be negative");
+	}
+	this.dir = dir;
+	this.syncPolicy = syncPolicy;
+	this.batchSize = batchSize;
+	this.snapshotInterval = snapshotInterval;
+
+	Files.createDirectories(dir);
+	// snapshots that were being written
+	this.deleteFiles(SNAPSHOT_PREFIX + "*.tmp");
+	long snapshot = this.lastSnapshot();
+	LazoIndex index = snapshot < 0 ? new LazoIndex(k, d) : LazoIndex.load(this.snapshotPath(snapshot));
+	if (index.getK() != k || index.getD() != d) {
+	    throw new IllegalArgumentException("The index in " + dir + " has k = " + index.getK() + " and d = "
+		    + index.getD() + ", not " + k + " and " + d);
+	}
+	// segments before the snapshot are left from a crash before deleting
+	// them
+	this.deleteSegments(snapshot);
+	List<Long> segments = WriteAheadLog.segments(dir);
+	long replayed = 0;
+	for (int i = 0; i < segments.size(); i++) {
+	    replayed += WriteAheadLog.replay(dir, segments.get(i), i == segments.size() - 1, index);
+	}
+	long next = Math.max(0, snapshot);
+	if (!segments.isEmpty()) {
+	    next = Math.max(next, segments.get(segments.size() - 1) + 1);
+	}
+	this.index = index;
+	this.wal = new WriteAheadLog(dir, next, k, d);
+	this.snapshotSeq = -replayed;
+
+	this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+	    Thread thread = new Thread(r, "lazo-wal-" + dir.getFileName());
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	if (syncPolicy != SyncPolicy.EVERY_WRITE) {
+	    background.scheduleWithFixedDelay(this::syncInBackground, syncIntervalMillis, syncIntervalMillis,
+		    TimeUnit.MILLISECONDS);
+	}
+	this.maybeSnapshot();
+    }
+
+    private Path snapshotPath(long segment) {
+	return dir.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * Numbers of the snapshots in dir
+     */
+    private List<Long> snapshots() throws IOException {
+	List<Long> snapshots = new ArrayList<>();
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+	    for (Path file : files) {
+		String name = file.getFileName().toString();
+		try {
+		    snapshots.add(Long.parseLong(
+			    name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())));
+		} catch (NumberFormatException e) {
+		    // not a snapshot
+		}
+	    }
+	}
+	return snapshots;
+    }
+
+    /**
+     * Number of the last snapshot, or -1 if there is none
+     */
+    private long lastSnapshot() throws IOException {
+	long last = -1;
+	for (long snapshot : this.snapshots()) {
+	    last = Math.max(last, snapshot);
+	}
+	return last;
+    }
+
+    private void deleteFiles(String glob) throws IOException {
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+	    for (Path file : files) {
+		Files.delete(file);
+	    }
+	}
+    }
+
+    private void deleteSegments(long before) throws IOException {
+	for (long segment : WriteAheadLog.segments(dir)) {
+	    if (segment < before) {
+		Files.delete(WriteAheadLog.segmentPath(dir, segment));
+	    }
+	}
+    }
+
+    private void deleteSnapshots(long before) throws IOException {
+	for (long snapshot : this.snapshots()) {
+	    if (snapshot < before) {
+		Files.delete(this.snapshotPath(snapshot));
+	    }
+	}
+    }
+
+    private void checkOpen() {
+	if (closed) {
+	    throw new IllegalStateException("The index is closed");
+	}
+    }
+
+    public boolean insert(Object key, LazoSketch sketch) {
+	byte[] keyBytes = encodeKey(key);
+	long[] hashValues = sketch.getHashValues();
+	long cardinality = sketch.getCardinality();
+	PermutationFamilyType family = sketch.getPermutationFamilyType();
+	byte[] record = WriteAheadLog.insertRecord(WriteAheadLog.INSERT, keyBytes, family, hashValues, cardinality);
+	long seq;
+	lock.writeLock().lock();
+	try {
+	    this.checkOpen();
+	    wal.checkFailure();
+	    index.insert(key, hashValues, cardinality, family);
+	    seq = wal.append(record);
+	} finally {
+	    lock.writeLock().unlock();
+	}
+	this.logged(seq);
+	return true;
+    }
+
+    public boolean remove(Object key) {
+	byte[] record = WriteAheadLog.removeRecord(encodeKey(key));
+	long seq;
+	lock.writeLock().lock();
+	try {
+	    this.checkOpen();
+	    wal.checkFailure();
+	    if (!index.remove(key)) {
+		return false;
+	    }
+	    seq = wal.append(record);
+	} finally {
+	    lock.writeLock().unlock();
+	}
+	this.logged(seq);
+	return true;
+    }
+
+    public boolean update(Object key, LazoSketch sketch) {
+	byte[] keyBytes = encodeKey(key);
+	long[] hashValues = sketch.getHashValues();
+	long cardinality = sketch.getCardinality();
+	PermutationFamilyType family = sketch.getPermutationFamilyType();
+	byte[] record = WriteAheadLog.insertRecord(WriteAheadLog.UPDATE, keyBytes, family, hashValues, cardinality);
+	long seq;
+	lock.writeLock().lock();
+	try {
+	    this.checkOpen();
+	    wal.checkFailure();
+	    boolean removed = index.remove(key);
+	    try {
+		index.insert(key, hashValues, cardinality, family);
+	    } catch (RuntimeException e) {
+		if (removed) {
+		    wal.append(WriteAheadLog.removeRecord(keyBytes));
+		}
+		throw e;
+	    }
+	    seq = wal.append(record);
+	} finally {
+	    lock.writeLock().unlock();
+	}
+	this.logged(seq);
+	return true;
+    }
+
+    private static byte[] encodeKey(Object key) {
+	if (key == null) {
+	    throw new IllegalArgumentException("Key cannot be null");
+	}
+	return IndexFile.encodeKey(key);
+    }
+
+    /**
+     * Syncs the record seq as the policy says, and schedules a snapshot if
+     * it is time for one
+     */
+    private void logged(long seq) {
+	try {
+	    if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+		wal.sync(seq, true);
+	    } else if (wal.getPending() >= batchSize) {
+		wal.sync(seq, syncPolicy == SyncPolicy.BATCH);
+	    }
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+	this.maybeSnapshot();
+    }
+
+    private void maybeSnapshot() {
+	if (snapshotInterval > 0 && wal.getAppended() - snapshotSeq >= snapshotInterval
+		&& snapshotScheduled.compareAndSet(false, true)) {
+	    try {
+		background.execute(() -> {
+		    try {
+			this.snapshot();
+		    } catch (IOException e) {
+			// the log still has the records, try again after another
+			// interval
+			snapshotFailure = e;
+			snapshotSeq = wal.getAppended();
+		    } catch (IllegalStateException e) {
+			// closed, or the log failed
+		    } finally {
+			snapshotScheduled.set(false);
+		    }
+		});
+	    } catch (RuntimeException e) {
+		// rejected, the index is being closed
+		snapshotScheduled.set(false);
+	    }
+	}
+    }
+
+    private void syncInBackground() {
+	try {
+	    wal.sync(wal.getAppended(), syncPolicy == SyncPolicy.BATCH);
+	} catch (IOException | IllegalStateException e) {
+	    // the log is failed, and changes throw from now on
+	}
+    }
+
+    /**
+     * Syncs all the changes logged so far to disk, whatever the policy
+     */
+    public void sync() throws IOException {
+	wal.sync(wal.getAppended(), true);
+    }
+
+    /**
+     * Saves the index as a snapshot now, and deletes the log before it and
+     * the previous snapshot. Changes wait until the snapshot is written.
+     */
+    public void snapshot() throws IOException {
+	synchronized (snapshotLock) {
+	    long segment;
+	    lock.writeLock().lock();
+	    try {
+		this.checkOpen();
+		segment = wal.roll();
+		snapshotSeq = wal.getAppended();
+		// changes wait for the snapshot, queries go on
+		lock.readLock().lock();
+	    } finally {
+		lock.writeLock().unlock();
+	    }
+	    try {
+		// syncs the directory, so the snapshot and the segment after it
+		// are on disk before the files they replace are deleted
+		index.save(this.snapshotPath(segment));
+	    } finally {
+		lock.readLock().unlock();
+	    }
+	    this.deleteSnapshots(segment);
+	    this.deleteSegments(segment);
+	    snapshotFailure = null;
+	}
+    }
+
+    public Set<LazoIndex.LazoCandidate> querySimilarity(LazoSketch sketch, float js_threshold) {
+	return this.query(sketch, js_threshold, 0f);
+    }
+
+    public Set<LazoIndex.LazoCandidate> queryContainment(LazoSketch sketch, float jcx_threshold) {
+	return this.query(sketch, 0f, jcx_threshold);
+    }
+
+    public Set<LazoIndex.LazoCandidate> query(LazoSketch sketch, float js_threshold, float jcx_threshold) {
+	lock.readLock().lock();
+	try {
+	    this.checkOpen();
+	    return index.query(sketch, js_threshold, jcx_threshold);
+	} finally {
+	    lock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Syncs the log and closes the index. It does not take a snapshot, the
+     * log since the last one is replayed when the index is created again. A
+     * background snapshot that failed is reported here, unless a later one
+     * succeeded.
+     */
+    @Override
+    public void close() throws IOException {
+	lock.writeLock().lock();
+	try {
+	    if (closed) {
+		return;
+	    }
+	    closed = true;
+	} finally {
+	    lock.writeLock().unlock();
+	}
+	shutdown(background);
+	synchronized (snapshotLock) {
+	    try {
+		wal.close();
+	    } finally {
+		index.close();
+	    }
+	}
+	if (snapshotFailure != null) {
+	    throw snapshotFailure;
+	}
+    }
+
+    private static void shutdown(ExecutorService executor) throws IOException {
+	executor.shutdown();
+	try {
+	    // a snapshot may be running
+	    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+		// wait for it
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while closing the index", e);
+	}
+    }
+
+}
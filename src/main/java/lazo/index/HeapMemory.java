@@ -0,0 +1,119 @@
+package lazo.index;
+
+import java.util.Arrays;
+
+/**
+ * IndexMemory of plain Java arrays, of at most 2^31 - 1 elements
+ */
+final class HeapMemory extends IndexMemory {
+
+    private static int checkLength(long length) {
+	if (length < 0 || length > Integer.MAX_VALUE - 8) {
+	    throw new IllegalArgumentException("Array length out of range for the heap: " + length);
+	}
+	return (int) length;
+    }
+
+    @Override
+    IntArray allocateInts(long length) {
+	return new HeapIntArray(new int[checkLength(length)]);
+    }
+
+    @Override
+    LongArray allocateLongs(long length) {
+	return new HeapLongArray(new long[checkLength(length)]);
+    }
+
+    static final class HeapIntArray extends IntArray {
+
+	private final int[] a;
+
+	HeapIntArray(int[] a) {
+	    this.a = a;
+	}
+
+	@Override
+	long length() {
+	    return a.length;
+	}
+
+	@Override
+	int get(long i) {
+	    return a[(int) i];
+	}
+
+	@Override
+	void set(long i, int value) {
+	    a[(int) i] = value;
+	}
+
+	@Override
+	IntArray resize(long newLength) {
+	    return new HeapIntArray(Arrays.copyOf(a, checkLength(newLength)));
+	}
+
+	@Override
+	void free() {
+	    // left to the GC
+	}
+
+	@Override
+	void fill(long from, long to, int value) {
+	    Arrays.fill(a, (int) from, (int) to, value);
+	}
+
+	@Override
+	void copyTo(long srcPos, IntArray dst, long dstPos, long n) {
+	    if (dst instanceof HeapIntArray) {
+		System.arraycopy(a, (int) srcPos, ((HeapIntArray) dst).a, (int) dstPos, (int) n);
+	    } else {
+		super.copyTo(srcPos, dst, dstPos, n);
+	    }
+	}
+
+	@Override
+	int[] toArray(long from, long to) {
+	    return Arrays.copyOfRange(a, (int) from, (int) to);
+	}
+    }
+
+    static final class HeapLongArray extends LongArray {
+
+	private final long[] a;
+
+	HeapLongArray(long[] a) {
+	    this.a = a;
+	}
+
+	@Override
+	long length() {
+	    return a.length;
+	}
+
+	@Override
+	long get(long i) {
+	    return a[(int) i];
+	}
+
+	@Override
+	void set(long i, long value) {
+	    a[(int) i] = value;
+	}
+
+	@Override
+	LongArray resize(long newLength) {
+	    return new HeapLongArray(Arrays.copyOf(a, checkLength(newLength)));
+	}
+
+	@Override
+	void free() {
+	    // left to the GC
+	}
+
+	@Override
+	void fill(long from, long to, long value) {
+	    Arrays.fill(a, (int) from, (int) to, value);
+	}
+    }
+
+}
@@ -0,0 +1,433 @@
+package lazo.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * File format of a saved LazoIndex, meant to be memory-mapped. The file is
+ * little-endian and is a sequence of sections, each starting at a page
+ * boundary: a header with the parameters of the index, then the arrays of the
+ * storage exactly as BandStorage uses them, and then the keys. A directory at
+ * the end gives the offset and length of each section, and the preamble at
+ * the start of the file gives the offset of the directory:
+ *
+ * <pre>
+ * magic "LZIX", version, directory offset
+ * header           parameters and sizes, see LazoIndex.save and BandStorage.writeHeader
+ * arrays           one section each, in the order BandStorage.writeArrays writes them
+ * key bytes        each key as a tag byte and its encoding
+ * key offsets      idBound + 1 longs into the key bytes, equal for free ids
+ * directory        number of sections, and (offset, length) of each
+ * </pre>
+ *
+ * Opening maps each array in chunks of DirectMemory.CHUNK_BYTES, so arrays
+ * are read with the same code as off-heap ones, and pages are only read from
+ * disk when a query touches them. Keys are decoded when they are returned.
+ */
+final class IndexFile implements AutoCloseable {
+
+    private static final int MAGIC = 0x4C5A4958; // "LZIX"
+    private static final int VERSION = 3;
+    private static final int PREAMBLE_SIZE = 16;
+    private static final int PAGE_SIZE = 4096;
+
+    // key tags, see encodeKey
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte SERIALIZED = 4;
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final long[] lengths;
+    private int nextSection;
+    private final List<ByteBuffer> mapped = new ArrayList<>();
+
+    private ByteBuffer[] keyBytes;
+    private LongArray keyOffsets;
+
+    private IndexFile(FileChannel channel, long[] offsets, long[] lengths) {
+	this.channel = channel;
+	this.offsets = offsets;
+	this.lengths = lengths;
+    }
+
+    /**
+     * Maps the file at path. The first section, the header, can then be read
+     * with header(), and the others in order with the next methods.
+     */
+    static IndexFile open(Path path) throws IOException {
+	FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+	try {
+	    long size = channel.size();
+	    ByteBuffer preamble = read(channel, 0, PREAMBLE_SIZE, size);
+	    if (preamble.getInt() != MAGIC) {
+		throw new IOException("Not a LazoIndex file: " + path);
+	    }
+	    int version = preamble.getInt();
+	    if (version != VERSION) {
+		throw new IOException("Unsupported LazoIndex file version: " + version);
+	    }
+	    long directoryOffset = preamble.getLong();
+	    ByteBuffer count = read(channel, directoryOffset, 4, size);
+	    int numSections = count.getInt();
+	    if (numSections < 0 || numSections > (size - directoryOffset) / 16) {
+		throw new IOException("Corrupt LazoIndex file: " + path);
+	    }
+	    ByteBuffer directory = read(channel, directoryOffset + 4, 16 * numSections, size);
+	    long[] offsets = new long[numSections];
+	    long[] lengths = new long[numSections];
+	    for (int s = 0; s < numSections; s++) {
+		offsets[s] = directory.getLong();
+		lengths[s] = directory.getLong();
+		if (offsets[s] < 0 || lengths[s] < 0 || offsets[s] + lengths[s] > size) {
+		    throw new IOException("Corrupt LazoIndex file: " + path);
+		}
+	    }
+	    return new IndexFile(channel, offsets, lengths);
+	} catch (IOException | RuntimeException e) {
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, long size) throws IOException {
+	if (position < 0 || position + length > size) {
+	    throw new IOException("Truncated LazoIndex file");
+	}
+	ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+	while (buf.hasRemaining()) {
+	    if (channel.read(buf, position + buf.position()) < 0) {
+		throw new IOException("Truncated LazoIndex file");
+	    }
+	}
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Syncs the entries of dir to disk, so that files created, renamed or
+     * deleted in it survive a crash. Platforms that cannot open a directory
+     * do not need it.
+     */
+    static void syncDirectory(Path dir) throws IOException {
+	FileChannel channel;
+	try {
+	    channel = FileChannel.open(dir, StandardOpenOption.READ);
+	} catch (IOException e) {
+	    return;
+	}
+	try {
+	    channel.force(true);
+	} finally {
+	    channel.close();
+	}
+    }
+
+    private int section() throws IOException {
+	if (nextSection == offsets.length) {
+	    throw new IOException("Corrupt LazoIndex file: missing sections");
+	}
+	return nextSection++;
+    }
+
+    /**
+     * The next section, mapped in chunks
+     */
+    private ByteBuffer[] mapNext() throws IOException {
+	int s = this.section();
+	long length = lengths[s];
+	int numChunks = (int) Math.max(1, (length + DirectMemory.CHUNK_BYTES - 1) >>> DirectMemory.CHUNK_SHIFT);
+	ByteBuffer[] chunks = new ByteBuffer[numChunks];
+	for (int c = 0; c < numChunks; c++) {
+	    long from = (long) c << DirectMemory.CHUNK_SHIFT;
+	    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offsets[s] + from,
+		    Math.min(DirectMemory.CHUNK_BYTES, length - from));
+	    chunks[c] = chunk.order(ByteOrder.LITTLE_ENDIAN);
+	    mapped.add(chunk);
+	}
+	return chunks;
+    }
+
+    ByteBuffer header() throws IOException {
+	return this.mapNext()[0];
+    }
+
+    IntArray nextInts() throws IOException {
+	long length = lengths[nextSection] / 4;
+	return DirectMemory.wrapInts(this.mapNext(), length);
+    }
+
+    LongArray nextLongs() throws IOException {
+	long length = lengths[nextSection] / 8;
+	return DirectMemory.wrapLongs(this.mapNext(), length);
+    }
+
+    /**
+     * Maps the keys, the last two sections
+     */
+    void openKeys() throws IOException {
+	keyBytes = this.mapNext();
+	keyOffsets = this.nextLongs();
+    }
+
+    /**
+     * One more than the largest id with a key, as KeyDictionary.getIdBound
+     */
+    int getKeyIdBound() {
+	return (int) (keyOffsets.length() - 1);
+    }
+
+    /**
+     * The key of id, decoded from the file, or null for a free id
+     */
+    Object getKey(int id) {
+	long from = keyOffsets.get(id);
+	long to = keyOffsets.get(id + 1);
+	if (from == to) {
+	    return null;
+	}
+	byte[] bytes = new byte[(int) (to - from)];
+	for (int i = 0; i < bytes.length; i++) {
+	    bytes[i] = this.byteAt(from + i);
+	}
+	return decodeKey(bytes);
+    }
+
+    private byte byteAt(long i) {
+	return keyBytes[(int) (i >>> DirectMemory.CHUNK_SHIFT)].get((int) (i & (DirectMemory.CHUNK_BYTES - 1)));
+    }
+
+    /**
+     * Unmaps the file. Arrays read from it must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+	for (ByteBuffer buffer : mapped) {
+	    DirectMemory.unmap(buffer);
+	}
+	mapped.clear();
+	channel.close();
+    }
+
+    /**
+     * A key as a tag byte and its encoding, which is also how the write-ahead
+     * log of a DurableLazoIndex stores keys. Keys that are not strings,
+     * integers or longs must be Serializable.
+     */
+    static byte[] encodeKey(Object key) {
+	ByteBuffer buf;
+	if (key instanceof String) {
+	    byte[] utf8 = ((String) key).getBytes(StandardCharsets.UTF_8);
+	    buf = ByteBuffer.allocate(1 + utf8.length).put(STRING).put(utf8);
+	} else if (key instanceof Integer) {
+	    buf = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN).put(INTEGER).putInt((Integer) key);
+	} else if (key instanceof Long) {
+	    buf = ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN).put(LONG).putLong((Long) key);
+	} else if (key instanceof Serializable) {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    bytes.write(SERIALIZED);
+	    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+		out.writeObject(key);
+	    } catch (IOException e) {
+		throw new IllegalArgumentException("Cannot serialize key " + key, e);
+	    }
+	    return bytes.toByteArray();
+	} else {
+	    throw new IllegalArgumentException("Keys must be strings, integers, longs or Serializable to be saved: "
+		    + (key == null ? null : key.getClass().getName()));
+	}
+	return buf.array();
+    }
+
+    static Object decodeKey(byte[] bytes) {
+	ByteBuffer buf = ByteBuffer.wrap(bytes, 1, bytes.length - 1).order(ByteOrder.LITTLE_ENDIAN);
+	switch (bytes[0]) {
+	case STRING:
+	    return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+	case INTEGER:
+	    return buf.getInt();
+	case LONG:
+	    return buf.getLong();
+	case SERIALIZED:
+	    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1))) {
+		return in.readObject();
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    } catch (ClassNotFoundException e) {
+		throw new IllegalStateException("Cannot load the class of a key", e);
+	    }
+	default:
+	    throw new IllegalStateException("Corrupt key, tag " + bytes[0]);
+	}
+    }
+
+    /**
+     * Writes a new file at a temporary path, and moves it to path once it is
+     * complete and on disk, so that path always holds a whole file.
+     */
+    static final class Writer implements AutoCloseable {
+
+	private final Path path;
+	private final Path tmp;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private long position;
+	private long sectionStart = -1;
+	private final List<long[]> sections = new ArrayList<>();
+	private boolean done;
+
+	Writer(Path path) throws IOException {
+	    this.path = path;
+	    Path dir = path.toAbsolutePath().getParent();
+	    this.tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+	    this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	    // the preamble is written last
+	    this.position = PAGE_SIZE;
+	    channel.position(position);
+	}
+
+	private void ensure(int bytes) throws IOException {
+	    if (buffer.remaining() < bytes) {
+		this.flush();
+	    }
+	}
+
+	private void flush() throws IOException {
+	    buffer.flip();
+	    while (buffer.hasRemaining()) {
+		channel.write(buffer);
+	    }
+	    buffer.clear();
+	}
+
+	void beginSection() throws IOException {
+	    if (sectionStart >= 0) {
+		throw new IllegalStateException("Section not ended");
+	    }
+	    // pad to a page boundary
+	    long padding = (PAGE_SIZE - position % PAGE_SIZE) % PAGE_SIZE;
+	    for (long i = 0; i < padding; i++) {
+		this.putByte((byte) 0);
+	    }
+	    sectionStart = position;
+	}
+
+	void endSection() {
+	    sections.add(new long[] { sectionStart, position - sectionStart });
+	    sectionStart = -1;
+	}
+
+	void putByte(byte v) throws IOException {
+	    this.ensure(1);
+	    buffer.put(v);
+	    position++;
+	}
+
+	void putBytes(byte[] v) throws IOException {
+	    for (int i = 0; i < v.length;) {
+		this.ensure(1);
+		int n = Math.min(buffer.remaining(), v.length - i);
+		buffer.put(v, i, n);
+		i += n;
+		position += n;
+	    }
+	}
+
+	void putInt(int v) throws IOException {
+	    this.ensure(4);
+	    buffer.putInt(v);
+	    position += 4;
+	}
+
+	void putLong(long v) throws IOException {
+	    this.ensure(8);
+	    buffer.putLong(v);
+	    position += 8;
+	}
+
+	void putFloat(float v) throws IOException {
+	    this.putInt(Float.floatToIntBits(v));
+	}
+
+	/**
+	 * Writes the key bytes and key offsets sections, for ids below
+	 * idBound. keyOf gives null for free ids.
+	 */
+	void putKeys(int idBound, IntFunction<Object> keyOf) throws IOException {
+	    long[] keyOffsets = new long[idBound + 1];
+	    this.beginSection();
+	    long start = position;
+	    for (int id = 0; id < idBound; id++) {
+		keyOffsets[id] = position - start;
+		Object key = keyOf.apply(id);
+		if (key != null) {
+		    this.putBytes(encodeKey(key));
+		}
+	    }
+	    keyOffsets[idBound] = position - start;
+	    this.endSection();
+	    this.beginSection();
+	    for (long offset : keyOffsets) {
+		this.putLong(offset);
+	    }
+	    this.endSection();
+	}
+
+
+	/**
+	 * Writes the directory and the preamble, syncs the file to disk, and
+	 * moves it to its path, syncing the directory too
+	 */
+	void finish() throws IOException {
+	    long directoryOffset = position;
+	    this.putInt(sections.size());
+	    for (long[] section : sections) {
+		this.putLong(section[0]);
+		this.putLong(section[1]);
+	    }
+	    this.flush();
+	    ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	    preamble.putInt(MAGIC).putInt(VERSION).putLong(directoryOffset);
+	    preamble.flip();
+	    while (preamble.hasRemaining()) {
+		channel.write(preamble, preamble.position());
+	    }
+	    channel.force(true);
+	    channel.close();
+	    try {
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	    } catch (IOException e) {
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    done = true;
+	    syncDirectory(path.toAbsolutePath().getParent());
+	}
+
+	@Override
+	public void close() throws IOException {
+	    if (!done) {
+		channel.close();
+		Files.deleteIfExists(tmp);
+	    }
+	}
+    }
+
+}
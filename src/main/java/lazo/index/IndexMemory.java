@@ -0,0 +1,22 @@
+package lazo.index;
+
+/**
+ * Allocates the arrays of the storage of a LazoIndex: on the JVM heap, or in
+ * direct buffers outside it. Arrays are zero-filled.
+ */
+abstract class IndexMemory {
+
+    static final IndexMemory HEAP = new HeapMemory();
+
+    abstract IntArray allocateInts(long length);
+
+    abstract LongArray allocateLongs(long length);
+
+    /**
+     * Bytes allocated outside the heap and not freed yet
+     */
+    long getOffHeapBytes() {
+	return 0;
+    }
+
+}
@@ -0,0 +1,21 @@
+package lazo.index;
+
+/**
+ * Where a LazoIndex keeps its band tables, posting lists, cardinalities and
+ * the segments of each key.
+ */
+public enum IndexStorageType {
+
+    /**
+     * Primitive arrays on the JVM heap. Default.
+     */
+    HEAP,
+
+    /**
+     * Direct buffers outside the heap, so a large index neither needs a large
+     * heap nor adds to GC pauses. Only the keys and the parameters of the
+     * index stay on the heap. The memory is released by LazoIndex.close().
+     */
+    OFF_HEAP
+
+}
@@ -0,0 +1,56 @@
+package lazo.index;
+
+/**
+ * A fixed-length array of ints allocated by an IndexMemory, on the heap or
+ * outside it. Indexes are longs, so off-heap arrays can go past 2^31
+ * elements.
+ */
+abstract class IntArray {
+
+    abstract long length();
+
+    abstract int get(long i);
+
+    abstract void set(long i, int value);
+
+    /**
+     * An array of newLength with the first elements of this one, which may
+     * be this one. This array must not be used afterwards.
+     */
+    abstract IntArray resize(long newLength);
+
+    /**
+     * Releases the memory of the array now, if its memory can
+     */
+    abstract void free();
+
+    void fill(long from, long to, int value) {
+	for (long i = from; i < to; i++) {
+	    this.set(i, value);
+	}
+    }
+
+    /**
+     * Copies n elements from srcPos to dst at dstPos, as System.arraycopy
+     */
+    void copyTo(long srcPos, IntArray dst, long dstPos, long n) {
+	if (dst == this && srcPos < dstPos) {
+	    for (long i = n - 1; i >= 0; i--) {
+		dst.set(dstPos + i, this.get(srcPos + i));
+	    }
+	} else {
+	    for (long i = 0; i < n; i++) {
+		dst.set(dstPos + i, this.get(srcPos + i));
+	    }
+	}
+    }
+
+    int[] toArray(long from, long to) {
+	int[] result = new int[(int) (to - from)];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = this.get(from + i);
+	}
+	return result;
+    }
+
+}
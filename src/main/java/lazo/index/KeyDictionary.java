@@ -0,0 +1,188 @@
+package lazo.index;
+
+import java.util.Arrays;
+
+/**
+ * Interns the keys of a LazoIndex into dense int ids, so that each key is
+ * held, hashed and compared once, and the rest of the index works on ids.
+ * Ids are assigned from 0 and reused after a key is removed, so arrays
+ * indexed by id stay about as large as the number of keys.
+ *
+ * Keys are found through an open-addressing table of ids with linear probing;
+ * the hash code of each key is kept next to it, so a lookup calls equals only
+ * on keys with the same hash code, and growing the table calls no hashCode.
+ */
+final class KeyDictionary {
+
+    static final int MISSING = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // key and hash code of each id, null for free ids
+    private Object[] keys = new Object[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private int numIds;
+    private int[] freeIds = new int[MIN_CAPACITY];
+    private int numFreeIds;
+
+    // ids, MISSING marks a free slot
+    private int[] table;
+    private int mask;
+    private int size;
+
+    KeyDictionary() {
+	this.allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+	this.table = new int[capacity];
+	Arrays.fill(this.table, MISSING);
+	this.mask = capacity - 1;
+    }
+
+    private static int hash(Object key) {
+	int h = key.hashCode() * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+    /**
+     * Number of keys
+     */
+    int size() {
+	return size;
+    }
+
+    /**
+     * One more than the largest id in use, or in use before
+     */
+    int getIdBound() {
+	return numIds;
+    }
+
+    /**
+     * The id of key, or MISSING, as for null which is never interned
+     */
+    int getId(Object key) {
+	if (key == null) {
+	    return MISSING;
+	}
+	int h = hash(key);
+	int i = h & mask;
+	int id;
+	while ((id = table[i]) != MISSING) {
+	    if (hashes[id] == h && keys[id].equals(key)) {
+		return id;
+	    }
+	    i = (i + 1) & mask;
+	}
+	return MISSING;
+    }
+
+    /**
+     * The id of key, which is added if it is not there yet
+     */
+    int intern(Object key) {
+	if (key == null) {
+	    throw new IllegalArgumentException("Key cannot be null");
+	}
+	int h = hash(key);
+	int i = h & mask;
+	int id;
+	while ((id = table[i]) != MISSING) {
+	    if (hashes[id] == h && keys[id].equals(key)) {
+		return id;
+	    }
+	    i = (i + 1) & mask;
+	}
+	id = this.newId();
+	keys[id] = key;
+	hashes[id] = h;
+	table[i] = id;
+	if (++size > (mask + 1) * 3L / 4) {
+	    this.rehash((mask + 1) << 1);
+	}
+	return id;
+    }
+
+    private int newId() {
+	if (numFreeIds > 0) {
+	    return freeIds[--numFreeIds];
+	}
+	if (numIds == BandStorage.MAX_ID + 1) {
+	    throw new IllegalStateException("Too many keys in the index");
+	}
+	if (numIds == keys.length) {
+	    keys = Arrays.copyOf(keys, 2 * numIds);
+	    hashes = Arrays.copyOf(hashes, 2 * numIds);
+	}
+	return numIds++;
+    }
+
+    /**
+     * The key of id, or null if the id is free
+     */
+    Object getKey(int id) {
+	return keys[id];
+    }
+
+    /**
+     * Removes key, and returns the id it had, or MISSING
+     */
+    int remove(Object key) {
+	if (key == null) {
+	    return MISSING;
+	}
+	int h = hash(key);
+	int i = h & mask;
+	int id;
+	while ((id = table[i]) != MISSING) {
+	    if (hashes[id] == h && keys[id].equals(key)) {
+		this.shiftBack(i);
+		keys[id] = null;
+		if (numFreeIds == freeIds.length) {
+		    freeIds = Arrays.copyOf(freeIds, 2 * numFreeIds);
+		}
+		freeIds[numFreeIds++] = id;
+		size--;
+		return id;
+	    }
+	    i = (i + 1) & mask;
+	}
+	return MISSING;
+    }
+
+    /**
+     * Frees slot gap, moving back the ids after it that would not be found
+     * otherwise, as in LongIntHashMap
+     */
+    private void shiftBack(int gap) {
+	int i = gap;
+	while (true) {
+	    i = (i + 1) & mask;
+	    if (table[i] == MISSING) {
+		break;
+	    }
+	    int home = hashes[table[i]] & mask;
+	    if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+		table[gap] = table[i];
+		gap = i;
+	    }
+	}
+	table[gap] = MISSING;
+    }
+
+    private void rehash(int capacity) {
+	int[] old = table;
+	this.allocate(capacity);
+	for (int id : old) {
+	    if (id != MISSING) {
+		int j = hashes[id] & mask;
+		while (table[j] != MISSING) {
+		    j = (j + 1) & mask;
+		}
+		table[j] = id;
+	    }
+	}
+    }
+
+}
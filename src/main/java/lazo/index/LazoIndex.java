@@ -1,20 +1,27 @@
 package lazo.index;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import lazo.sketch.BBitMinHash;
 import lazo.sketch.LazoSketch;
+import lazo.sketch.PermutationFamilyType;
 
-public class LazoIndex {
+public class LazoIndex implements AutoCloseable {
 
     private final boolean ECH = true;
 
-    // metrics
+    // metrics, totals over all queries. Each query adds its own at the end,
+    // under the lock of the index, so concurrent queries do not lose any;
+    // read them once the queries are done
     private long ech_time;
     public int corrections;
     public int js_impactful_corrections;
@@ -29,10 +36,21 @@ public class LazoIndex {
 
     private int gcdSliceSize;
     private int gcdBands;
-    private List<Map<Long, Set<Object>>> hashTables;
-    private List<Map<Object, Set<Long>>> segmentIds;
+    // band hash tables and cardinalities, over the dense ids of the keys
+    private IndexMemory memory = IndexMemory.HEAP;
+    private BandStorage bandStorage;
     private int[] hashRanges;
-    private Map<Object, Long> keyCardinality;
+    // bits of the indexed hash values: 64 for LazoSketch, b for BBitMinHash,
+    // 0 before the first insert
+    private int bits;
+    // permutation family of the indexed LazoSketches, null before the first
+    // one
+    private PermutationFamilyType family;
+    // the index works on dense ids of the keys
+    private KeyDictionary keys;
+    // the mapped file of an index opened with open(Path), which is read-only
+    private IndexFile file;
+    private boolean closed;
 
     // threshold - (b,r)
     private Map<Integer, Integer[]> thresholdToBandsRows = new HashMap<>();
@@ -62,6 +80,28 @@ public class LazoIndex {
     }
 
     public LazoIndex(int k, float d) {
+	this(k, d, IndexMemory.HEAP);
+    }
+
+    /**
+     * An index with its band tables, posting lists, cardinalities and segments
+     * in the given storage. OFF_HEAP storage grows as needed, see
+     * LazoIndex(int, float, long) to bound it.
+     */
+    public LazoIndex(int k, float d, IndexStorageType storageType) {
+	this(k, d, storageType == IndexStorageType.OFF_HEAP ? new DirectMemory(Long.MAX_VALUE) : IndexMemory.HEAP);
+    }
+
+    /**
+     * An index stored off the heap in at most maxOffHeapBytes. An insert that
+     * needs more throws IllegalStateException, and close() releases the
+     * memory.
+     */
+    public LazoIndex(int k, float d, long maxOffHeapBytes) {
+	this(k, d, new DirectMemory(maxOffHeapBytes));
+    }
+
+    private LazoIndex(int k, float d, IndexMemory memory) {
 	if (d < 0 || d > 0.5) {
 	    throw new IllegalArgumentException(
 		    "Threshold for d must be in the range [0,0.5], recommended:" + "0.05 or 0.1");
@@ -73,12 +113,13 @@ public class LazoIndex {
 	this.d = d;
 	this.fp_rate = 0.5f;
 	this.fn_rate = 0.5f;
+	this.memory = memory;
 
 	this.initIndex(this.k, this.d, this.fp_rate, this.fn_rate);
     }
 
     private void initIndex(int k, float d, float fp_rate, float fn_rate) {
-	this.keyCardinality = new HashMap<>();
+	this.keys = new KeyDictionary();
 
 	this.numThresholds = (int) (1 / d);
 
@@ -98,16 +139,8 @@ public class LazoIndex {
 	int gcdBands = this.k / gcdSliceSize;
 	this.gcdSliceSize = gcdSliceSize;
 	this.gcdBands = gcdBands;
-	this.hashTables = new ArrayList<>();
-	this.segmentIds = new ArrayList<>();
+	this.bandStorage = new BandStorage(gcdBands, this.memory);
 	this.hashRanges = new int[gcdBands];
-	// hash tables
-	for (int i = 0; i < gcdBands; i++) {
-	    Map<Long, Set<Object>> mp = new HashMap<>();
-	    hashTables.add(mp);
-	    Map<Object, Set<Long>> l = new HashMap<>();
-	    segmentIds.add(l);
-	}
 	// hash ranges
 	for (int i = 0; i < hashRanges.length; i++) {
 	    hashRanges[i] = i * gcdSliceSize;
@@ -115,8 +148,205 @@ public class LazoIndex {
 
     }
 
+    /**
+     * A read-only index over a file written by save(Path)
+     */
+    private LazoIndex(IndexFile file) throws IOException {
+	try {
+	    ByteBuffer header = file.header();
+	    this.k = header.getInt();
+	    this.d = header.getFloat();
+	    this.fp_rate = header.getFloat();
+	    this.fn_rate = header.getFloat();
+	    this.numThresholds = header.getInt();
+	    if (k <= 0 || numThresholds <= 0) {
+		throw new IOException("Corrupt LazoIndex file: bad parameters");
+	    }
+	    for (int i = 0; i < this.numThresholds; i++) {
+		int bands = header.getInt();
+		int rows = header.getInt();
+		this.thresholdToBandsRows.put(i, new Integer[] { bands, rows });
+	    }
+	    this.gcdSliceSize = header.getInt();
+	    this.gcdBands = header.getInt();
+	    this.bits = header.getInt();
+	    if (bits != 0 && bits != 64 && (bits > 32 || Integer.bitCount(bits) != 1)) {
+		throw new IOException("Corrupt LazoIndex file: bad b");
+	    }
+	    int family = header.getInt();
+	    if (family < -1 || family >= PermutationFamilyType.values().length) {
+		throw new IOException("Corrupt LazoIndex file: bad permutation family");
+	    }
+	    this.family = family < 0 ? null : PermutationFamilyType.values()[family];
+	    if (gcdSliceSize <= 0 || gcdBands <= 0 || (long) gcdSliceSize * gcdBands > k) {
+		throw new IOException("Corrupt LazoIndex file: bad bands");
+	    }
+	    // queries look the rows of each band up in gcdBands slices
+	    for (Integer[] bandsRows : thresholdToBandsRows.values()) {
+		int bands = bandsRows[0];
+		int rows = bandsRows[1];
+		if (bands <= 0 || rows <= 0 || rows % gcdSliceSize != 0
+			|| (long) bands * (rows / gcdSliceSize) > gcdBands) {
+		    throw new IOException("Corrupt LazoIndex file: bad bands and rows of a threshold");
+		}
+	    }
+	    this.hashRanges = new int[gcdBands];
+	    for (int i = 0; i < hashRanges.length; i++) {
+		hashRanges[i] = i * gcdSliceSize;
+	    }
+	    this.bandStorage = BandStorage.read(header, file);
+	    if (bandStorage.getNumBands() != gcdBands) {
+		throw new IOException("Corrupt LazoIndex file: bad band storage");
+	    }
+	    file.openKeys();
+	    this.file = file;
+	} catch (BufferUnderflowException e) {
+	    throw new IOException("Corrupt LazoIndex file: truncated header", e);
+	}
+    }
+
+    /**
+     * Writes the index to path, replacing any file there, so that open(Path)
+     * can serve queries from it without building the index again. The file
+     * is complete on disk before it takes the place of the old one. Keys must
+     * be strings, integers, longs or Serializable.
+     */
+    public void save(Path path) throws IOException {
+	this.checkOpen();
+	try (IndexFile.Writer out = new IndexFile.Writer(path)) {
+	    out.beginSection();
+	    out.putInt(k);
+	    out.putFloat(d);
+	    out.putFloat(fp_rate);
+	    out.putFloat(fn_rate);
+	    out.putInt(numThresholds);
+	    for (int i = 0; i < this.numThresholds; i++) {
+		Integer[] bandsAndRows = thresholdToBandsRows.get(i);
+		out.putInt(bandsAndRows[0]);
+		out.putInt(bandsAndRows[1]);
+	    }
+	    out.putInt(gcdSliceSize);
+	    out.putInt(gcdBands);
+	    out.putInt(bits);
+	    out.putInt(family == null ? -1 : family.ordinal());
+	    bandStorage.writeHeader(out);
+	    out.endSection();
+	    bandStorage.writeArrays(out);
+	    out.putKeys(file != null ? file.getKeyIdBound() : keys.getIdBound(), this::keyOf);
+	    out.finish();
+	}
+    }
+
+    /**
+     * Opens an index saved with save(Path). The file is memory-mapped, so the
+     * index serves queries right away and reads the parts of the file they
+     * touch, leaving the rest to the page cache. The index is read-only:
+     * insert, remove and update throw UnsupportedOperationException. close()
+     * unmaps the file.
+     */
+    public static LazoIndex open(Path path) throws IOException {
+	IndexFile file = IndexFile.open(path);
+	try {
+	    return new LazoIndex(file);
+	} catch (IOException | RuntimeException e) {
+	    file.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * Reads an index saved with save(Path) into memory, where, unlike an
+     * index from open(Path), it can be changed. The parameters are read from
+     * the file, and the band tables are rebuilt from the posting lists, which
+     * is faster than inserting the sketches again.
+     */
+    public static LazoIndex load(Path path) throws IOException {
+	try (LazoIndex saved = open(path)) {
+	    return new LazoIndex(saved);
+	}
+    }
+
+    /**
+     * A heap copy of an index opened from a file
+     */
+    private LazoIndex(LazoIndex saved) {
+	this.k = saved.k;
+	this.d = saved.d;
+	this.fp_rate = saved.fp_rate;
+	this.fn_rate = saved.fn_rate;
+	this.numThresholds = saved.numThresholds;
+	this.thresholdToBandsRows.putAll(saved.thresholdToBandsRows);
+	this.gcdSliceSize = saved.gcdSliceSize;
+	this.gcdBands = saved.gcdBands;
+	this.bits = saved.bits;
+	this.family = saved.family;
+	this.hashRanges = saved.hashRanges.clone();
+	this.keys = new KeyDictionary();
+	this.bandStorage = new BandStorage(gcdBands, this.memory);
+	int[] newIds = new int[saved.bandStorage.getIdBound()];
+	for (int id = 0; id < newIds.length; id++) {
+	    Object key = saved.bandStorage.contains(id) ? saved.keyOf(id) : null;
+	    newIds[id] = key == null ? KeyDictionary.MISSING : keys.intern(key);
+	}
+	this.bandStorage.addAll(saved.bandStorage, newIds);
+    }
+
+    int getK() {
+	return k;
+    }
+
+    float getD() {
+	return d;
+    }
+
+    /**
+     * Bytes the index takes outside the heap, 0 for HEAP storage
+     */
+    public long getOffHeapBytes() {
+	return memory.getOffHeapBytes();
+    }
+
+    /**
+     * Releases the storage of the index. Off-heap memory is returned right
+     * away; any later use of the index throws IllegalStateException.
+     */
+    @Override
+    public void close() {
+	if (!closed) {
+	    closed = true;
+	    bandStorage.free();
+	    if (memory instanceof DirectMemory) {
+		((DirectMemory) memory).close();
+	    }
+	    if (file != null) {
+		try {
+		    file.close();
+		} catch (IOException e) {
+		    throw new UncheckedIOException(e);
+		}
+	    }
+	}
+    }
+
+    private void checkOpen() {
+	if (closed) {
+	    throw new IllegalStateException("The index is closed");
+	}
+    }
+
+    private void checkWritable() {
+	this.checkOpen();
+	if (file != null) {
+	    throw new UnsupportedOperationException("An index opened from a file is read-only");
+	}
+    }
+
+    private Object keyOf(int id) {
+	return file != null ? file.getKey(id) : keys.getKey(id);
+    }
+
     public int __getNumHashTables() {
-	return this.hashTables.size();
+	return this.bandStorage.getNumBands();
     }
 
     private int gcd(int x, int y) {
@@ -175,76 +405,117 @@ public class LazoIndex {
 	return new Integer[] { optimalBands, optimalRows };
     }
 
-    public long get_ech_time() {
+    public synchronized long get_ech_time() {
 	return this.ech_time;
     }
 
-    private long segmentHash(long[] segment) {
+    private int segmentHash(long[] segment) {
 	return Arrays.hashCode(segment);
     }
 
+    /**
+     * Indexes a sketch. An index holds sketches of a single permutation
+     * family, and is queried with sketches of the same family.
+     */
     public boolean insert(Object key, LazoSketch sketch) {
-	// Store cardinality of key
-	keyCardinality.put(key, sketch.getCardinality());
+	return this.insert(key, sketch.getHashValues(), sketch.getCardinality(), sketch.getPermutationFamilyType());
+    }
+
+    /**
+     * Indexes a b-bit sketch. An index holds either full sketches or b-bit
+     * sketches of a single b, and is queried with sketches of the same kind.
+     */
+    public boolean insert(Object key, BBitMinHash sketch) {
+	checkCardinality(sketch);
+	return this.insert(key, sketch.getHashValues(), sketch.getCardinality(), sketch.getB());
+    }
+
+    private void checkBits(int b) {
+	if (bits != 0 && bits != b) {
+	    throw new IllegalArgumentException("The index holds " + (bits == 64 ? "full sketches" : "sketches of b = " + bits)
+		    + ", not " + (b == 64 ? "full sketches" : "sketches of b = " + b));
+	}
+    }
+
+    private void checkFamily(PermutationFamilyType family) {
+	if (this.family != null && this.family != family) {
+	    throw new IllegalArgumentException(
+		    "The index holds sketches of the " + this.family + " permutation family, not " + family);
+	}
+    }
+
+    /**
+     * The Jaccard similarity of two sketches of b-bit values that are equal
+     * with probability pb: random collisions, of probability 2^-b, are taken
+     * out
+     */
+    private float collisionCorrected(float pb) {
+	if (bits == 0 || bits == 64) {
+	    return pb;
+	}
+	double random = Math.pow(2, -bits);
+	return (float) Math.max(0, (pb - random) / (1 - random));
+    }
+
+    private void checkCardinality(BBitMinHash sketch) {
+	if (sketch.getCardinality() < 0) {
+	    throw new IllegalArgumentException("The cardinality of the b-bit sketch is unknown");
+	}
+    }
+
+    boolean insert(Object key, long[] hashValues, long cardinality, PermutationFamilyType family) {
+	this.checkFamily(family);
+	boolean inserted = this.insert(key, hashValues, cardinality, 64);
+	this.family = family;
+	return inserted;
+    }
+
+    private boolean insert(Object key, long[] hashValues, long cardinality, int b) {
+	this.checkWritable();
+	this.checkBits(b);
+	this.bits = b;
+	int id = keys.intern(key);
 	// Obtain segments of this sketch
-	List<long[]> segments = new ArrayList<>();
-	for (int start : this.hashRanges) {
+	int[] segments = new int[this.gcdBands];
+	for (int i = 0; i < this.gcdBands; i++) {
+	    int start = this.hashRanges[i];
 	    int end = start + this.gcdSliceSize;
-	    long[] segment = Arrays.copyOfRange(sketch.getHashValues(), start, end);
-	    segments.add(segment);
+	    segments[i] = segmentHash(Arrays.copyOfRange(hashValues, start, end));
 	}
-	// Insert key in the hashmap handling each band
-	for (int i = 0; i < this.gcdBands; i++) {
-	    long[] sg = segments.get(i);
-	    Map<Long, Set<Object>> hashTable = hashTables.get(i);
-	    long segId = segmentHash(sg);
-	    if (hashTable.get(segId) == null) {
-		Set<Object> l = new HashSet<>();
-		hashTable.put(segId, l);
-	    }
-	    hashTable.get(segId).add(key);
-
-	    // Storing segment information
-	    Map<Object, Set<Long>> segmentIdInfo = segmentIds.get(i);
-	    if (segmentIdInfo.get(key) == null) {
-	        Set<Long> l = new HashSet<>();
-	        segmentIdInfo.put(key, l);
-	    }
-	    segmentIdInfo.get(key).add(segId);
+	// Insert key in the table of each band, which also keeps the segments
+	// to remove it, and its cardinality
+	try {
+	    bandStorage.add(id, segments, cardinality);
+	} catch (IllegalStateException e) {
+	    // out of off-heap capacity, leave the key out of the index rather
+	    // than in some bands only
+	    bandStorage.remove(id);
+	    keys.remove(key);
+	    throw e;
 	}
 	return true;
     }
-    
+
     // To remove existing data from the index, the segments are saved
     //   when inserting data. There is a tradeoff between the default
     //   storage needed to keep the segments vs. keeping just the hash
     //   values (reduce data structure burden) and do more work on removal.
     //   Depending on workloads one or the other would be better.
     public boolean remove(Object key) {
-        if (keyCardinality.get(key) == null) {
-            return false;
-        }
-        // Remove cardinality of key
-        keyCardinality.remove(key);
-        // Remove key from hashmaps
-        for (int i = 0; i < this.gcdBands; i++) {
-            Map<Object, Set<Long>> segmentIdInfo = segmentIds.get(i);
-            Map<Long, Set<Object>> hashTable = hashTables.get(i);
-            if (segmentIdInfo.get(key) == null) continue;
-            for (long segId : segmentIdInfo.get(key)) {
-                hashTable.get(segId).remove(key);
-                if (hashTable.get(segId).isEmpty()) {
-                    hashTable.remove(segId);
-                }
-            }
-            segmentIdInfo.remove(key);
-        }
-        return true;
-    }
-    
+	this.checkWritable();
+	// Remove key, and free its id
+	int id = keys.remove(key);
+	if (id == KeyDictionary.MISSING) {
+	    return false;
+	}
+	// Remove key from the band tables
+	bandStorage.remove(id);
+	return true;
+    }
+
     public boolean update(Object key, LazoSketch sketch) {
-        this.remove(key);
-        return this.insert(key, sketch);
+	this.remove(key);
+	return this.insert(key, sketch);
     }
 
     public class LazoCandidate {
@@ -269,75 +540,137 @@ public class LazoIndex {
 	return this.query(sketch, 0f, jcx_threshold);
     }
 
-    private Set<Object> setIX(Set<Object> a, Set<Object> b) {
-	Set<Object> ix = new HashSet<>();
-	Set<Object> smaller = null;
-	Set<Object> larger = null;
-	if (a.size() >= b.size()) {
-	    smaller = b;
-	    larger = a;
-	} else {
-	    smaller = a;
-	    larger = b;
-	}
-	for (Object s : smaller) {
-	    if (larger.contains(s)) {
-		ix.add(s);
+    public Set<LazoCandidate> querySimilarity(BBitMinHash sketch, float js_threshold) {
+	return this.query(sketch, js_threshold, 0f);
+    }
+
+    public Set<LazoCandidate> queryContainment(BBitMinHash sketch, float jcx_threshold) {
+	return this.query(sketch, 0f, jcx_threshold);
+    }
+
+    /**
+     * Intersection of two sorted arrays of distinct ids, in a, and returns its
+     * size
+     */
+    private int intersect(int[] a, int aSize, int[] b) {
+	int size = 0;
+	int j = 0;
+	for (int i = 0; i < aSize && j < b.length; i++) {
+	    while (j < b.length && b[j] < a[i]) {
+		j++;
+	    }
+	    if (j < b.length && b[j] == a[i]) {
+		a[size++] = a[i];
 	    }
 	}
-	return ix;
+	return size;
     }
 
     public Set<Object> querySlice(LazoSketch sketch, int bands, int rows) {
+	this.checkOpen();
+	this.checkFamily(sketch.getPermutationFamilyType());
 	Set<Object> candidates = new HashSet<>();
-	// ix on rows, un on bands
+	for (int id : this.querySlice(sketch.getHashValues(), bands, rows)) {
+	    candidates.add(this.keyOf(id));
+	}
+	return candidates;
+    }
+
+    /**
+     * Distinct ids of the candidates, sorted
+     */
+    private int[] querySlice(long[] hashValues, int bands, int rows) {
+	int[] candidates = new int[0];
+	int numCandidates = 0;
+	// ix on rows, un on bands; band b is made of the gcd slices
+	// b * gcdFactorsPerRows .. (b + 1) * gcdFactorsPerRows - 1, each in its
+	// own table
+	int gcdFactorsPerRows = rows / this.gcdSliceSize;
 	for (int b = 0; b < bands; b++) {
-	    int gcdFactorsPerRows = rows / this.gcdSliceSize;
-	    Set<Object> bandCandidates = new HashSet<>();
+	    int[] bandCandidates = null;
+	    int numBandCandidates = 0;
 	    for (int i = 0; i < gcdFactorsPerRows; i++) {
-		int start = this.hashRanges[(b * this.gcdSliceSize) + i];
-		int end = (this.hashRanges[(b * this.gcdSliceSize) + i] + 1) * this.gcdSliceSize;
-		long[] segment = Arrays.copyOfRange(sketch.getHashValues(), start, end);
+		int slice = b * gcdFactorsPerRows + i;
+		int start = this.hashRanges[slice];
+		int end = start + this.gcdSliceSize;
+		long[] segment = Arrays.copyOfRange(hashValues, start, end);
 		long segId = segmentHash(segment);
 
-		Map<Long, Set<Object>> hashTable = this.hashTables.get(b);
-		if (hashTable.containsKey(segId)) {
-		    Set<Object> queryResult = hashTable.get(segId);
-		    if (bandCandidates.size() == 0) {
-			bandCandidates.addAll(queryResult);
+		int[] queryResult = bandStorage.get(slice, segId);
+		if (queryResult != null) {
+		    Arrays.sort(queryResult);
+		    if (numBandCandidates == 0) {
+			bandCandidates = queryResult;
+			numBandCandidates = queryResult.length;
 		    } else {
-			bandCandidates = setIX(bandCandidates, queryResult);
-			if (bandCandidates.size() == 0) {
+			numBandCandidates = intersect(bandCandidates, numBandCandidates, queryResult);
+			if (numBandCandidates == 0) {
 			    break; // no candidates in this band
 			}
 		    }
 		} else {
+		    numBandCandidates = 0;
 		    break; // key does not even exist
 		}
 	    }
 	    // We now union bandCandidates with candidates
-	    candidates.addAll(bandCandidates);
+	    if (numCandidates + numBandCandidates > candidates.length) {
+		candidates = Arrays.copyOf(candidates, Math.max(2 * candidates.length, numCandidates + numBandCandidates));
+	    }
+	    if (numBandCandidates > 0) {
+		System.arraycopy(bandCandidates, 0, candidates, numCandidates, numBandCandidates);
+		numCandidates += numBandCandidates;
+	    }
 	}
-	return candidates;
+	Arrays.sort(candidates, 0, numCandidates);
+	int distinct = 0;
+	for (int i = 0; i < numCandidates; i++) {
+	    if (i == 0 || candidates[i] != candidates[i - 1]) {
+		candidates[distinct++] = candidates[i];
+	    }
+	}
+	return Arrays.copyOf(candidates, distinct);
     }
 
     public Set<LazoCandidate> query(LazoSketch sketch, float js_threshold, float jcx_threshold) {
+	this.checkFamily(sketch.getPermutationFamilyType());
+	return this.query(sketch.getHashValues(), sketch.getCardinality(), 64, js_threshold, jcx_threshold);
+    }
+
+    /**
+     * Queries an index of b-bit sketches of the same b. Bands of b-bit values
+     * also match by chance, so the threshold a candidate is found at is
+     * corrected for random collisions before estimating its similarity.
+     */
+    public Set<LazoCandidate> query(BBitMinHash sketch, float js_threshold, float jcx_threshold) {
+	checkCardinality(sketch);
+	return this.query(sketch.getHashValues(), sketch.getCardinality(), sketch.getB(), js_threshold,
+		jcx_threshold);
+    }
 
-	// Get all candidates
-	Map<Object, Float> partialCandidates = new HashMap<>();
-	Set<Object> seenCandidates = new HashSet<>();
+    private Set<LazoCandidate> query(long[] hashValues, long queryCardinality, int b, float js_threshold,
+	    float jcx_threshold) {
+	this.checkOpen();
+	this.checkBits(b);
+
+	// Get all candidates, with the highest threshold they were found at
+	LongIntHashMap seenCandidates = new LongIntHashMap();
+	int[] partialCandidates = new int[0];
+	int numPartialCandidates = 0;
 
 	for (int i = 0; i < this.numThresholds; i++) {
 	    int key_threshold = this.numThresholds - i - 1;
-	    float queryingThreshold = key_threshold * this.d;
 	    Integer[] bandsAndRows = thresholdToBandsRows.get(key_threshold);
 	    int bands = bandsAndRows[0];
 	    int rows = bandsAndRows[1];
-	    Set<Object> thresholdCandidates = this.querySlice(sketch, bands, rows);
-	    for (Object pCandidate : thresholdCandidates) {
-		if (!seenCandidates.contains(pCandidate)) {
-		    partialCandidates.put(pCandidate, queryingThreshold);
-		    seenCandidates.add(pCandidate);
+	    int[] thresholdCandidates = this.querySlice(hashValues, bands, rows);
+	    for (int pCandidate : thresholdCandidates) {
+		if (seenCandidates.get(pCandidate) == LongIntHashMap.MISSING) {
+		    seenCandidates.put(pCandidate, key_threshold);
+		    if (numPartialCandidates == partialCandidates.length) {
+			partialCandidates = Arrays.copyOf(partialCandidates, Math.max(16, 2 * numPartialCandidates));
+		    }
+		    partialCandidates[numPartialCandidates++] = pCandidate;
 		}
 	    }
 	}
@@ -346,12 +679,17 @@ public class LazoIndex {
 
 	// compute estimates for each partialCandidate
 	long s = System.currentTimeMillis();
-	for (Object key : partialCandidates.keySet()) {
-	    float th = partialCandidates.get(key);
-	    float lowerThreshold = th;
-	    float upperThreshold = th + this.d;
-	    long queryCardinality = sketch.getCardinality();
-	    long candidateCardinality = this.keyCardinality.get(key);
+	// metrics of this query, added to the totals at the end
+	int queryCorrections = 0;
+	int jsImpactfulCorrections = 0;
+	int jcxImpactfulCorrections = 0;
+	float magnitudeCorrection = 0;
+	for (int c = 0; c < numPartialCandidates; c++) {
+	    int id = partialCandidates[c];
+	    float th = seenCandidates.get(id) * this.d;
+	    float lowerThreshold = this.collisionCorrected(th);
+	    float upperThreshold = this.collisionCorrected(th + this.d);
+	    long candidateCardinality = this.bandStorage.getCardinality(id);
 	    long minCardinality = Math.min(queryCardinality, candidateCardinality);
 	    long maxCardinality = Math.max(queryCardinality, candidateCardinality);
 	    long alphaLower = this.getAlpha(minCardinality, maxCardinality, lowerThreshold);
@@ -381,7 +719,7 @@ public class LazoIndex {
 		float avgJcx = (estJCXLower + estJCXUpper) / 2;
 		float avgJcy = (estJCYLower + estJCYUpper) / 2;
 		if (avgJs >= js_threshold && avgJcx >= jcx_threshold) {
-		    candidates.add(new LazoCandidate(key, avgJs, avgJcx, avgJcy));
+		    candidates.add(new LazoCandidate(this.keyOf(id), avgJs, avgJcx, avgJcy));
 		}
 		continue;
 	    }
@@ -405,7 +743,7 @@ public class LazoIndex {
 		originalJSUpper = estJSUpper;
 		estJSUpper = (float) (minCardinality - correctedAlpha) / (float) (maxCardinality + correctedAlpha);
 		float magnitudeChange = Math.abs(estJSUpper - originalJSUpper);
-		this.magnitude_correction += magnitudeChange;
+		magnitudeCorrection += magnitudeChange;
 		originalJCXUpper = estJCXUpper;
 		estJCXUpper = queryCardinality > 0
 			? (float) (minCardinality - correctedAlpha) / (float) queryCardinality : 0F;
@@ -418,7 +756,7 @@ public class LazoIndex {
 		originalJSLower = estJSLower;
 		estJSLower = (float) (minCardinality - correctedAlpha) / (float) (maxCardinality + correctedAlpha);
 		float magnitudeChange = Math.abs(estJSLower - originalJSLower);
-		this.magnitude_correction += magnitudeChange;
+		magnitudeCorrection += magnitudeChange;
 		estJCYLower = candidateCardinality > 0
 			? (float) (minCardinality - correctedAlpha) / (float) candidateCardinality : 0F;
 		originalJCXLower = estJCXLower;
@@ -430,34 +768,34 @@ public class LazoIndex {
 		originalJSLower = estJSLower;
 		estJSLower = (float) (minCardinality - correctedAlpha) / (float) (maxCardinality + correctedAlpha);
 		float magnitudeChange = Math.abs(estJSLower - originalJSLower);
-		this.magnitude_correction += magnitudeChange;
+		magnitudeCorrection += magnitudeChange;
 		originalJCXLower = estJCXLower;
 		estJCXLower = queryCardinality > 0
 			? (float) (minCardinality - correctedAlpha) / (float) queryCardinality : 0F;
 		estJCYLower = jcyMaxBound;
 	    }
 	    if (corrected) {
-		corrections++;
+		queryCorrections++;
 		if (originalJSUpper <= js_threshold && estJSUpper > js_threshold) {
-		    this.js_impactful_corrections++;
+		    jsImpactfulCorrections++;
 		}
 		if (originalJSUpper > js_threshold && estJSUpper <= js_threshold) {
-		    this.js_impactful_corrections++;
+		    jsImpactfulCorrections++;
 		}
 		if (originalJCXUpper <= jcx_threshold && estJCXUpper > jcx_threshold) {
-		    this.jcx_impactful_corrections++;
+		    jcxImpactfulCorrections++;
 		}
 		if (originalJCXUpper > jcx_threshold && estJCXUpper <= jcx_threshold) {
-		    this.jcx_impactful_corrections++;
+		    jcxImpactfulCorrections++;
 		}
 		if (originalJCXLower <= jcx_threshold && estJCXLower > jcx_threshold) {
-		    this.jcx_impactful_corrections++;
+		    jcxImpactfulCorrections++;
 		}
 		if (originalJCXLower > jcx_threshold && estJCXLower <= jcx_threshold) {
-		    this.jcx_impactful_corrections++;
+		    jcxImpactfulCorrections++;
 		}
 		float magnitudeChange = Math.abs(estJSUpper - originalJSUpper);
-		this.magnitude_correction += magnitudeChange;
+		magnitudeCorrection += magnitudeChange;
 	    }
 	    float avgJs = (estJSLower + estJSUpper) / 2;
 	    float avgJcx = (estJCXLower + estJCXUpper) / 2;
@@ -465,11 +803,17 @@ public class LazoIndex {
 
 	    // Filter out results based on thresholds
 	    if (avgJs >= js_threshold && avgJcx >= jcx_threshold) {
-		candidates.add(new LazoCandidate(key, avgJs, avgJcx, avgJcy));
+		candidates.add(new LazoCandidate(this.keyOf(id), avgJs, avgJcx, avgJcy));
 	    }
 	}
 	long e = System.currentTimeMillis();
-	this.ech_time += (e - s);
+	synchronized (this) {
+	    this.ech_time += (e - s);
+	    this.corrections += queryCorrections;
+	    this.js_impactful_corrections += jsImpactfulCorrections;
+	    this.jcx_impactful_corrections += jcxImpactfulCorrections;
+	    this.magnitude_correction += magnitudeCorrection;
+	}
 	return candidates;
 
     }
@@ -0,0 +1,31 @@
+package lazo.index;
+
+/**
+ * A fixed-length array of longs allocated by an IndexMemory, see IntArray
+ */
+abstract class LongArray {
+
+    abstract long length();
+
+    abstract long get(long i);
+
+    abstract void set(long i, long value);
+
+    /**
+     * An array of newLength with the first elements of this one, which may
+     * be this one. This array must not be used afterwards.
+     */
+    abstract LongArray resize(long newLength);
+
+    /**
+     * Releases the memory of the array now, if its memory can
+     */
+    abstract void free();
+
+    void fill(long from, long to, long value) {
+	for (long i = from; i < to; i++) {
+	    this.set(i, value);
+	}
+    }
+
+}
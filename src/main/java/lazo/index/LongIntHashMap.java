@@ -0,0 +1,216 @@
+package lazo.index;
+
+/**
+ * Open-addressing map from long to non-negative int, with linear probing on
+ * two parallel arrays, so an entry costs 12 bytes and no objects. Removal
+ * shifts the following entries back instead of leaving tombstones. The
+ * arrays come from an IndexMemory, so the map can live outside the heap.
+ */
+final class LongIntHashMap {
+
+    static final int MISSING = -1;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private final IndexMemory memory;
+    private LongArray keys;
+    // MISSING marks a free slot
+    private IntArray values;
+    private int mask;
+    private int size;
+
+    LongIntHashMap() {
+	this(IndexMemory.HEAP, MIN_CAPACITY);
+    }
+
+    LongIntHashMap(IndexMemory memory, int expectedSize) {
+	this.memory = memory;
+	int capacity = this.capacityFor(expectedSize);
+	this.keys = memory.allocateLongs(capacity);
+	this.values = this.allocateValues(capacity);
+	this.mask = capacity - 1;
+    }
+
+    /**
+     * A map over arrays saved from another one, such as the mapped sections
+     * of an IndexFile. It can only be read.
+     */
+    LongIntHashMap(LongArray keys, IntArray values, int size) {
+	long capacity = values.length();
+	if (capacity < MIN_CAPACITY || capacity > 1 << 30 || Long.bitCount(capacity) != 1 || keys.length() != capacity
+		|| size < 0 || size >= capacity) {
+	    throw new IllegalArgumentException("Not the arrays of a LongIntHashMap");
+	}
+	this.memory = null;
+	this.keys = keys;
+	this.values = values;
+	this.mask = (int) capacity - 1;
+	this.size = size;
+    }
+
+    private int capacityFor(int expectedSize) {
+	// at most 3/4 full
+	int capacity = MIN_CAPACITY;
+	while (capacity * 3L / 4 < expectedSize) {
+	    capacity <<= 1;
+	}
+	return capacity;
+    }
+
+    private IntArray allocateValues(int capacity) {
+	IntArray values = memory.allocateInts(capacity);
+	values.fill(0, capacity, MISSING);
+	return values;
+    }
+
+    private int slot(long key) {
+	long h = key * 0x9E3779B97F4A7C15L;
+	return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    int size() {
+	return size;
+    }
+
+    /**
+     * Number of slots, for saving the map slot by slot
+     */
+    int capacity() {
+	return mask + 1;
+    }
+
+    long keyAt(int slot) {
+	return keys.get(slot);
+    }
+
+    /**
+     * The value in slot, MISSING if the slot is free
+     */
+    int valueAt(int slot) {
+	return values.get(slot);
+    }
+
+    /**
+     * The value of key, or MISSING
+     */
+    int get(long key) {
+	int i = this.slot(key);
+	int value;
+	while ((value = values.get(i)) != MISSING) {
+	    if (keys.get(i) == key) {
+		return value;
+	    }
+	    i = (i + 1) & mask;
+	}
+	return MISSING;
+    }
+
+    /**
+     * Maps key to value, and returns the previous value or MISSING
+     */
+    int put(long key, int value) {
+	if (value < 0) {
+	    throw new IllegalArgumentException("Values must be non-negative");
+	}
+	int i = this.slot(key);
+	int previous;
+	while ((previous = values.get(i)) != MISSING) {
+	    if (keys.get(i) == key) {
+		values.set(i, value);
+		return previous;
+	    }
+	    i = (i + 1) & mask;
+	}
+	keys.set(i, key);
+	values.set(i, value);
+	if (++size > (mask + 1) * 3L / 4) {
+	    this.rehash((mask + 1) << 1);
+	}
+	return MISSING;
+    }
+
+    /**
+     * Removes key, and returns its value or MISSING
+     */
+    int remove(long key) {
+	int i = this.slot(key);
+	int previous;
+	while ((previous = values.get(i)) != MISSING) {
+	    if (keys.get(i) == key) {
+		this.shiftBack(i);
+		size--;
+		return previous;
+	    }
+	    i = (i + 1) & mask;
+	}
+	return MISSING;
+    }
+
+    /**
+     * Frees slot gap, moving back the entries after it that would not be
+     * found otherwise
+     */
+    private void shiftBack(int gap) {
+	int i = gap;
+	while (true) {
+	    i = (i + 1) & mask;
+	    if (values.get(i) == MISSING) {
+		break;
+	    }
+	    int home = this.slot(keys.get(i));
+	    // move it unless its home lies cyclically in (gap, i]
+	    if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+		keys.set(gap, keys.get(i));
+		values.set(gap, values.get(i));
+		gap = i;
+	    }
+	}
+	values.set(gap, MISSING);
+    }
+
+    private void rehash(int capacity) {
+	// allocated before anything changes, in case the memory runs out
+	LongArray newKeys = memory.allocateLongs(capacity);
+	IntArray newValues;
+	try {
+	    newValues = this.allocateValues(capacity);
+	} catch (IllegalStateException e) {
+	    newKeys.free();
+	    throw e;
+	}
+	LongArray oldKeys = keys;
+	IntArray oldValues = values;
+	int oldCapacity = mask + 1;
+	keys = newKeys;
+	values = newValues;
+	mask = capacity - 1;
+	for (int i = 0; i < oldCapacity; i++) {
+	    int value = oldValues.get(i);
+	    if (value != MISSING) {
+		long key = oldKeys.get(i);
+		int j = this.slot(key);
+		while (values.get(j) != MISSING) {
+		    j = (j + 1) & mask;
+		}
+		keys.set(j, key);
+		values.set(j, value);
+	    }
+	}
+	oldKeys.free();
+	oldValues.free();
+    }
+
+    void clear() {
+	values.fill(0, mask + 1, MISSING);
+	size = 0;
+    }
+
+    /**
+     * Releases the arrays of the map, which must not be used afterwards
+     */
+    void free() {
+	keys.free();
+	values.free();
+    }
+
+}
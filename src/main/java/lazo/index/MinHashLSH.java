@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import lazo.sketch.BBitMinHash;
 import lazo.sketch.Sketch;
 
 /**
@@ -25,6 +26,9 @@ public class MinHashLSH {
 
     private List<Map<Long, List<Object>>> hashTables;
     private int[] hashRanges;
+    // bits of the indexed hash values: 64 for full sketches, b for
+    // BBitMinHash, 0 before the first insert
+    private int bits;
 
     // integration precision
     private float IP = 0.001f;
@@ -153,11 +157,32 @@ public class MinHashLSH {
     }
 
     public boolean insert(Object key, Sketch mh) {
+	return this.insert(key, mh.getHashValues(), 64);
+    }
+
+    /**
+     * Indexes a b-bit sketch. An index holds either full sketches or b-bit
+     * sketches of a single b, and is queried with sketches of the same kind.
+     */
+    public boolean insert(Object key, BBitMinHash mh) {
+	return this.insert(key, mh.getHashValues(), mh.getB());
+    }
+
+    private void checkBits(int b) {
+	if (bits != 0 && bits != b) {
+	    throw new IllegalArgumentException("The index holds " + (bits == 64 ? "full sketches" : "sketches of b = " + bits)
+		    + ", not " + (b == 64 ? "full sketches" : "sketches of b = " + b));
+	}
+    }
+
+    private boolean insert(Object key, long[] hashValues, int b) {
+	this.checkBits(b);
+	this.bits = b;
 
 	List<long[]> segments = new ArrayList<>();
 	for (int start : this.hashRanges) {
 	    int end = start + this.rows;
-	    long[] segment = Arrays.copyOfRange(mh.getHashValues(), start, end);
+	    long[] segment = Arrays.copyOfRange(hashValues, start, end);
 	    segments.add(segment);
 	}
 
@@ -176,12 +201,21 @@ public class MinHashLSH {
     }
 
     public Set<Object> query(Sketch mh) {
+	return this.query(mh.getHashValues(), 64);
+    }
+
+    public Set<Object> query(BBitMinHash mh) {
+	return this.query(mh.getHashValues(), mh.getB());
+    }
+
+    private Set<Object> query(long[] hashValues, int b) {
+	this.checkBits(b);
 	Set<Object> candidates = new HashSet<>();
 	for (int i = 0; i < this.bands; i++) {
 	    int start = this.hashRanges[i];
-	    int end = (this.hashRanges[i] + 1) * this.rows;
+	    int end = start + this.rows;
 	    Map<Long, List<Object>> hashTable = hashTables.get(i);
-	    long[] segment = Arrays.copyOfRange(mh.getHashValues(), start, end);
+	    long[] segment = Arrays.copyOfRange(hashValues, start, end);
 	    long segId = segmentHash(segment);
 	    if (hashTable.containsKey(segId)) {
 		candidates.addAll(hashTable.get(segId));
@@ -0,0 +1,29 @@
+package lazo.index;
+
+/**
+ * When a DurableLazoIndex forces its write-ahead log to disk, trading ingest
+ * throughput for the changes a crash can lose.
+ */
+public enum SyncPolicy {
+
+    /**
+     * Each insert, remove or update returns once its record is on disk.
+     * Threads changing the index at the same time share one fsync (group
+     * commit), so throughput grows with the number of writers.
+     */
+    EVERY_WRITE,
+
+    /**
+     * Records are synced every batchSize records or every syncIntervalMillis,
+     * whichever comes first. A crash loses at most the records of the last
+     * batch. Default.
+     */
+    BATCH,
+
+    /**
+     * Records are written to the file as in BATCH but never synced, so they
+     * survive a crash of the JVM but not of the operating system.
+     */
+    NONE
+
+}
@@ -0,0 +1,378 @@
+package lazo.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lazo.sketch.PermutationFamilyType;
+
+/**
+ * Append-only log of the changes to a LazoIndex, in segment files
+ * wal-&lt;number&gt;.log of a directory. A segment starts with a header (magic
+ * "LZWL", version, k and d of the index) followed by records:
+ *
+ * <pre>
+ * int length, int CRC32 of the payload, payload:
+ *   byte op, int key length, key as in IndexFile.encodeKey,
+ *   for INSERT and UPDATE: byte permutation family, int number of hash values,
+ *   the hash values, long cardinality
+ * </pre>
+ *
+ * all little-endian. Records are appended to a buffer in memory and written
+ * and synced by sync(seq), which syncs every record appended so far, so
+ * threads that wait for their records at the same time share one fsync (group
+ * commit). A crash can leave a partial record at the end of the last segment;
+ * replay stops there and cuts it off.
+ */
+final class WriteAheadLog implements AutoCloseable {
+
+    static final byte INSERT = 1;
+    static final byte REMOVE = 2;
+    static final byte UPDATE = 3;
+
+    private static final int MAGIC = 0x4C5A574C; // "LZWL"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int k;
+    private final float d;
+    private FileChannel channel;
+    private long segment;
+
+    // records appended and not written yet
+    private byte[] pending = new byte[1 << 12];
+    private int pendingBytes;
+    // sequence numbers of the last record appended, written to the segment,
+    // and synced to disk
+    private long appended;
+    private long written;
+    private long synced;
+    private boolean syncing;
+    private IOException failure;
+
+    /**
+     * A log that appends to a new segment of the given number
+     */
+    WriteAheadLog(Path dir, long segment, int k, float d) throws IOException {
+	this.dir = dir;
+	this.k = k;
+	this.d = d;
+	this.channel = this.create(segment);
+	this.segment = segment;
+    }
+
+    private FileChannel create(long segment) throws IOException {
+	Path path = segmentPath(dir, segment);
+	FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	    header.putInt(MAGIC).putInt(VERSION).putInt(k).putFloat(d);
+	    header.flip();
+	    while (header.hasRemaining()) {
+		channel.write(header);
+	    }
+	    channel.force(true);
+	    // the segment itself must survive a crash, not only its contents
+	    IndexFile.syncDirectory(dir);
+	} catch (IOException e) {
+	    channel.close();
+	    throw e;
+	}
+	return channel;
+    }
+
+    static Path segmentPath(Path dir, long segment) {
+	return dir.resolve(String.format("%s%016d%s", PREFIX, segment, SUFFIX));
+    }
+
+    /**
+     * Numbers of the segments in dir, in order
+     */
+    static List<Long> segments(Path dir) throws IOException {
+	List<Long> segments = new ArrayList<>();
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+	    for (Path file : files) {
+		String name = file.getFileName().toString();
+		try {
+		    segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+		} catch (NumberFormatException e) {
+		    // not a segment
+		}
+	    }
+	}
+	Collections.sort(segments);
+	return segments;
+    }
+
+    /**
+     * Number of the segment being appended to
+     */
+    synchronized long getSegment() {
+	return segment;
+    }
+
+    /**
+     * Sequence number of the last record appended
+     */
+    synchronized long getAppended() {
+	return appended;
+    }
+
+    /**
+     * Number of records appended and not written yet
+     */
+    synchronized long getPending() {
+	return appended - written;
+    }
+
+    static byte[] insertRecord(byte op, byte[] key, PermutationFamilyType family, long[] hashValues,
+	    long cardinality) {
+	ByteBuffer payload = ByteBuffer.allocate(1 + 4 + key.length + 1 + 4 + 8 * hashValues.length + 8)
+		.order(ByteOrder.LITTLE_ENDIAN);
+	payload.put(op).putInt(key.length).put(key).put((byte) family.ordinal()).putInt(hashValues.length);
+	for (long hv : hashValues) {
+	    payload.putLong(hv);
+	}
+	payload.putLong(cardinality);
+	return payload.array();
+    }
+
+    static byte[] removeRecord(byte[] key) {
+	ByteBuffer payload = ByteBuffer.allocate(1 + 4 + key.length).order(ByteOrder.LITTLE_ENDIAN);
+	payload.put(REMOVE).putInt(key.length).put(key);
+	return payload.array();
+    }
+
+    /**
+     * Appends the record with the given payload to the buffer, and returns
+     * its sequence number. It is not durable until sync(seq) returns. It does
+     * not fail when the log has failed, so that a change checked with
+     * checkFailure before being applied is always logged; sync reports the
+     * failure.
+     */
+    synchronized long append(byte[] payload) {
+	int length = 8 + payload.length;
+	if (pendingBytes + length > pending.length) {
+	    pending = Arrays.copyOf(pending, Math.max(2 * pending.length, pendingBytes + length));
+	}
+	CRC32 crc = new CRC32();
+	crc.update(payload, 0, payload.length);
+	ByteBuffer.wrap(pending, pendingBytes, 8).order(ByteOrder.LITTLE_ENDIAN).putInt(payload.length)
+		.putInt((int) crc.getValue());
+	System.arraycopy(payload, 0, pending, pendingBytes + 8, payload.length);
+	pendingBytes += length;
+	return ++appended;
+    }
+
+    /**
+     * Throws if a write to the log failed, after which no change can be made
+     * durable
+     */
+    synchronized void checkFailure() {
+	if (failure != null) {
+	    throw new IllegalStateException("The write-ahead log failed", failure);
+	}
+    }
+
+    /**
+     * Writes the records up to seq, and all appended before them, to the
+     * segment, and syncs it to disk if force. A thread that finds another one
+     * writing waits for it, and only writes if the records it waits for were
+     * appended too late to be part of that write.
+     */
+    void sync(long seq, boolean force) throws IOException {
+	byte[] buffer;
+	int bytes;
+	long target;
+	FileChannel out;
+	synchronized (this) {
+	    while (true) {
+		this.checkFailure();
+		if ((force ? synced : written) >= seq) {
+		    return;
+		}
+		if (!syncing) {
+		    break;
+		}
+		try {
+		    this.wait();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new IOException("Interrupted while waiting for the write-ahead log", e);
+		}
+	    }
+	    syncing = true;
+	    // take all records appended so far, new ones go to a new buffer
+	    buffer = pending;
+	    bytes = pendingBytes;
+	    target = appended;
+	    pending = new byte[Math.max(1 << 12, bytes)];
+	    pendingBytes = 0;
+	    out = channel;
+	}
+	try {
+	    ByteBuffer src = ByteBuffer.wrap(buffer, 0, bytes);
+	    while (src.hasRemaining()) {
+		out.write(src);
+	    }
+	    if (force) {
+		out.force(false);
+	    }
+	} catch (IOException e) {
+	    synchronized (this) {
+		failure = e;
+		syncing = false;
+		this.notifyAll();
+	    }
+	    throw e;
+	}
+	synchronized (this) {
+	    written = target;
+	    if (force) {
+		synced = target;
+	    }
+	    syncing = false;
+	    this.notifyAll();
+	}
+    }
+
+    /**
+     * Syncs all records, and appends the next ones to a new segment, whose
+     * number is returned. The caller must keep records from being appended
+     * meanwhile.
+     */
+    long roll() throws IOException {
+	this.sync(this.getAppended(), true);
+	synchronized (this) {
+	    FileChannel next = this.create(segment + 1);
+	    channel.close();
+	    channel = next;
+	    return ++segment;
+	}
+    }
+
+    /**
+     * Syncs the appended records and closes the segment
+     */
+    @Override
+    public void close() throws IOException {
+	try {
+	    if (failure == null) {
+		this.sync(this.getAppended(), true);
+	    }
+	} finally {
+	    synchronized (this) {
+		channel.close();
+	    }
+	}
+    }
+
+    /**
+     * Applies the records of segment to index, and returns how many. A
+     * partial or corrupt record ends the replay; it is cut off if the segment
+     * is the last one, and is an error otherwise, since later segments were
+     * written after it.
+     */
+    static long replay(Path dir, long segment, boolean last, LazoIndex index) throws IOException {
+	Path path = segmentPath(dir, segment);
+	long records = 0;
+	boolean empty = false;
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+	    long size = channel.size();
+	    ByteBuffer header = read(channel, 0, HEADER_SIZE, size);
+	    if (header == null) {
+		if (!last) {
+		    throw new IOException("Truncated write-ahead log segment " + path);
+		}
+		// crashed while creating it
+		empty = true;
+	    } else if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+		throw new IOException("Not a write-ahead log segment of a LazoIndex: " + path);
+	    } else if (header.getInt() != index.getK() || header.getFloat() != index.getD()) {
+		throw new IOException("Write-ahead log segment of an index with another k or d: " + path);
+	    }
+	    long position = HEADER_SIZE;
+	    CRC32 crc = new CRC32();
+	    while (!empty && position < size) {
+		ByteBuffer lengthAndCrc = read(channel, position, 8, size);
+		int length = lengthAndCrc == null ? -1 : lengthAndCrc.getInt();
+		ByteBuffer payload = length < 0 ? null : read(channel, position + 8, length, size);
+		if (payload != null) {
+		    crc.reset();
+		    crc.update(payload.array(), 0, length);
+		}
+		if (payload == null || (int) crc.getValue() != lengthAndCrc.getInt()) {
+		    if (!last) {
+			throw new IOException("Corrupt record in write-ahead log segment " + path + " at " + position);
+		    }
+		    // the end of the log when the process stopped
+		    channel.truncate(position);
+		    channel.force(true);
+		    break;
+		}
+		apply(payload, index);
+		records++;
+		position += 8 + length;
+	    }
+	}
+	if (empty) {
+	    Files.delete(path);
+	}
+	return records;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, long size) throws IOException {
+	if (position + length > size) {
+	    return null;
+	}
+	ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+	while (buf.hasRemaining()) {
+	    if (channel.read(buf, position + buf.position()) < 0) {
+		return null;
+	    }
+	}
+	buf.flip();
+	return buf;
+    }
+
+    private static void apply(ByteBuffer payload, LazoIndex index) {
+	byte op = payload.get();
+	byte[] keyBytes = new byte[payload.getInt()];
+	payload.get(keyBytes);
+	Object key = IndexFile.decodeKey(keyBytes);
+	if (op != INSERT && op != REMOVE && op != UPDATE) {
+	    throw new IllegalStateException("Unknown operation in write-ahead log: " + op);
+	}
+	if (op == REMOVE) {
+	    index.remove(key);
+	    return;
+	}
+	byte family = payload.get();
+	if (family < 0 || family >= PermutationFamilyType.values().length) {
+	    throw new IllegalStateException("Unknown permutation family in write-ahead log: " + family);
+	}
+	long[] hashValues = new long[payload.getInt()];
+	for (int i = 0; i < hashValues.length; i++) {
+	    hashValues[i] = payload.getLong();
+	}
+	long cardinality = payload.getLong();
+	if (op == UPDATE) {
+	    index.remove(key);
+	}
+	index.insert(key, hashValues, cardinality, PermutationFamilyType.values()[family]);
+    }
+
+}
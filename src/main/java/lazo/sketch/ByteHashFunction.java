@@ -0,0 +1,234 @@
+package lazo.sketch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * Adapts the in-repo 64-bit hashes (XXH64, wyhash) to Guava's HashFunction, so
+ * they can be used wherever the sketches take one. Like Guava's own functions,
+ * primitives are hashed as their little-endian bytes and chars as UTF-16LE.
+ * ValueHasher recognizes these functions and calls hash64 directly on its
+ * scratch buffer, so the sketches never go through the HashCode objects.
+ */
+abstract class ByteHashFunction implements HashFunction {
+
+    protected final long seed;
+
+    ByteHashFunction(long seed) {
+	this.seed = seed;
+    }
+
+    public abstract long hash64(byte[] buf, int off, int len);
+
+    static ByteHashFunction xxh64(long seed) {
+	return new ByteHashFunction(seed) {
+	    @Override
+	    public long hash64(byte[] buf, int off, int len) {
+		return XXHash64.hash64(buf, off, len, this.seed);
+	    }
+
+	    @Override
+	    public String toString() {
+		return "XXHash64(seed=" + this.seed + ")";
+	    }
+	};
+    }
+
+    static ByteHashFunction wyhash(long seed) {
+	return new ByteHashFunction(seed) {
+	    @Override
+	    public long hash64(byte[] buf, int off, int len) {
+		return WyHash.hash64(buf, off, len, this.seed);
+	    }
+
+	    @Override
+	    public String toString() {
+		return "WyHash(seed=" + this.seed + ")";
+	    }
+	};
+    }
+
+    @Override
+    public boolean equals(Object o) {
+	return o != null && o.getClass() == this.getClass() && ((ByteHashFunction) o).seed == this.seed;
+    }
+
+    @Override
+    public int hashCode() {
+	return this.getClass().hashCode() ^ Long.hashCode(seed);
+    }
+
+    @Override
+    public int bits() {
+	return 64;
+    }
+
+    @Override
+    public HashCode hashBytes(byte[] input, int off, int len) {
+	return HashCode.fromLong(this.hash64(input, off, len));
+    }
+
+    @Override
+    public HashCode hashBytes(byte[] input) {
+	return this.hashBytes(input, 0, input.length);
+    }
+
+    @Override
+    public HashCode hashBytes(ByteBuffer input) {
+	return this.newHasher(input.remaining()).putBytes(input).hash();
+    }
+
+    @Override
+    public HashCode hashInt(int input) {
+	return this.newHasher(4).putInt(input).hash();
+    }
+
+    @Override
+    public HashCode hashLong(long input) {
+	return this.newHasher(8).putLong(input).hash();
+    }
+
+    @Override
+    public HashCode hashUnencodedChars(CharSequence input) {
+	return this.newHasher(input.length() * 2).putUnencodedChars(input).hash();
+    }
+
+    @Override
+    public HashCode hashString(CharSequence input, Charset charset) {
+	return this.hashBytes(input.toString().getBytes(charset));
+    }
+
+    @Override
+    public <T> HashCode hashObject(T instance, Funnel<? super T> funnel) {
+	return this.newHasher().putObject(instance, funnel).hash();
+    }
+
+    @Override
+    public Hasher newHasher() {
+	return this.newHasher(64);
+    }
+
+    @Override
+    public Hasher newHasher(int expectedInputSize) {
+	return new BufferingHasher(expectedInputSize);
+    }
+
+    /**
+     * Collects the input and hashes it at once, these functions do not stream
+     */
+    // Hasher declares a deprecated hashCode(), which this keeps from Object
+    @SuppressWarnings("deprecation")
+    private class BufferingHasher implements Hasher {
+
+	private ByteBuffer buffer;
+
+	BufferingHasher(int expectedInputSize) {
+	    this.buffer = ByteBuffer.allocate(Math.max(expectedInputSize, 16)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private ByteBuffer ensure(int bytes) {
+	    if (buffer.remaining() < bytes) {
+		int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+		ByteBuffer grown = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), capacity)).order(ByteOrder.LITTLE_ENDIAN);
+		grown.position(buffer.position());
+		buffer = grown;
+	    }
+	    return buffer;
+	}
+
+	@Override
+	public Hasher putByte(byte b) {
+	    this.ensure(1).put(b);
+	    return this;
+	}
+
+	@Override
+	public Hasher putBytes(byte[] bytes) {
+	    return this.putBytes(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public Hasher putBytes(byte[] bytes, int off, int len) {
+	    this.ensure(len).put(bytes, off, len);
+	    return this;
+	}
+
+	@Override
+	public Hasher putBytes(ByteBuffer bytes) {
+	    this.ensure(bytes.remaining()).put(bytes);
+	    return this;
+	}
+
+	@Override
+	public Hasher putShort(short s) {
+	    this.ensure(2).putShort(s);
+	    return this;
+	}
+
+	@Override
+	public Hasher putInt(int i) {
+	    this.ensure(4).putInt(i);
+	    return this;
+	}
+
+	@Override
+	public Hasher putLong(long l) {
+	    this.ensure(8).putLong(l);
+	    return this;
+	}
+
+	@Override
+	public Hasher putFloat(float f) {
+	    return this.putInt(Float.floatToRawIntBits(f));
+	}
+
+	@Override
+	public Hasher putDouble(double d) {
+	    return this.putLong(Double.doubleToRawLongBits(d));
+	}
+
+	@Override
+	public Hasher putBoolean(boolean b) {
+	    return this.putByte(b ? (byte) 1 : (byte) 0);
+	}
+
+	@Override
+	public Hasher putChar(char c) {
+	    this.ensure(2).putChar(c);
+	    return this;
+	}
+
+	@Override
+	public Hasher putUnencodedChars(CharSequence charSequence) {
+	    for (int i = 0; i < charSequence.length(); i++) {
+		this.putChar(charSequence.charAt(i));
+	    }
+	    return this;
+	}
+
+	@Override
+	public Hasher putString(CharSequence charSequence, Charset charset) {
+	    return this.putBytes(charSequence.toString().getBytes(charset));
+	}
+
+	@Override
+	public <T> Hasher putObject(T instance, Funnel<? super T> funnel) {
+	    funnel.funnel(instance, (PrimitiveSink) this);
+	    return this;
+	}
+
+	@Override
+	public HashCode hash() {
+	    return HashCode.fromLong(ByteHashFunction.this.hash64(buffer.array(), 0, buffer.position()));
+	}
+    }
+
+}
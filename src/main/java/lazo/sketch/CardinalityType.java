@@ -0,0 +1,22 @@
+package lazo.sketch;
+
+/**
+ * How LazoSketch estimates the number of distinct values it has seen.
+ */
+public enum CardinalityType {
+
+    /**
+     * A separate HyperLogLog (CompactHyperLogLog by default) fed with the same
+     * value hash as the MinHash. Relative error of about 1.04 / sqrt(2^p),
+     * 0.2% at the default p = 18. Default.
+     */
+    HYPERLOGLOG,
+
+    /**
+     * Estimated from the k minimum values already held by the MinHash, so
+     * there is no extra estimator to update or store. Relative error of about
+     * 1 / sqrt(k - 2), e.g., 13% at k = 64 and 4.4% at k = 512.
+     */
+    MINHASH
+
+}
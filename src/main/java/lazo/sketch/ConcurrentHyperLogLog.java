@@ -0,0 +1,151 @@
+package lazo.sketch;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.clearspring.analytics.hash.MurmurHash;
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.ICardinality;
+
+/**
+ * HyperLogLog that can be updated from several threads at once. The 2^p
+ * registers are dense, packed 10 per long as in CompactHyperLogLog, in an
+ * AtomicLongArray; a register is raised with a compare-and-set of its word,
+ * which is only attempted when the new value is larger, so most offers are a
+ * plain read. Registers only grow, so the result does not depend on how the
+ * offers interleave: the registers, and the cardinality, are those of a
+ * CompactHyperLogLog of the same precision offered the same hashes.
+ *
+ * It is always dense, 205KB at p = 18, so it is meant for a few large shared
+ * columns. toCompactHyperLogLog() takes a snapshot, e.g., to serialize it.
+ */
+public class ConcurrentHyperLogLog implements ICardinality {
+
+    private static final int REGISTERS_PER_WORD = 10;
+    private static final int REGISTER_BITS = 6;
+    private static final long REGISTER_MASK = (1L << REGISTER_BITS) - 1;
+
+    private final int p;
+    private final int m;
+    private final AtomicLongArray registers;
+
+    public ConcurrentHyperLogLog() {
+	this(CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    public ConcurrentHyperLogLog(int p) {
+	if (p < 4 || p > 24) {
+	    throw new IllegalArgumentException("Precision must be in the range [4,24]");
+	}
+	this.p = p;
+	this.m = 1 << p;
+	this.registers = new AtomicLongArray((m + REGISTERS_PER_WORD - 1) / REGISTERS_PER_WORD);
+    }
+
+    public int getPrecision() {
+	return p;
+    }
+
+    @Override
+    public boolean offer(Object o) {
+	return this.offerHashed(MurmurHash.hash64(o));
+    }
+
+    @Override
+    public boolean offerHashed(int hashedInt) {
+	return this.offerHashed(Murmur3.fmix64(hashedInt));
+    }
+
+    @Override
+    public boolean offerHashed(long hashedLong) {
+	int register = (int) (hashedLong >>> (64 - p));
+	int value = Long.numberOfLeadingZeros((hashedLong << p) | (1L << (p - 1))) + 1;
+	int word = register / REGISTERS_PER_WORD;
+	int shift = (register % REGISTERS_PER_WORD) * REGISTER_BITS;
+	while (true) {
+	    long current = registers.get(word);
+	    long currentValue = (current >>> shift) & REGISTER_MASK;
+	    if (currentValue >= value) {
+		return false;
+	    }
+	    if (registers.compareAndSet(word, current, current + ((value - currentValue) << shift))) {
+		return true;
+	    }
+	}
+    }
+
+    public int getRegister(int register) {
+	int shift = (register % REGISTERS_PER_WORD) * REGISTER_BITS;
+	return (int) ((registers.get(register / REGISTERS_PER_WORD) >>> shift) & REGISTER_MASK);
+    }
+
+    /**
+     * Estimate over the registers as they are read, while other threads may
+     * keep offering
+     */
+    @Override
+    public long cardinality() {
+	int[] c = new int[64 - p + 2];
+	for (int word = 0; word < registers.length(); word++) {
+	    long w = registers.get(word);
+	    int registersInWord = Math.min(REGISTERS_PER_WORD, m - word * REGISTERS_PER_WORD);
+	    for (int r = 0; r < registersInWord; r++) {
+		c[(int) ((w >>> (r * REGISTER_BITS)) & REGISTER_MASK)]++;
+	    }
+	}
+	return CompactHyperLogLog.estimate(p, c);
+    }
+
+    /**
+     * A CompactHyperLogLog with the current registers, sparse if few are set
+     */
+    public CompactHyperLogLog toCompactHyperLogLog() {
+	CompactHyperLogLog hll = new CompactHyperLogLog(p);
+	for (int register = 0; register < m; register++) {
+	    int value = this.getRegister(register);
+	    if (value != 0) {
+		hll.updateRegister(register, value);
+	    }
+	}
+	return hll;
+    }
+
+    /**
+     * Clears all registers. Offers that run concurrently may or may not be
+     * kept.
+     */
+    public void reset() {
+	for (int word = 0; word < registers.length(); word++) {
+	    registers.set(word, 0);
+	}
+    }
+
+    @Override
+    public int sizeof() {
+	return registers.length() * 8;
+    }
+
+    /**
+     * Same format as CompactHyperLogLog.getBytes
+     */
+    @Override
+    public byte[] getBytes() throws IOException {
+	return this.toCompactHyperLogLog().getBytes();
+    }
+
+    /**
+     * Merges a snapshot of this estimator with the others, which must be
+     * CompactHyperLogLog or ConcurrentHyperLogLog of the same precision
+     */
+    @Override
+    public ICardinality merge(ICardinality... estimators) throws CardinalityMergeException {
+	ICardinality[] snapshots = new ICardinality[estimators.length];
+	for (int i = 0; i < estimators.length; i++) {
+	    snapshots[i] = estimators[i] instanceof ConcurrentHyperLogLog
+		    ? ((ConcurrentHyperLogLog) estimators[i]).toCompactHyperLogLog()
+		    : estimators[i];
+	}
+	return this.toCompactHyperLogLog().merge(snapshots);
+    }
+
+}
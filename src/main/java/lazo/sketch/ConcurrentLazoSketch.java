@@ -0,0 +1,241 @@
+package lazo.sketch;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.hash.HashFunction;
+
+/**
+ * A MINHASH LazoSketch that several threads can update at once, for a column
+ * fed by many producers. Each of the k minima is lowered with a
+ * compare-and-set on an AtomicLongArray, which is only attempted when the new
+ * value is smaller, so once the sketch has seen a few values almost all
+ * updates are plain reads. The cardinality comes from a ConcurrentHyperLogLog,
+ * or from the minima with CardinalityType.MINHASH.
+ *
+ * Minima only go down and registers only go up, so the final state does not
+ * depend on how updates interleave: it is exactly that of a LazoSketch with
+ * the same parameters updated with the same values in any order.
+ * toLazoSketch() takes a snapshot that can be indexed, merged or serialized.
+ */
+public class ConcurrentLazoSketch implements Sketch {
+
+    private static final int SEED = 666;
+
+    private final int k;
+    private final PermutationFamilyType permutationFamilyType;
+    private final PermutationFamily permutations;
+    private final HashFunction hf = SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, SEED);
+    // ValueHasher keeps a scratch buffer, so one per thread
+    private final ThreadLocal<ValueHasher> hasher = ThreadLocal.withInitial(() -> new ValueHasher(hf, SEED));
+    // minima of a value or a block of values, private to the thread, that
+    // are then merged into the shared ones
+    private final ThreadLocal<long[]> blockMinima;
+
+    private final AtomicLongArray hashValues;
+    // null with CardinalityType.MINHASH
+    private final ConcurrentHyperLogLog ic;
+
+    public ConcurrentLazoSketch() {
+	this(64);
+    }
+
+    public ConcurrentLazoSketch(int k) {
+	this(k, PermutationFamilyType.MERSENNE, CardinalityType.HYPERLOGLOG, CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    public ConcurrentLazoSketch(int k, PermutationFamilyType permutationFamilyType) {
+	this(k, permutationFamilyType, CardinalityType.HYPERLOGLOG, CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * See LazoSketch(int, SketchType, int)
+     */
+    public ConcurrentLazoSketch(int k, int cardinalityPrecision) {
+	this(k, PermutationFamilyType.MERSENNE, CardinalityType.HYPERLOGLOG, cardinalityPrecision);
+    }
+
+    /**
+     * See LazoSketch(int, SketchType, CardinalityType)
+     */
+    public ConcurrentLazoSketch(int k, CardinalityType cardinalityType) {
+	this(k, PermutationFamilyType.MERSENNE, cardinalityType, CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    private ConcurrentLazoSketch(int k, PermutationFamilyType permutationFamilyType, CardinalityType cardinalityType,
+	    int cardinalityPrecision) {
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	this.k = k;
+	this.permutationFamilyType = permutationFamilyType;
+	this.permutations = SketchUtils.initializePermutationFamily(permutationFamilyType, k, SEED);
+	this.blockMinima = ThreadLocal.withInitial(() -> new long[k]);
+	this.hashValues = new AtomicLongArray(k);
+	for (int i = 0; i < k; i++) {
+	    this.hashValues.set(i, Long.MAX_VALUE);
+	}
+	this.ic = cardinalityType == CardinalityType.HYPERLOGLOG ? new ConcurrentHyperLogLog(cardinalityPrecision)
+		: null;
+    }
+
+    public ConcurrentHyperLogLog getCardinalityEstimator() {
+	return ic;
+    }
+
+    public CardinalityType getCardinalityType() {
+	return ic == null ? CardinalityType.MINHASH : CardinalityType.HYPERLOGLOG;
+    }
+
+    @Override
+    public void update(String value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.get().hash(value));
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.get().hash(value));
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.get().hash(value));
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.get().hash(value));
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.get().hash(value));
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.get().hash(buf, off, len));
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	if (ic != null) {
+	    ic.offerHashed(hv);
+	}
+	long[] minima = blockMinima.get();
+	Arrays.fill(minima, Long.MAX_VALUE);
+	permutations.update(minima, 0, hv);
+	for (int i = 0; i < k; i++) {
+	    this.lower(i, minima[i]);
+	}
+    }
+
+    /**
+     * Lowers the i-th minimum to value, unless it is already lower
+     */
+    private void lower(int i, long value) {
+	long current = hashValues.get(i);
+	while (value < current) {
+	    if (hashValues.compareAndSet(i, current, value)) {
+		return;
+	    }
+	    current = hashValues.get(i);
+	}
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher.get(), values);
+    }
+
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher.get(), values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    /**
+     * The block is swept through the permutations into minima private to the
+     * thread, and then merged into the shared ones with one compare-and-set per
+     * slot at most
+     */
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
+	if (ic != null) {
+	    for (int j = offset; j < offset + length; j++) {
+		ic.offerHashed(preHashed[j]);
+	    }
+	}
+	long[] minima = blockMinima.get();
+	Arrays.fill(minima, Long.MAX_VALUE);
+	permutations.updateBlock(minima, 0, preHashed, offset, length);
+	for (int i = 0; i < k; i++) {
+	    this.lower(i, minima[i]);
+	}
+    }
+
+    /**
+     * A copy of the current minima
+     */
+    @Override
+    public long[] getHashValues() {
+	long[] copy = new long[k];
+	for (int i = 0; i < k; i++) {
+	    copy[i] = hashValues.get(i);
+	}
+	return copy;
+    }
+
+    @Override
+    public void setHashValues(long[] hashValues) {
+	if (hashValues.length != this.k) {
+	    throw new IllegalArgumentException("Input array size incompatible with this number of permutations (k)");
+	}
+	for (int i = 0; i < k; i++) {
+	    this.hashValues.set(i, hashValues[i]);
+	}
+    }
+
+    public long getCardinality() {
+	if (ic == null) {
+	    return new MinHash(this.getHashValues(), SEED, hf).cardinality();
+	}
+	return ic.cardinality();
+    }
+
+    /**
+     * A LazoSketch with the current state, e.g., to index it. Updates that
+     * run concurrently may or may not be part of it.
+     */
+    public LazoSketch toLazoSketch() {
+	LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH, permutationFamilyType,
+		ic == null ? null : ic.toCompactHyperLogLog());
+	sketch.setHashValues(this.getHashValues());
+	return sketch;
+    }
+
+    /**
+     * Empties the sketch. Updates that run concurrently may or may not be
+     * kept.
+     */
+    @Override
+    public void reset() {
+	for (int i = 0; i < k; i++) {
+	    hashValues.set(i, Long.MAX_VALUE);
+	}
+	if (ic != null) {
+	    ic.reset();
+	}
+    }
+
+}
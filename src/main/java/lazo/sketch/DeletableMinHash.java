@@ -0,0 +1,309 @@
+package lazo.sketch;
+
+import java.util.Arrays;
+
+import com.google.common.hash.HashFunction;
+
+/**
+ * MinHash that supports removing values, for columns of tables that change.
+ * Instead of the minimum of each permutation it keeps the c smallest distinct
+ * values seen (bottom-c) with the number of times each was added, so a
+ * deleted row only decrements a counter, and the minimum of a slot moves to
+ * the next candidate once all copies of its value are removed.
+ *
+ * Values that do not fit among the c candidates of a slot are forgotten; the
+ * smallest of them is remembered as the bound of the slot, and nothing at or
+ * above the bound is tracked any more. A slot whose c candidates have all been
+ * removed cannot tell its minimum without reading the column again: isStale()
+ * reports it, and getHashValues() and getCardinality() throw
+ * IllegalStateException until the sketch is rebuilt (reset and update with
+ * the current values). With a fraction f of the distinct values removed, a
+ * slot goes stale with probability about f^c. Otherwise the hash values are
+ * exactly those of a MinHash of the values currently in the column, with the
+ * same seed and permutation family, so a change of the column costs
+ * O(changed values) instead of a rescan.
+ *
+ * Each slot costs c longs and c ints, plus a long.
+ */
+public class DeletableMinHash implements Sketch {
+
+    public static final int DEFAULT_CANDIDATES = 8;
+
+    private final int seed;
+    private final int k;
+    private final int c;
+    private final HashFunctionType hashFunctionType;
+    private final HashFunction hf;
+    private final ValueHasher hasher;
+    private final PermutationFamily permutations;
+
+    // candidates of slot i in [i * c, i * c + sizes[i]), ascending
+    private final long[] candidates;
+    private final int[] counts;
+    private final int[] sizes;
+    // smallest value forgotten by each slot, Long.MAX_VALUE if none
+    private final long[] bounds;
+    // permuted values of the value being added or removed
+    private final long[] permuted;
+
+    public DeletableMinHash(int k) {
+	this(k, DEFAULT_CANDIDATES);
+    }
+
+    public DeletableMinHash(int k, int candidates) {
+	this(k, candidates, 666, HashFunctionType.MURMUR3, PermutationFamilyType.MERSENNE);
+    }
+
+    public DeletableMinHash(int k, int candidates, int seed, HashFunctionType hashFunctionType,
+	    PermutationFamilyType permutationFamilyType) {
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	if (candidates <= 0) {
+	    throw new IllegalArgumentException("The number of candidates must be positive (> 0)");
+	}
+	this.k = k;
+	this.c = candidates;
+	this.seed = seed;
+	this.hashFunctionType = hashFunctionType;
+	this.hf = SketchUtils.initializeHashFunction(hashFunctionType, seed);
+	this.hasher = new ValueHasher(this.hf, seed);
+	this.permutations = SketchUtils.initializePermutationFamily(permutationFamilyType, k, seed);
+	this.candidates = new long[k * candidates];
+	this.counts = new int[k * candidates];
+	this.sizes = new int[k];
+	this.bounds = SketchUtils.initializeHashValues(k, Long.MAX_VALUE);
+	this.permuted = new long[k];
+    }
+
+    public PermutationFamily getPermutationFamily() {
+	return permutations;
+    }
+
+    @Override
+    public void update(String value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.hash(buf, off, len));
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	this.permute(hv);
+	for (int i = 0; i < k; i++) {
+	    this.add(i, permuted[i]);
+	}
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
+	for (int j = offset; j < offset + length; j++) {
+	    this.updateHashed(preHashed[j]);
+	}
+    }
+
+    /**
+     * Removes one copy of a value added before. Removing a value that is not
+     * in the sketch has no effect.
+     */
+    public void remove(String value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.removeHashed(hasher.hash(value));
+    }
+
+    public void remove(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.removeHashed(hasher.hash(value));
+    }
+
+    public void remove(long value) {
+	this.removeHashed(hasher.hash(value));
+    }
+
+    public void removeHashed(long hv) {
+	this.permute(hv);
+	for (int i = 0; i < k; i++) {
+	    this.delete(i, permuted[i]);
+	}
+    }
+
+    private void permute(long hv) {
+	Arrays.fill(permuted, Long.MAX_VALUE);
+	permutations.update(permuted, 0, hv);
+    }
+
+    private void add(int slot, long v) {
+	if (v >= bounds[slot]) {
+	    return;
+	}
+	int base = slot * c;
+	int n = sizes[slot];
+	if (n == c && v > candidates[base + n - 1]) {
+	    // the usual case once the slot is full
+	    bounds[slot] = v;
+	    return;
+	}
+	int pos = 0;
+	while (pos < n && candidates[base + pos] < v) {
+	    pos++;
+	}
+	if (pos < n && candidates[base + pos] == v) {
+	    counts[base + pos]++;
+	    return;
+	}
+	if (n == c) {
+	    // forget the largest candidate
+	    n--;
+	    bounds[slot] = candidates[base + n];
+	}
+	System.arraycopy(candidates, base + pos, candidates, base + pos + 1, n - pos);
+	System.arraycopy(counts, base + pos, counts, base + pos + 1, n - pos);
+	candidates[base + pos] = v;
+	counts[base + pos] = 1;
+	sizes[slot] = n + 1;
+    }
+
+    private void delete(int slot, long v) {
+	if (v >= bounds[slot]) {
+	    // not tracked, and it is not the minimum
+	    return;
+	}
+	int base = slot * c;
+	int n = sizes[slot];
+	int pos = 0;
+	while (pos < n && candidates[base + pos] < v) {
+	    pos++;
+	}
+	if (pos == n || candidates[base + pos] != v) {
+	    // below the bound, every value added is a candidate
+	    return;
+	}
+	if (--counts[base + pos] == 0) {
+	    System.arraycopy(candidates, base + pos + 1, candidates, base + pos, n - pos - 1);
+	    System.arraycopy(counts, base + pos + 1, counts, base + pos, n - pos - 1);
+	    sizes[slot] = n - 1;
+	}
+    }
+
+    private boolean isStale(int slot) {
+	return sizes[slot] == 0 && bounds[slot] != Long.MAX_VALUE;
+    }
+
+    /**
+     * Whether some value removed was the last known candidate of a slot, so
+     * the sketch has to be rebuilt from the column
+     */
+    public boolean isStale() {
+	for (int i = 0; i < k; i++) {
+	    if (this.isStale(i)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * The minimum of each slot, in a new array
+     *
+     * @throws IllegalStateException
+     *             if the sketch is stale
+     */
+    @Override
+    public long[] getHashValues() {
+	long[] hashValues = new long[k];
+	for (int i = 0; i < k; i++) {
+	    if (this.isStale(i)) {
+		throw new IllegalStateException("The sketch has to be rebuilt from the column, see isStale()");
+	    }
+	    hashValues[i] = sizes[i] > 0 ? candidates[i * c] : Long.MAX_VALUE;
+	}
+	return hashValues;
+    }
+
+    /**
+     * Estimated from the minima, as MinHash.cardinality()
+     *
+     * @throws IllegalStateException
+     *             if the sketch is stale
+     */
+    public long getCardinality() {
+	return new MinHash(this.getHashValues(), seed, hf).cardinality();
+    }
+
+    /**
+     * A MINHASH LazoSketch of the current values, e.g., for
+     * LazoIndex.update. Its cardinality is estimated from the minima. Only
+     * for sketches with the seed and hash function of LazoSketch.
+     *
+     * @throws IllegalStateException
+     *             if the sketch is stale
+     */
+    public LazoSketch toLazoSketch() {
+	if (seed != 666 || hashFunctionType != HashFunctionType.MURMUR3) {
+	    throw new IllegalArgumentException("LazoSketch uses seed 666 and MURMUR3");
+	}
+	LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH, permutations.getType(), null);
+	sketch.setHashValues(this.getHashValues());
+	return sketch;
+    }
+
+    @Override
+    public void setHashValues(long[] hashValues) {
+	throw new UnsupportedOperationException("Deletable sketches cannot be set from hash values, they need the candidates");
+    }
+
+    @Override
+    public void reset() {
+	Arrays.fill(sizes, 0);
+	Arrays.fill(bounds, Long.MAX_VALUE);
+    }
+
+}
@@ -1,5 +1,33 @@
 package lazo.sketch;
 
+/**
+ * Hash functions that map values to the 64-bit hashes consumed by the
+ * sketches. Sketches built with different types (or seeds) are not
+ * comparable. All of them are computed in place by ValueHasher, without
+ * allocating per value.
+ */
 public enum HashFunctionType {
-    MURMUR3
+
+    /**
+     * First 64 bits of x64 128-bit Murmur3, same as Guava's
+     * Hashing.murmur3_128(seed).asLong(). Default, and the only choice in
+     * earlier versions, so existing sketches stay comparable.
+     */
+    MURMUR3,
+
+    /**
+     * XXH64. Four independent lanes over 32-byte stripes, so it gains over
+     * MURMUR3 on long values where the CPU can overlap the lanes.
+     */
+    XXH64,
+
+    /**
+     * wyhash (final version 4). One 128-bit multiply per 16 bytes and a short
+     * path for values up to 16 bytes. Java 8 has no unsigned 64x64->128-bit
+     * multiply, so the high half is computed from 32-bit halves, which makes
+     * it slower than the other two here; it is mostly useful to match
+     * sketches built elsewhere with wyhash.
+     */
+    WYHASH
+
 }
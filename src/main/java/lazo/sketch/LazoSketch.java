@@ -1,70 +1,106 @@
 package lazo.sketch;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
 import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
 import com.clearspring.analytics.stream.cardinality.ICardinality;
 
 public class LazoSketch implements Sketch {
 
+    private static final int SEED = 666;
+
+    // serialization format, see writeTo
+    private static final int MAGIC = 0x4C5A534B; // "LZSK"
+    private static final byte VERSION = 1;
+    private static final byte NO_ESTIMATOR = 0;
+    private static final byte COMPACT_HYPERLOGLOG = 1;
+    private static final byte HYPERLOGLOG_PLUS = 2;
+
     private int k;
     private SketchType sketchType;
+    private PermutationFamilyType permutationFamilyType = PermutationFamilyType.MERSENNE;
 
     private long cardinality = -1;
     private Sketch underlyingSketch;
     private ICardinality ic;
+    // same hash function as the underlying sketch, so values are hashed once
+    private ValueHasher hasher = new ValueHasher(
+	    SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, SEED), SEED);
+
+    // state of a wrapped sketch that has not been read yet, see wrap
+    private ByteBuffer wrappedHashValues;
+    private ByteBuffer wrappedEstimator;
+    private byte wrappedEstimatorType;
 
     public LazoSketch() {
-	this.k = 64;
-	this.sketchType = SketchType.MINHASH; // default
-	this.underlyingSketch = new MinHash(k);
-	// Cardinality estimator here
-	ic = new HyperLogLogPlus(18, 25);
+	this(64, SketchType.MINHASH, PermutationFamilyType.MERSENNE, new CompactHyperLogLog());
     }
 
     public LazoSketch(int k) {
-	if (k <= 0) {
-	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
-	}
-	this.k = k;
-	this.sketchType = SketchType.MINHASH; // default
-	this.underlyingSketch = new MinHash(k);
-	// Cardinality estimator here
-	ic = new HyperLogLogPlus(18, 25);
+	this(k, SketchType.MINHASH, PermutationFamilyType.MERSENNE, new CompactHyperLogLog());
     }
 
     public LazoSketch(int k, SketchType sketchType) {
-	if (k <= 0) {
-	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
-	}
-	this.k = k;
-	this.sketchType = sketchType;
-	switch (sketchType) {
-	case MINHASH:
-	    this.underlyingSketch = new MinHash(k);
-	    break;
-	case MINHASH_OPTIMAL:
-	    this.underlyingSketch = new MinHashOptimal(k);
-	    break;
-	default:
-	    System.out.println("Sketch type unrecognized");
-	}
-	// Cardinality estimator here
-	ic = new HyperLogLogPlus(18, 25);
+	this(k, sketchType, PermutationFamilyType.MERSENNE, new CompactHyperLogLog());
+    }
+
+    /**
+     * Only MINHASH sketches use a permutation family, the others take
+     * MERSENNE. Sketches of different families cannot be merged, nor indexed
+     * together.
+     */
+    public LazoSketch(int k, SketchType sketchType, PermutationFamilyType permutationFamilyType) {
+	this(k, sketchType, permutationFamilyType, new CompactHyperLogLog());
+    }
+
+    /**
+     * The cardinality estimator uses 2^cardinalityPrecision registers, with a
+     * relative error of about 1.04 / sqrt(2^cardinalityPrecision). Small
+     * columns take a few bytes regardless of the precision.
+     */
+    public LazoSketch(int k, SketchType sketchType, int cardinalityPrecision) {
+	this(k, sketchType, PermutationFamilyType.MERSENNE, new CompactHyperLogLog(cardinalityPrecision));
+    }
+
+    /**
+     * With CardinalityType.MINHASH the cardinality is estimated from the
+     * MinHash values and the sketch holds no separate estimator, i.e.,
+     * getCardinalityEstimator() returns null
+     */
+    public LazoSketch(int k, SketchType sketchType, CardinalityType cardinalityType) {
+	this(k, sketchType, PermutationFamilyType.MERSENNE,
+		cardinalityType == CardinalityType.MINHASH ? null : new CompactHyperLogLog());
     }
 
     public LazoSketch(int k, SketchType sketchType, ICardinality ic) {
+	this(k, sketchType, PermutationFamilyType.MERSENNE, ic);
+    }
+
+    LazoSketch(int k, SketchType sketchType, PermutationFamilyType permutationFamilyType, ICardinality ic) {
 	if (k <= 0) {
 	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
 	}
+	if (sketchType != SketchType.MINHASH && permutationFamilyType != PermutationFamilyType.MERSENNE) {
+	    throw new IllegalArgumentException(sketchType + " sketches do not use a permutation family");
+	}
 	this.k = k;
 	this.sketchType = sketchType;
+	this.permutationFamilyType = permutationFamilyType;
 	switch (sketchType) {
 	case MINHASH:
-	    this.underlyingSketch = new MinHash(k);
+	    this.underlyingSketch = new MinHash(k, SEED, HashFunctionType.MURMUR3, permutationFamilyType);
 	    break;
 	case MINHASH_OPTIMAL:
 	    this.underlyingSketch = new MinHashOptimal(k);
 	    break;
+	case WEIGHTED_MINHASH:
+	    this.underlyingSketch = new WeightedMinHash(k, SEED, HashFunctionType.MURMUR3);
+	    break;
 	default:
 	    System.out.println("Sketch type unrecognized");
 	}
@@ -73,6 +109,7 @@ public class LazoSketch implements Sketch {
     }
 
     public ICardinality getCardinalityEstimator() {
+	this.materializeEstimator();
 	return this.ic;
     }
 
@@ -81,13 +118,104 @@ public class LazoSketch implements Sketch {
 	if (value == null) {
 	    throw new IllegalArgumentException("Value cannot be null");
 	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.hash(buf, off, len));
+    }
+
+    /**
+     * Adds a value with a weight, e.g., its frequency in the column. Only for
+     * WEIGHTED_MINHASH sketches, see WeightedMinHash. The cardinality
+     * estimator counts distinct values regardless of their weight.
+     */
+    public void update(String value, double weight) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	if (sketchType != SketchType.WEIGHTED_MINHASH) {
+	    throw new IllegalArgumentException("Weights are only supported by WEIGHTED_MINHASH sketches");
+	}
+	if (!WeightedMinHash.checkWeight(weight)) {
+	    // not in the set, nor in its cardinality
+	    return;
+	}
+	long hv = hasher.hash(value);
+	// cardinality materialization is not up to date
+	cardinality = -1;
+	this.materialize();
+	if (ic != null) {
+	    ic.offerHashed(hv);
+	}
+	((WeightedMinHash) this.underlyingSketch).updateHashed(hv, weight);
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	// cardinality materialization is not up to date
+	cardinality = -1;
+	this.materialize();
+	if (ic != null) {
+	    ic.offerHashed(hv);
+	}
+	this.underlyingSketch.updateHashed(hv);
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
 	// cardinality materialization is not up to date
 	cardinality = -1;
-	ic.offer(value);
-	this.underlyingSketch.update(value);
+	this.materialize();
+	if (ic != null) {
+	    for (int j = offset; j < offset + length; j++) {
+		ic.offerHashed(preHashed[j]);
+	    }
+	}
+	this.underlyingSketch.updateAll(preHashed, offset, length);
     }
 
     public Sketch getSketch() {
+	this.materializeSketch();
 	return underlyingSketch;
     }
 
@@ -97,11 +225,33 @@ public class LazoSketch implements Sketch {
 	    return cardinality;
 	}
 	// it has not been precomputed or it is not up to date
+	this.materialize();
+	if (ic == null) {
+	    // estimated from the MinHash values
+	    switch (sketchType) {
+	    case MINHASH_OPTIMAL:
+		return ((MinHashOptimal) underlyingSketch).cardinality();
+	    case WEIGHTED_MINHASH:
+		// total weight of the multiset
+		return ((WeightedMinHash) underlyingSketch).cardinality();
+	    default:
+		return ((MinHash) underlyingSketch).cardinality();
+	    }
+	}
 	return ic.cardinality();
     }
 
+    public PermutationFamilyType getPermutationFamilyType() {
+	return permutationFamilyType;
+    }
+
+    public CardinalityType getCardinalityType() {
+	return ic == null && wrappedEstimator == null ? CardinalityType.MINHASH : CardinalityType.HYPERLOGLOG;
+    }
+
     @Override
     public long[] getHashValues() {
+	this.materializeSketch();
 	return underlyingSketch.getHashValues();
     }
 
@@ -110,37 +260,283 @@ public class LazoSketch implements Sketch {
 	if (hashValues.length != this.k) {
 	    throw new IllegalArgumentException("Input array size incompatible with this number of permutations (k)");
 	}
+	this.materializeSketch();
 	this.underlyingSketch.setHashValues(hashValues);
     }
 
     public LazoSketch merge(LazoSketch b) {
+	if (this.sketchType != b.sketchType) {
+	    throw new IllegalArgumentException(
+		    "Cannot merge a " + this.sketchType + " sketch with a " + b.sketchType + " sketch");
+	}
 	long[] aHV = this.getHashValues();
 	long[] bHV = b.getHashValues();
 	if (aHV.length != bHV.length) {
 	    throw new IllegalArgumentException("Cannot merge differently-sized sketches");
 	}
-	long[] mergedHashValues = new long[aHV.length];
-	for (int i = 0; i < aHV.length; i++) {
-	    if (aHV[i] <= bHV[i]) {
-		mergedHashValues[i] = aHV[i];
-	    } else {
-		mergedHashValues[i] = bHV[i];
+	if (this.getCardinalityType() != b.getCardinalityType()) {
+	    throw new IllegalArgumentException("Cannot merge sketches with different cardinality types");
+	}
+	if (this.permutationFamilyType != b.permutationFamilyType) {
+	    throw new IllegalArgumentException("Cannot merge sketches of different permutation families");
+	}
+	this.materialize();
+	b.materialize();
+	if (this.ic != null) {
+	    if (this.ic.getClass() != b.ic.getClass()) {
+		throw new IllegalArgumentException("Cannot merge sketches with different cardinality estimators");
+	    }
+	    if (this.ic instanceof CompactHyperLogLog
+		    && ((CompactHyperLogLog) this.ic).getPrecision() != ((CompactHyperLogLog) b.ic).getPrecision()) {
+		throw new IllegalArgumentException("Cannot merge sketches with different cardinality precisions");
+	    }
+	}
+	// the estimator is replaced by the merged one below
+	LazoSketch merged = new LazoSketch(this.k, this.sketchType, this.permutationFamilyType, null);
+	if (this.sketchType == SketchType.MINHASH_OPTIMAL) {
+	    // OPH merges the raw bins, and densifies on read
+	    merged.underlyingSketch = ((MinHashOptimal) this.underlyingSketch).merge((MinHashOptimal) b.getSketch());
+	} else if (this.sketchType == SketchType.WEIGHTED_MINHASH) {
+	    // keeps the sample of lowest rank
+	    merged.underlyingSketch = ((WeightedMinHash) this.underlyingSketch).merge((WeightedMinHash) b.getSketch());
+	} else {
+	    long[] mergedHashValues = new long[aHV.length];
+	    for (int i = 0; i < aHV.length; i++) {
+		if (aHV[i] <= bHV[i]) {
+		    mergedHashValues[i] = aHV[i];
+		} else {
+		    mergedHashValues[i] = bHV[i];
+		}
 	    }
+	    merged.setHashValues(mergedHashValues);
+	}
+	if (this.ic == null) {
+	    // cardinality comes from the merged MinHash values
+	    return merged;
 	}
 	// merge cardinality estimator as well
-	ICardinality mergedCardinality = null;
 	try {
-	    mergedCardinality = this.getCardinalityEstimator().merge(b.getCardinalityEstimator());
+	    merged.ic = this.getCardinalityEstimator().merge(b.getCardinalityEstimator());
 	} catch (CardinalityMergeException e) {
-	    e.printStackTrace();
+	    throw new IllegalArgumentException("Cannot merge the cardinality estimators", e);
 	}
-	LazoSketch merged = new LazoSketch(this.k, this.sketchType, mergedCardinality);
-	merged.setHashValues(mergedHashValues);
 	return merged;
     }
 
+    /**
+     * Empties the sketch and its cardinality estimator in place, so that the
+     * same object can sketch another column, see SketchPool. The permutations
+     * and arrays are kept. A wrapped sketch stops reading its buffer.
+     *
+     * @throws UnsupportedOperationException
+     *             if the cardinality estimator is not a CompactHyperLogLog
+     */
+    @Override
+    public void reset() {
+	// decoded first, so that it can be reset
+	this.materializeEstimator();
+	if (ic != null && !(ic instanceof CompactHyperLogLog)) {
+	    throw new UnsupportedOperationException("Cannot reset cardinality estimator " + ic.getClass().getName());
+	}
+	wrappedHashValues = null;
+	cardinality = -1;
+	this.underlyingSketch.reset();
+	if (ic != null) {
+	    ((CompactHyperLogLog) ic).reset();
+	}
+    }
+
     public void setCardinality(long cardinality) {
-        this.cardinality = cardinality;
+	this.cardinality = cardinality;
+    }
+
+    /**
+     * Size in bytes of this sketch as written by writeTo
+     */
+    public int getSerializedSize() {
+	return this.headerSize() + this.hashValuesSize() + this.estimatorSize(this.estimatorBytes());
+    }
+
+    /**
+     * Writes this sketch at the position of out, and advances it. The format
+     * (big-endian) is: magic "LZSK", version, sketch type, permutation family,
+     * estimator type, k (varint), seed, cardinality (or -1), k hash values,
+     * and the estimator state, as its length (varint) followed by its bytes.
+     * The hash values are random 61 to 64-bit numbers, so they are stored at
+     * fixed width, which is what lets wrap read them in place; the estimator
+     * state is varint-delta encoded while it is sparse. OPH sketches store
+     * their raw bins, and weighted sketches their k ranks after the hash
+     * values.
+     *
+     * @throws BufferOverflowException
+     *             if out has not got getSerializedSize() bytes left
+     */
+    public void writeTo(ByteBuffer out) {
+	byte[] estimator = this.estimatorBytes();
+	if (out.remaining() < this.headerSize() + this.hashValuesSize() + this.estimatorSize(estimator)) {
+	    throw new BufferOverflowException();
+	}
+	long[] hashValues = this.sketchType == SketchType.MINHASH_OPTIMAL
+		? ((MinHashOptimal) this.getSketch()).getBins()
+		: this.getHashValues();
+	ByteOrder order = out.order();
+	out.order(ByteOrder.BIG_ENDIAN);
+	out.putInt(MAGIC);
+	out.put(VERSION);
+	out.put((byte) sketchType.ordinal());
+	out.put((byte) permutationFamilyType.ordinal());
+	out.put(estimatorType(ic));
+	SketchUtils.writeVarInt(out, k);
+	out.putInt(SEED);
+	out.putLong(this.getCardinality());
+	for (long hv : hashValues) {
+	    out.putLong(hv);
+	}
+	if (sketchType == SketchType.WEIGHTED_MINHASH) {
+	    for (double rank : ((WeightedMinHash) this.getSketch()).getRanks()) {
+		out.putDouble(rank);
+	    }
+	}
+	if (estimator != null) {
+	    SketchUtils.writeVarInt(out, estimator.length);
+	    out.put(estimator);
+	}
+	out.order(order);
+    }
+
+    /**
+     * Reads a sketch written by writeTo, starting at the position of in, and
+     * advances in past it. Nothing is copied until needed: the hash values are
+     * read straight from in (heap, direct or mapped) when first requested and
+     * the cardinality estimator is only decoded when the sketch is updated or
+     * merged, so getCardinality() on a loaded sketch costs nothing, and the
+     * first getHashValues() copies the k hash values out of in. in must not be
+     * modified while the sketch has not been read.
+     */
+    public static LazoSketch wrap(ByteBuffer in) {
+	ByteBuffer buf = in.duplicate().order(ByteOrder.BIG_ENDIAN);
+	if (buf.getInt() != MAGIC) {
+	    throw new IllegalArgumentException("Not a serialized LazoSketch");
+	}
+	byte version = buf.get();
+	if (version != VERSION) {
+	    throw new IllegalArgumentException("Unsupported LazoSketch format version: " + version);
+	}
+	byte sketchType = buf.get();
+	if (sketchType < 0 || sketchType >= SketchType.values().length) {
+	    throw new IllegalArgumentException("Unsupported sketch type: " + sketchType);
+	}
+	byte permutationFamilyType = buf.get();
+	if (permutationFamilyType < 0 || permutationFamilyType >= PermutationFamilyType.values().length) {
+	    throw new IllegalArgumentException("Unsupported permutation family type: " + permutationFamilyType);
+	}
+	byte estimatorType = buf.get();
+	int k = SketchUtils.readVarInt(buf);
+	int seed = buf.getInt();
+	if (seed != SEED) {
+	    throw new IllegalArgumentException("Unsupported seed: " + seed);
+	}
+	long cardinality = buf.getLong();
+
+	LazoSketch sketch = new LazoSketch(k, SketchType.values()[sketchType],
+		PermutationFamilyType.values()[permutationFamilyType], null);
+	sketch.cardinality = cardinality;
+	ByteBuffer hashValues = buf.slice();
+	hashValues.limit(sketch.hashValuesSize());
+	sketch.wrappedHashValues = hashValues;
+	buf.position(buf.position() + sketch.hashValuesSize());
+	if (estimatorType != NO_ESTIMATOR) {
+	    int length = SketchUtils.readVarInt(buf);
+	    ByteBuffer estimator = buf.slice();
+	    estimator.limit(length);
+	    sketch.wrappedEstimator = estimator;
+	    sketch.wrappedEstimatorType = estimatorType;
+	    buf.position(buf.position() + length);
+	}
+	in.position(buf.position());
+	return sketch;
+    }
+
+    private void materialize() {
+	this.materializeSketch();
+	this.materializeEstimator();
+    }
+
+    private void materializeSketch() {
+	if (wrappedHashValues == null) {
+	    return;
+	}
+	long[] hashValues = new long[k];
+	wrappedHashValues.asLongBuffer().get(hashValues);
+	if (sketchType == SketchType.WEIGHTED_MINHASH) {
+	    double[] ranks = new double[k];
+	    wrappedHashValues.position(8 * k);
+	    wrappedHashValues.asDoubleBuffer().get(ranks);
+	    ((WeightedMinHash) this.underlyingSketch).setHashValues(hashValues, ranks);
+	} else {
+	    this.underlyingSketch.setHashValues(hashValues);
+	}
+	wrappedHashValues = null;
+    }
+
+    private void materializeEstimator() {
+	if (wrappedEstimator == null) {
+	    return;
+	}
+	switch (wrappedEstimatorType) {
+	case COMPACT_HYPERLOGLOG:
+	    this.ic = CompactHyperLogLog.fromBytes(wrappedEstimator);
+	    break;
+	case HYPERLOGLOG_PLUS:
+	    byte[] bytes = new byte[wrappedEstimator.remaining()];
+	    wrappedEstimator.get(bytes);
+	    try {
+		this.ic = HyperLogLogPlus.Builder.build(bytes);
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	    break;
+	default:
+	    throw new IllegalArgumentException("Unsupported cardinality estimator type: " + wrappedEstimatorType);
+	}
+	wrappedEstimator = null;
+    }
+
+    private static byte estimatorType(ICardinality ic) {
+	if (ic == null) {
+	    return NO_ESTIMATOR;
+	}
+	if (ic instanceof CompactHyperLogLog) {
+	    return COMPACT_HYPERLOGLOG;
+	}
+	if (ic instanceof HyperLogLogPlus) {
+	    return HYPERLOGLOG_PLUS;
+	}
+	throw new IllegalArgumentException("Cannot serialize cardinality estimator " + ic.getClass().getName());
+    }
+
+    private int hashValuesSize() {
+	return sketchType == SketchType.WEIGHTED_MINHASH ? 16 * k : 8 * k;
+    }
+
+    private int headerSize() {
+	return 4 + 4 + SketchUtils.varIntSize(k) + 4 + 8;
+    }
+
+    private byte[] estimatorBytes() {
+	this.materializeEstimator();
+	if (estimatorType(ic) == NO_ESTIMATOR) {
+	    return null;
+	}
+	try {
+	    return ic.getBytes();
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    private int estimatorSize(byte[] estimator) {
+	return estimator == null ? 0 : SketchUtils.varIntSize(estimator.length) + estimator.length;
     }
 
 }
@@ -0,0 +1,66 @@
+package lazo.sketch;
+
+import java.util.Random;
+
+class MersennePermutationFamily extends PermutationFamily {
+
+    private static final long MERSENNE_PRIME = ((long) 1 << 61) - 1;
+
+    private final long[] a;
+    private final long[] b;
+
+    MersennePermutationFamily(int k, int seed) {
+	super(k, seed);
+	Random gen = new Random(seed);
+	this.a = gen.longs(k, 1, MERSENNE_PRIME).toArray();
+	this.b = gen.longs(k, 0, MERSENNE_PRIME).toArray();
+    }
+
+    @Override
+    public PermutationFamilyType getType() {
+	return PermutationFamilyType.MERSENNE;
+    }
+
+    /**
+     * Same as Math.floorMod(x, 2^61 - 1), without the division. Since 2^61 is
+     * 1 mod p, x = hi * 2^61 + lo is lo + hi mod p; and a negative x is its
+     * unsigned value minus 2^64, which is 8 mod p.
+     */
+    static long mod(long x) {
+	long r = (x & MERSENNE_PRIME) + (x >>> 61) - ((x >> 63) & 8);
+	// r is in [-8, p + 7], bring it to [0, p)
+	r += (r >> 63) & MERSENNE_PRIME;
+	r -= MERSENNE_PRIME;
+	r += (r >> 63) & MERSENNE_PRIME;
+	return r;
+    }
+
+    @Override
+    public long permute(int i, long hv) {
+	return mod(a[i] * hv + b[i]);
+    }
+
+    @Override
+    public void update(long[] minima, int minOffset, long hv) {
+	for (int i = 0; i < k; i++) {
+	    long kHashValue = mod(a[i] * hv + b[i]);
+	    long min = minima[minOffset + i];
+	    minima[minOffset + i] = min < kHashValue ? min : kHashValue;
+	}
+    }
+
+    @Override
+    public void updateBlock(long[] minima, int minOffset, long[] hashes, int offset, int length) {
+	for (int i = 0; i < k; i++) {
+	    long ai = a[i];
+	    long bi = b[i];
+	    long min = minima[minOffset + i];
+	    for (int j = offset; j < offset + length; j++) {
+		long kHashValue = mod(ai * hashes[j] + bi);
+		min = min < kHashValue ? min : kHashValue;
+	    }
+	    minima[minOffset + i] = min;
+	}
+    }
+
+}
@@ -1,22 +1,17 @@
 package lazo.sketch;
 
-import java.nio.charset.Charset;
-import java.util.Random;
-import java.util.stream.LongStream;
+import java.util.Arrays;
 
-import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 
 public class MinHash implements Sketch {
 
-    private final long mersennePrime = ((long) 1 << 61) - 1;
-
     private int seed;
     private int k;
     private HashFunction hf;
+    private ValueHasher hasher;
 
-    private long[] a;
-    private long[] b;
+    private PermutationFamily permutations;
     private long[] hashValues;
 
     public MinHash(int k) {
@@ -26,8 +21,9 @@ public class MinHash implements Sketch {
 	this.k = k;
 	this.seed = 666;
 	this.hf = SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, this.seed);
+	this.hasher = new ValueHasher(this.hf, this.seed);
 	this.hashValues = SketchUtils.initializeHashValues(k, Long.MAX_VALUE);
-	this.initializePermutations();
+	this.initializePermutations(PermutationFamilyType.MERSENNE);
     }
 
     public MinHash(int k, int seed, HashFunctionType hashFunctionType) {
@@ -37,8 +33,21 @@ public class MinHash implements Sketch {
 	this.k = k;
 	this.seed = seed;
 	this.hf = SketchUtils.initializeHashFunction(hashFunctionType, this.seed);
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.hashValues = SketchUtils.initializeHashValues(k, Long.MAX_VALUE);
+	this.initializePermutations(PermutationFamilyType.MERSENNE);
+    }
+
+    public MinHash(int k, int seed, HashFunctionType hashFunctionType, PermutationFamilyType permutationFamilyType) {
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	this.k = k;
+	this.seed = seed;
+	this.hf = SketchUtils.initializeHashFunction(hashFunctionType, this.seed);
+	this.hasher = new ValueHasher(this.hf, this.seed);
 	this.hashValues = SketchUtils.initializeHashValues(k, Long.MAX_VALUE);
-	this.initializePermutations();
+	this.initializePermutations(permutationFamilyType);
     }
 
     public MinHash(long[] hashValues, int seed, HashFunction hashFunction) {
@@ -48,16 +57,17 @@ public class MinHash implements Sketch {
 	this.k = hashValues.length;
 	this.seed = seed;
 	this.hf = hashFunction;
-	this.initializePermutations();
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.initializePermutations(PermutationFamilyType.MERSENNE);
 	this.hashValues = hashValues;
     }
 
-    private void initializePermutations() {
-	Random gen = new Random(this.seed);
-	LongStream as = gen.longs(this.k, 1, mersennePrime);
-	LongStream bs = gen.longs(this.k, 0, mersennePrime);
-	this.a = as.toArray();
-	this.b = bs.toArray();
+    private void initializePermutations(PermutationFamilyType permutationFamilyType) {
+	this.permutations = SketchUtils.initializePermutationFamily(permutationFamilyType, this.k, this.seed);
+    }
+
+    public PermutationFamily getPermutationFamily() {
+	return permutations;
     }
 
     @Override
@@ -70,11 +80,62 @@ public class MinHash implements Sketch {
 	if (value == null) {
 	    throw new IllegalArgumentException("Value cannot be null");
 	}
-	HashCode hc = hf.hashString(value, Charset.defaultCharset());
-	long hv = hc.asLong();
-	for (int i = 0; i < k; i++) {
-	    long kHashValue = Math.floorMod((a[i] * hv + b[i]), this.mersennePrime);
-	    hashValues[i] = hashValues[i] < kHashValue ? hashValues[i] : kHashValue;
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.hash(buf, off, len));
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	permutations.update(hashValues, 0, hv);
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
+	for (int start = offset; start < offset + length; start += SketchUtils.BLOCK_SIZE) {
+	    int blockLength = Math.min(SketchUtils.BLOCK_SIZE, offset + length - start);
+	    permutations.updateBlock(hashValues, 0, preHashed, start, blockLength);
 	}
     }
 
@@ -82,11 +143,32 @@ public class MinHash implements Sketch {
 	return SketchUtils.jaccard(this.getHashValues(), other.getHashValues());
     }
 
+    /**
+     * Estimates the number of distinct values from the k minima. Each
+     * permutation maps values to [0, 2^61), so -ln(1 - min / 2^61) is
+     * exponentially distributed with rate n, and (k - 1) over their sum is an
+     * unbiased estimate of n.
+     */
+    public long cardinality() {
+	double sum = 0;
+	for (long hv : hashValues) {
+	    if (hv == Long.MAX_VALUE) {
+		// nothing seen yet
+		return 0;
+	    }
+	    sum -= Math.log1p(-hv * 0x1.0p-61);
+	}
+	return Math.round(Math.max(k - 1, 1) / sum);
+    }
+
     public MinHash merge(MinHash other) {
 	long[] otherHashValues = other.getHashValues();
 	if (this.hashValues.length != otherHashValues.length) {
 	    throw new IllegalArgumentException("Cannot merge differently-sized MinHash sketches");
 	}
+	if (this.permutations.getType() != other.permutations.getType()) {
+	    throw new IllegalArgumentException("Cannot merge MinHash sketches of different permutation families");
+	}
 	long[] mergedHashValues = new long[k];
 	for (int i = 0; i < k; i++) {
 	    if (this.hashValues[i] < otherHashValues[i]) {
@@ -95,11 +177,22 @@ public class MinHash implements Sketch {
 		mergedHashValues[i] = otherHashValues[i];
 	    }
 	}
-	return new MinHash(mergedHashValues, this.k, this.hf);
+	MinHash merged = new MinHash(mergedHashValues, this.seed, this.hf);
+	merged.permutations = this.permutations;
+	return merged;
+    }
+
+    /**
+     * Empties the sketch in place. Arrays returned by getHashValues() before
+     * are emptied as well
+     */
+    @Override
+    public void reset() {
+	Arrays.fill(this.hashValues, Long.MAX_VALUE);
     }
 
     public void clear() {
-	SketchUtils.initializeHashValues(this.k, Long.MAX_VALUE);
+	this.reset();
     }
 
     @Override
@@ -1,22 +1,23 @@
 package lazo.sketch;
 
-import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.stream.LongStream;
 
-import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 
 /**
  * This sketch is an implementation of "Optimal Densification for fast and
  * accurate minwise hashing" Anshumali Shrivastava, ICML'17
+ *
+ * The raw bins are kept apart from their densified version, which is computed
+ * on read and cached until the next update, so the sketch can be updated,
+ * queried and merged any number of times.
  * 
  * @author Raul - raulcf@csail.mit.edu
  */
 
 public class MinHashOptimal implements Sketch {
 
-    private final long mersennePrime = (1 << 61) - 1;
     private final long empty = Long.MAX_VALUE;
 
     private final int random;
@@ -25,12 +26,14 @@ public class MinHashOptimal implements Sketch {
     private int seed;
     private int k;
     private HashFunction hf;
+    private ValueHasher hasher;
     private int logPermutations;
 
-    private long[] a;
-    private long[] b;
+    // raw bins, and the densified copy of them handed out to readers
+    private long[] bins;
     private long[] hashValues;
 
+    // whether hashValues is up to date with bins
     private boolean densified = false;
 
     public MinHashOptimal(int k) {
@@ -40,8 +43,8 @@ public class MinHashOptimal implements Sketch {
 	this.k = k;
 	this.seed = 666;
 	this.hf = SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, this.seed);
-	this.hashValues = SketchUtils.initializeHashValues(k, this.empty);
-	this.initializePermutations();
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.bins = SketchUtils.initializeHashValues(k, this.empty);
 
 	Random rnd = new Random(this.seed);
 	this.random = rnd.nextInt(Integer.MAX_VALUE - 1) + 1;
@@ -56,8 +59,8 @@ public class MinHashOptimal implements Sketch {
 	this.k = k;
 	this.seed = seed;
 	this.hf = SketchUtils.initializeHashFunction(hashFunctionType, this.seed);
-	this.hashValues = SketchUtils.initializeHashValues(k, this.empty);
-	this.initializePermutations();
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.bins = SketchUtils.initializeHashValues(k, this.empty);
 
 	Random rnd = new Random(this.seed);
 	this.random = rnd.nextInt((int) Math.pow(2, 32)) + 1;
@@ -66,17 +69,19 @@ public class MinHashOptimal implements Sketch {
 	this.logPermutations = (int) (Math.log(this.k) / Math.log(2));
     }
 
-    public long getEmptyValue() {
-	return this.empty;
+    private MinHashOptimal(MinHashOptimal template, long[] bins) {
+	this.k = template.k;
+	this.seed = template.seed;
+	this.hf = template.hf;
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.bins = bins;
+	this.random = template.random;
+	this.theHashValue = template.theHashValue;
+	this.logPermutations = template.logPermutations;
     }
 
-    private void initializePermutations() {
-	// FIXME; factorize common to minhash
-	Random gen = new Random(this.seed);
-	LongStream as = gen.longs(k, 1, mersennePrime);
-	LongStream bs = gen.longs(k, 0, mersennePrime);
-	a = as.toArray();
-	b = bs.toArray();
+    public long getEmptyValue() {
+	return this.empty;
     }
 
     @Override
@@ -92,20 +97,73 @@ public class MinHashOptimal implements Sketch {
 	if (value == null) {
 	    throw new IllegalArgumentException("Value cannot be null");
 	}
-	if (densified) {
-	    throw new IllegalStateException("This MinHash has been previously densified; adding new"
-		    + "values post-densification is not well defined. In particular, those values are not"
-		    + "guaranteed to be reflected in the MinHash.");
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
 	}
-	HashCode hc = hf.hashString(value, Charset.defaultCharset());
-	long hv = hc.asLong();
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.hash(buf, off, len));
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	this.updateBin(hv);
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
 
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
+	for (int j = offset; j < offset + length; j++) {
+	    this.updateBin(preHashed[j]);
+	}
+    }
+
+    private void updateBin(long hv) {
 	int bucket = (int) hv % this.k;
 
 	bucket = Math.abs(bucket);
 
-	if (hv < this.hashValues[bucket]) {
-	    this.hashValues[bucket] = hv;
+	if (hv < this.bins[bucket]) {
+	    this.bins[bucket] = hv;
+	    // densified copy is not up to date
+	    this.densified = false;
 	}
     }
 
@@ -118,8 +176,29 @@ public class MinHashOptimal implements Sketch {
 	return (int) newValue;
     }
 
+    /**
+     * Returns the raw (not densified) bins of this sketch. Empty bins hold
+     * getEmptyValue()
+     */
+    public long[] getBins() {
+	return this.bins;
+    }
+
     public void densify() {
+	// a fresh copy, so arrays handed out before are not modified
+	this.hashValues = Arrays.copyOf(this.bins, this.k);
 	this.densified = true;
+	boolean allEmpty = true;
+	for (int i = 0; i < this.bins.length; i++) {
+	    if (this.bins[i] != this.empty) {
+		allEmpty = false;
+		break;
+	    }
+	}
+	if (allEmpty) {
+	    // nothing to borrow from
+	    return;
+	}
 	for (int i = 0; i < this.hashValues.length; i++) {
 	    if (this.hashValues[i] == this.empty) {
 		int nonce = 0;
@@ -136,8 +215,56 @@ public class MinHashOptimal implements Sketch {
 	return SketchUtils.jaccard(this.getHashValues(), other.getHashValues());
     }
 
+    /**
+     * Estimates the number of distinct values from the raw bins. Each bin holds
+     * the minimum of about n / k uniform hashes, so its value, scaled to [0,1),
+     * is exponential with rate n / k, censored at 1 when the bin is empty. This
+     * is the maximum likelihood estimate for that model, corrected by
+     * (k - 1) / k. It degrades to a linear count while most bins are empty.
+     */
+    public long cardinality() {
+	int filled = 0;
+	double sum = 0;
+	for (long hv : bins) {
+	    if (hv == this.empty) {
+		sum += 1;
+	    } else {
+		filled++;
+		// unsigned 64-bit value, in [0,1)
+		sum += ((hv ^ Long.MIN_VALUE) >>> 11) * 0x1.0p-53;
+	    }
+	}
+	if (filled == 0) {
+	    return 0;
+	}
+	return Math.round(filled * (double) Math.max(k - 1, 1) / sum);
+    }
+
+    public MinHashOptimal merge(MinHashOptimal other) {
+	long[] otherBins = other.getBins();
+	if (this.bins.length != otherBins.length) {
+	    throw new IllegalArgumentException("Cannot merge differently-sized MinHash sketches");
+	}
+	// merge the raw bins, densification happens on read
+	long[] mergedBins = new long[k];
+	for (int i = 0; i < k; i++) {
+	    mergedBins[i] = this.bins[i] < otherBins[i] ? this.bins[i] : otherBins[i];
+	}
+	return new MinHashOptimal(this, mergedBins);
+    }
+
+    /**
+     * Empties the bins in place. Densified arrays returned by getHashValues()
+     * before are copies, and are not modified
+     */
+    @Override
+    public void reset() {
+	Arrays.fill(this.bins, this.empty);
+	this.densified = false;
+    }
+
     public void clear() {
-	SketchUtils.initializeHashValues(this.k, this.empty);
+	this.reset();
     }
 
     @Override
@@ -145,7 +272,8 @@ public class MinHashOptimal implements Sketch {
 	if (hashValues.length != this.k) {
 	    throw new IllegalArgumentException("Input array size incompatible with this number of permutations (k)");
 	}
-	this.hashValues = hashValues;
+	this.bins = hashValues;
+	this.densified = false;
     }
 
 }
@@ -0,0 +1,55 @@
+package lazo.sketch;
+
+import java.util.Random;
+
+class MultiplyShiftPermutationFamily extends PermutationFamily {
+
+    private final long[] a;
+    private final long[] b;
+
+    MultiplyShiftPermutationFamily(int k, int seed) {
+	super(k, seed);
+	Random gen = new Random(seed);
+	this.a = new long[k];
+	this.b = new long[k];
+	for (int i = 0; i < k; i++) {
+	    // multipliers must be odd
+	    a[i] = gen.nextLong() | 1;
+	    b[i] = gen.nextLong();
+	}
+    }
+
+    @Override
+    public PermutationFamilyType getType() {
+	return PermutationFamilyType.MULTIPLY_SHIFT;
+    }
+
+    @Override
+    public long permute(int i, long hv) {
+	return (a[i] * hv + b[i]) >>> 3;
+    }
+
+    @Override
+    public void update(long[] minima, int minOffset, long hv) {
+	for (int i = 0; i < k; i++) {
+	    long kHashValue = (a[i] * hv + b[i]) >>> 3;
+	    long min = minima[minOffset + i];
+	    minima[minOffset + i] = min < kHashValue ? min : kHashValue;
+	}
+    }
+
+    @Override
+    public void updateBlock(long[] minima, int minOffset, long[] hashes, int offset, int length) {
+	for (int i = 0; i < k; i++) {
+	    long ai = a[i];
+	    long bi = b[i];
+	    long min = minima[minOffset + i];
+	    for (int j = offset; j < offset + length; j++) {
+		long kHashValue = (ai * hashes[j] + bi) >>> 3;
+		min = min < kHashValue ? min : kHashValue;
+	    }
+	    minima[minOffset + i] = min;
+	}
+    }
+
+}
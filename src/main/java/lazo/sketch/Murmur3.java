@@ -0,0 +1,124 @@
+package lazo.sketch;
+
+/**
+ * Allocation-free x64 128-bit Murmur3. hash64 returns the same value as
+ * Guava's Hashing.murmur3_128(seed).hashBytes(...).asLong(), i.e., the first 64
+ * bits of the 128-bit hash.
+ */
+public class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    @SuppressWarnings("fallthrough")
+    public static long hash64(byte[] buf, int off, int len, int seed) {
+	long h1 = seed;
+	long h2 = seed;
+	int end = off + len;
+	int i = off;
+	// body, 16 bytes at a time
+	for (; i + 16 <= end; i += 16) {
+	    long k1 = getLong(buf, i);
+	    long k2 = getLong(buf, i + 8);
+	    h1 ^= mixK1(k1);
+	    h1 = Long.rotateLeft(h1, 27);
+	    h1 += h2;
+	    h1 = h1 * 5 + 0x52dce729;
+	    h2 ^= mixK2(k2);
+	    h2 = Long.rotateLeft(h2, 31);
+	    h2 += h1;
+	    h2 = h2 * 5 + 0x38495ab5;
+	}
+	// tail
+	long k1 = 0;
+	long k2 = 0;
+	switch (end - i) {
+	case 15:
+	    k2 ^= (long) (buf[i + 14] & 0xff) << 48;
+	    // fall through
+	case 14:
+	    k2 ^= (long) (buf[i + 13] & 0xff) << 40;
+	    // fall through
+	case 13:
+	    k2 ^= (long) (buf[i + 12] & 0xff) << 32;
+	    // fall through
+	case 12:
+	    k2 ^= (long) (buf[i + 11] & 0xff) << 24;
+	    // fall through
+	case 11:
+	    k2 ^= (long) (buf[i + 10] & 0xff) << 16;
+	    // fall through
+	case 10:
+	    k2 ^= (long) (buf[i + 9] & 0xff) << 8;
+	    // fall through
+	case 9:
+	    k2 ^= (long) (buf[i + 8] & 0xff);
+	    // fall through
+	case 8:
+	    k1 ^= getLong(buf, i);
+	    break;
+	case 7:
+	    k1 ^= (long) (buf[i + 6] & 0xff) << 48;
+	    // fall through
+	case 6:
+	    k1 ^= (long) (buf[i + 5] & 0xff) << 40;
+	    // fall through
+	case 5:
+	    k1 ^= (long) (buf[i + 4] & 0xff) << 32;
+	    // fall through
+	case 4:
+	    k1 ^= (long) (buf[i + 3] & 0xff) << 24;
+	    // fall through
+	case 3:
+	    k1 ^= (long) (buf[i + 2] & 0xff) << 16;
+	    // fall through
+	case 2:
+	    k1 ^= (long) (buf[i + 1] & 0xff) << 8;
+	    // fall through
+	case 1:
+	    k1 ^= (long) (buf[i] & 0xff);
+	}
+	h1 ^= mixK1(k1);
+	h2 ^= mixK2(k2);
+	// finalization
+	h1 ^= len;
+	h2 ^= len;
+	h1 += h2;
+	h2 += h1;
+	h1 = fmix64(h1);
+	h2 = fmix64(h2);
+	h1 += h2;
+	return h1;
+    }
+
+    private static long getLong(byte[] buf, int i) {
+	// little endian
+	return (buf[i] & 0xffL) | (buf[i + 1] & 0xffL) << 8 | (buf[i + 2] & 0xffL) << 16
+		| (buf[i + 3] & 0xffL) << 24 | (buf[i + 4] & 0xffL) << 32 | (buf[i + 5] & 0xffL) << 40
+		| (buf[i + 6] & 0xffL) << 48 | (buf[i + 7] & 0xffL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+	k1 *= C1;
+	k1 = Long.rotateLeft(k1, 31);
+	k1 *= C2;
+	return k1;
+    }
+
+    private static long mixK2(long k2) {
+	k2 *= C2;
+	k2 = Long.rotateLeft(k2, 33);
+	k2 *= C1;
+	return k2;
+    }
+
+    public static long fmix64(long k) {
+	k ^= k >>> 33;
+	k *= 0xff51afd7ed558ccdL;
+	k ^= k >>> 33;
+	k *= 0xc4ceb9fe1a85ec53L;
+	k ^= k >>> 33;
+	return k;
+    }
+
+}
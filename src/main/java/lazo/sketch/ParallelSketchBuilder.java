@@ -0,0 +1,270 @@
+package lazo.sketch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Builds a single LazoSketch from a very large column by splitting the values
+ * across a ForkJoinPool. Each task sketches its share into a partial sketch
+ * created by the given factory, and the partial sketches are merged pairwise
+ * as the tasks complete. Because MinHash minima and HyperLogLog registers do
+ * not depend on the order of the updates, the result has the same hash values
+ * and cardinality as a sketch built sequentially with the same factory.
+ */
+public class ParallelSketchBuilder {
+
+    // smallest share of a task, below this forking costs more than it saves
+    private static final int MIN_LEAF_VALUES = 1 << 14;
+    private static final long MIN_LEAF_BYTES = 1 << 20;
+    // tasks per worker, to even out the load
+    private static final int TASKS_PER_THREAD = 4;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final Supplier<LazoSketch> factory;
+    private final ForkJoinPool pool;
+
+    public ParallelSketchBuilder(Supplier<LazoSketch> factory) {
+	this(factory, ForkJoinPool.commonPool());
+    }
+
+    public ParallelSketchBuilder(Supplier<LazoSketch> factory, ForkJoinPool pool) {
+	if (factory == null || pool == null) {
+	    throw new IllegalArgumentException("Factory and pool cannot be null");
+	}
+	this.factory = factory;
+	this.pool = pool;
+    }
+
+    private long leafSize(long total, long minimum) {
+	return Math.max(minimum, total / ((long) pool.getParallelism() * TASKS_PER_THREAD));
+    }
+
+    public LazoSketch build(String[] values) {
+	int leaf = (int) leafSize(values.length, MIN_LEAF_VALUES);
+	return pool.invoke(new RangeTask(0, values.length, leaf,
+		(sketch, from, to) -> sketch.updateAll(Arrays.asList(values).subList((int) from, (int) to))));
+    }
+
+    /**
+     * Sketches the values as if each had been added with update(long)
+     */
+    public LazoSketch build(long[] values) {
+	int leaf = (int) leafSize(values.length, MIN_LEAF_VALUES);
+	return pool.invoke(new RangeTask(0, values.length, leaf, (sketch, from, to) -> {
+	    for (int i = (int) from; i < to; i++) {
+		sketch.update(values[i]);
+	    }
+	}));
+    }
+
+    /**
+     * Sketches values that are already hashed with the sketch hash function,
+     * as updateAll(long[]) does
+     */
+    public LazoSketch buildHashed(long[] preHashed) {
+	int leaf = (int) leafSize(preHashed.length, MIN_LEAF_VALUES);
+	return pool.invoke(new RangeTask(0, preHashed.length, leaf,
+		(sketch, from, to) -> sketch.updateAll(preHashed, (int) from, (int) (to - from))));
+    }
+
+    /**
+     * Sketches the values of a spliterator, splitting it with trySplit. Works
+     * best with spliterators that split evenly, e.g., those of arrays and
+     * ArrayLists.
+     */
+    public LazoSketch build(Spliterator<? extends CharSequence> values) {
+	long size = values.estimateSize();
+	long leaf = size == Long.MAX_VALUE ? MIN_LEAF_VALUES : leafSize(size, MIN_LEAF_VALUES);
+	return pool.invoke(new SpliteratorTask(values, leaf));
+    }
+
+    /**
+     * Sketches a file with one value per line. Lines end with '\n', optionally
+     * preceded by '\r', and are hashed as update(byte[], int, int) does, i.e.,
+     * the file is expected to be in the platform default charset. Every line
+     * is a value, including empty ones, except for the empty string after a
+     * trailing newline.
+     */
+    public LazoSketch build(Path file) throws IOException {
+	try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+	    long size = channel.size();
+	    long leaf = leafSize(size, MIN_LEAF_BYTES);
+	    try {
+		return pool.invoke(new RangeTask(0, size, leaf,
+			(sketch, from, to) -> sketchLines(channel, sketch, from, to)));
+	    } catch (UncheckedIOException e) {
+		throw e.getCause();
+	    }
+	}
+    }
+
+    /**
+     * Sketches the lines that start in [from, to)
+     */
+    private static void sketchLines(FileChannel channel, LazoSketch sketch, long from, long to)
+	    throws IOException {
+	byte[] buf = new byte[READ_BUFFER_SIZE];
+	long position = from;
+	if (from > 0) {
+	    // the line that starts before from belongs to the previous range
+	    position = from - 1;
+	}
+	boolean skipping = from > 0;
+	// buf[0, limit) holds the file from bufStart
+	long bufStart = position;
+	int limit = 0;
+	int lineStart = 0;
+	int scan = 0;
+	boolean eof = false;
+	while (true) {
+	    if (scan == limit) {
+		if (eof) {
+		    break;
+		}
+		if (skipping) {
+		    // no need to keep a line that belongs to the previous range
+		    lineStart = scan;
+		}
+		// keep the partial line, growing the buffer if it fills it
+		if (lineStart == 0 && limit == buf.length) {
+		    buf = Arrays.copyOf(buf, buf.length * 2);
+		} else {
+		    System.arraycopy(buf, lineStart, buf, 0, limit - lineStart);
+		    bufStart += lineStart;
+		    scan -= lineStart;
+		    limit -= lineStart;
+		    lineStart = 0;
+		}
+		int read = channel.read(ByteBuffer.wrap(buf, limit, buf.length - limit), bufStart + limit);
+		if (read < 0) {
+		    eof = true;
+		    continue;
+		}
+		limit += read;
+		continue;
+	    }
+	    if (buf[scan] == '\n') {
+		if (skipping) {
+		    skipping = false;
+		} else {
+		    int end = scan;
+		    if (end > lineStart && buf[end - 1] == '\r') {
+			end--;
+		    }
+		    sketch.update(buf, lineStart, end - lineStart);
+		}
+		lineStart = scan + 1;
+		if (bufStart + lineStart >= to) {
+		    // next line belongs to the next range
+		    return;
+		}
+	    }
+	    scan++;
+	}
+	// last line, not terminated by a newline
+	if (!skipping && lineStart < limit) {
+	    int end = limit;
+	    if (buf[end - 1] == '\r') {
+		end--;
+	    }
+	    sketch.update(buf, lineStart, end - lineStart);
+	}
+    }
+
+    private LazoSketch merge(List<LazoSketch> partials, int from, int to) {
+	if (to - from == 1) {
+	    return partials.get(from);
+	}
+	int mid = (from + to) >>> 1;
+	return merge(partials, from, mid).merge(merge(partials, mid, to));
+    }
+
+    private interface RangeSketcher {
+
+	void sketch(LazoSketch sketch, long from, long to) throws IOException;
+    }
+
+    /**
+     * Splits [from, to) in halves until it is at most leaf long
+     */
+    private class RangeTask extends RecursiveTask<LazoSketch> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long from;
+	private final long to;
+	private final long leaf;
+	private final RangeSketcher sketcher;
+
+	RangeTask(long from, long to, long leaf, RangeSketcher sketcher) {
+	    this.from = from;
+	    this.to = to;
+	    this.leaf = leaf;
+	    this.sketcher = sketcher;
+	}
+
+	@Override
+	protected LazoSketch compute() {
+	    if (to - from <= leaf) {
+		LazoSketch sketch = factory.get();
+		try {
+		    sketcher.sketch(sketch, from, to);
+		} catch (IOException e) {
+		    throw new UncheckedIOException(e);
+		}
+		return sketch;
+	    }
+	    long mid = (from + to) >>> 1;
+	    RangeTask left = new RangeTask(from, mid, leaf, sketcher);
+	    RangeTask right = new RangeTask(mid, to, leaf, sketcher);
+	    left.fork();
+	    LazoSketch rightSketch = right.compute();
+	    return left.join().merge(rightSketch);
+	}
+    }
+
+    private class SpliteratorTask extends RecursiveTask<LazoSketch> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Spliterator<? extends CharSequence> values;
+	private final long leaf;
+
+	SpliteratorTask(Spliterator<? extends CharSequence> values, long leaf) {
+	    this.values = values;
+	    this.leaf = leaf;
+	}
+
+	@Override
+	protected LazoSketch compute() {
+	    List<SpliteratorTask> forked = new ArrayList<>();
+	    Spliterator<? extends CharSequence> prefix;
+	    while (values.estimateSize() > leaf && (prefix = values.trySplit()) != null) {
+		SpliteratorTask task = new SpliteratorTask(prefix, leaf);
+		task.fork();
+		forked.add(task);
+	    }
+	    LazoSketch sketch = factory.get();
+	    values.forEachRemaining(v -> sketch.update(v));
+	    // prefixes come before the remainder, keep that order in the merge
+	    List<LazoSketch> partials = new ArrayList<>();
+	    for (SpliteratorTask task : forked) {
+		partials.add(task.join());
+	    }
+	    partials.add(sketch);
+	    return merge(partials, 0, partials.size());
+	}
+    }
+
+}
@@ -0,0 +1,44 @@
+package lazo.sketch;
+
+/**
+ * A family of k hash functions that simulate the permutations of MinHash.
+ * Instances are immutable and can be shared among sketches.
+ */
+public abstract class PermutationFamily {
+
+    protected final int k;
+    protected final int seed;
+
+    protected PermutationFamily(int k, int seed) {
+	this.k = k;
+	this.seed = seed;
+    }
+
+    public int getK() {
+	return k;
+    }
+
+    public int getSeed() {
+	return seed;
+    }
+
+    public abstract PermutationFamilyType getType();
+
+    /**
+     * Applies the i-th permutation to a value hash
+     */
+    public abstract long permute(int i, long hv);
+
+    /**
+     * Updates minima[minOffset..minOffset+k) with one value hash
+     */
+    public abstract void update(long[] minima, int minOffset, long hv);
+
+    /**
+     * Updates minima[minOffset..minOffset+k) with a block of value hashes.
+     * Each permutation is swept over the whole block, so its coefficients and
+     * the running minimum stay in registers.
+     */
+    public abstract void updateBlock(long[] minima, int minOffset, long[] hashes, int offset, int length);
+
+}
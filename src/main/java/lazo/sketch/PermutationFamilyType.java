@@ -0,0 +1,33 @@
+package lazo.sketch;
+
+/**
+ * Families of hash functions used to simulate the k permutations of MinHash.
+ * All families map a 64-bit value hash to [0, 2^61).
+ */
+public enum PermutationFamilyType {
+
+    /**
+     * (a * h + b) mod (2^61 - 1), with the modulo done with shifts and adds
+     * instead of a division. Produces exactly the same values as the original
+     * Math.floorMod implementation, so sketches stay compatible. One multiply
+     * and a handful of adds per permutation. Default.
+     */
+    MERSENNE,
+
+    /**
+     * (a * h + b) >>> 3 with a odd, i.e., multiply-add-shift. The cheapest
+     * family: one multiply, one add and one shift per permutation. It is only
+     * approximately universal on 64-bit keys, so with many small or structured
+     * inputs the Jaccard estimates carry a slightly higher bias than MERSENNE.
+     */
+    MULTIPLY_SHIFT,
+
+    /**
+     * fmix64(h ^ s) >>> 3, the Murmur3 xor-shift-multiply finalizer applied to
+     * the value hash xor-ed with a per-permutation seed. Full avalanche, so the
+     * permutations are closest to independent, at the cost of two multiplies
+     * and three xor-shifts per permutation; the slowest of the three.
+     */
+    XOR_SHIFT
+
+}
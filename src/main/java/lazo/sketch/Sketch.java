@@ -4,8 +4,52 @@ public interface Sketch {
 
     public void update(String s);
 
+    /**
+     * Overloads of update that produce the same hash as update(String) for the
+     * String form of the value, without allocating per call. The byte range is
+     * expected to hold the value encoded in the platform default charset.
+     */
+    public void update(CharSequence s);
+
+    public void update(long value);
+
+    public void update(int value);
+
+    public void update(double value);
+
+    public void update(byte[] buf, int off, int len);
+
+    /**
+     * Updates the sketch with a value that has already been hashed with the
+     * sketch hash function
+     */
+    public void updateHashed(long hashValue);
+
+    /**
+     * Batch versions of update. Values are hashed in blocks first, and then
+     * each block is swept through the permutations at once.
+     */
+    public void updateAll(String[] values);
+
+    public void updateAll(Iterable<? extends CharSequence> values);
+
+    public void updateAll(long[] preHashed);
+
+    public void updateAll(long[] preHashed, int offset, int length);
+
     public long[] getHashValues();
 
+    /**
+     * Sets the sketch from its hash values. Sketches that need more state than
+     * the hash values to take later updates, such as weighted, deletable or
+     * windowed ones, throw UnsupportedOperationException.
+     */
     public void setHashValues(long[] hashValues);
 
+    /**
+     * Empties the sketch in place, so that the same object can sketch another
+     * set without allocating, see SketchPool
+     */
+    public void reset();
+
 }
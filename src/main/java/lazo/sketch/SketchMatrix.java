@@ -0,0 +1,306 @@
+package lazo.sketch;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * N sketches of the same k stored row-major in one long[], for brute-force
+ * passes that compare a query sketch against all of them (re-ranking, exact
+ * all-pairs checks). Rows are scanned sequentially, with an integer count of
+ * matching slots, so a scan runs close to the speed at which memory can be
+ * read. Large scans are split in blocks of rows across a ForkJoinPool.
+ *
+ * The estimates are the same as SketchUtils.jaccard of the row and the query.
+ */
+public class SketchMatrix {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // smallest block of a parallel scan, in longs (2MB)
+    private static final int MIN_LEAF_LONGS = 1 << 18;
+    // blocks per worker, to even out the load
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final int k;
+    private final ForkJoinPool pool;
+    private long[] data;
+    private int rows;
+
+    public SketchMatrix(int k) {
+	this(k, INITIAL_CAPACITY, ForkJoinPool.commonPool());
+    }
+
+    public SketchMatrix(int k, int initialCapacity, ForkJoinPool pool) {
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	if (initialCapacity < 0) {
+	    throw new IllegalArgumentException("Capacity cannot be negative");
+	}
+	if (pool == null) {
+	    throw new IllegalArgumentException("Pool cannot be null");
+	}
+	this.k = k;
+	this.pool = pool;
+	this.data = new long[initialCapacity * k];
+    }
+
+    public int getK() {
+	return k;
+    }
+
+    public int size() {
+	return rows;
+    }
+
+    /**
+     * Appends the hash values of a sketch, and returns the index of its row
+     */
+    public int add(long[] hashValues) {
+	this.checkLength(hashValues);
+	if ((rows + 1) * k > data.length) {
+	    data = Arrays.copyOf(data, Math.max(2 * data.length, (rows + 1) * k));
+	}
+	System.arraycopy(hashValues, 0, data, rows * k, k);
+	return rows++;
+    }
+
+    public int add(Sketch sketch) {
+	return this.add(sketch.getHashValues());
+    }
+
+    public void set(int row, long[] hashValues) {
+	this.checkRow(row);
+	this.checkLength(hashValues);
+	System.arraycopy(hashValues, 0, data, row * k, k);
+    }
+
+    public long[] getRow(int row) {
+	this.checkRow(row);
+	return Arrays.copyOfRange(data, row * k, (row + 1) * k);
+    }
+
+    private void checkRow(int row) {
+	if (row < 0 || row >= rows) {
+	    throw new IllegalArgumentException("Row out of range: " + row);
+	}
+    }
+
+    private void checkLength(long[] hashValues) {
+	if (hashValues.length != k) {
+	    throw new IllegalArgumentException("Input array size incompatible with this number of permutations (k)");
+	}
+    }
+
+    /**
+     * Number of slots of row equal to query
+     */
+    private int matches(int row, long[] query) {
+	long[] data = this.data;
+	int base = row * k;
+	// independent counters, so the JIT can overlap iterations
+	int h0 = 0, h1 = 0, h2 = 0, h3 = 0;
+	int i = 0;
+	for (; i + 3 < k; i += 4) {
+	    h0 += data[base + i] == query[i] ? 1 : 0;
+	    h1 += data[base + i + 1] == query[i + 1] ? 1 : 0;
+	    h2 += data[base + i + 2] == query[i + 2] ? 1 : 0;
+	    h3 += data[base + i + 3] == query[i + 3] ? 1 : 0;
+	}
+	for (; i < k; i++) {
+	    h0 += data[base + i] == query[i] ? 1 : 0;
+	}
+	return h0 + h1 + h2 + h3;
+    }
+
+    public float jaccard(int row, long[] query) {
+	this.checkRow(row);
+	this.checkLength(query);
+	return (float) this.matches(row, query) / k;
+    }
+
+    /**
+     * Writes the Jaccard similarity of query and each row in out[0..size())
+     */
+    public void jaccardAll(long[] query, float[] out) {
+	this.checkLength(query);
+	if (out.length < rows) {
+	    throw new IllegalArgumentException("Output array has fewer than size() elements");
+	}
+	int leaf = this.leafRows();
+	if (leaf >= rows) {
+	    this.jaccardRange(query, out, 0, rows);
+	} else {
+	    pool.invoke(new JaccardTask(query, out, 0, rows, leaf));
+	}
+    }
+
+    private void jaccardRange(long[] query, float[] out, int from, int to) {
+	for (int row = from; row < to; row++) {
+	    out[row] = (float) this.matches(row, query) / k;
+	}
+    }
+
+    /**
+     * The n rows most similar to query, most similar first. Ties go to the
+     * lower row.
+     */
+    public int[] topK(long[] query, int n) {
+	this.checkLength(query);
+	if (n < 0) {
+	    throw new IllegalArgumentException("n cannot be negative");
+	}
+	n = Math.min(n, rows);
+	if (n == 0) {
+	    return new int[0];
+	}
+	int leaf = this.leafRows();
+	TopK top = leaf >= rows ? this.topKRange(query, n, 0, rows)
+		: pool.invoke(new TopKTask(query, n, 0, rows, leaf));
+	return top.sortedRows();
+    }
+
+    private TopK topKRange(long[] query, int n, int from, int to) {
+	TopK top = new TopK(n);
+	for (int row = from; row < to; row++) {
+	    top.offer(this.matches(row, query), row);
+	}
+	return top;
+    }
+
+    private int leafRows() {
+	long perThread = (long) rows / ((long) pool.getParallelism() * TASKS_PER_THREAD);
+	return (int) Math.max(Math.max(1, MIN_LEAF_LONGS / k), perThread);
+    }
+
+    private class JaccardTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long[] query;
+	private final float[] out;
+	private final int from;
+	private final int to;
+	private final int leaf;
+
+	JaccardTask(long[] query, float[] out, int from, int to, int leaf) {
+	    this.query = query;
+	    this.out = out;
+	    this.from = from;
+	    this.to = to;
+	    this.leaf = leaf;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from <= leaf) {
+		jaccardRange(query, out, from, to);
+		return;
+	    }
+	    int mid = (from + to) >>> 1;
+	    invokeAll(new JaccardTask(query, out, from, mid, leaf), new JaccardTask(query, out, mid, to, leaf));
+	}
+    }
+
+    private class TopKTask extends RecursiveTask<TopK> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long[] query;
+	private final int n;
+	private final int from;
+	private final int to;
+	private final int leaf;
+
+	TopKTask(long[] query, int n, int from, int to, int leaf) {
+	    this.query = query;
+	    this.n = n;
+	    this.from = from;
+	    this.to = to;
+	    this.leaf = leaf;
+	}
+
+	@Override
+	protected TopK compute() {
+	    if (to - from <= leaf) {
+		return topKRange(query, n, from, to);
+	    }
+	    int mid = (from + to) >>> 1;
+	    TopKTask left = new TopKTask(query, n, from, mid, leaf);
+	    left.fork();
+	    TopK right = new TopKTask(query, n, mid, to, leaf).compute();
+	    return left.join().addAll(right);
+	}
+    }
+
+    /**
+     * Bounded min-heap of (matches, row) packed in longs: matches in the high
+     * half, and the row inverted in the low half, so that on equal matches the
+     * lower row ranks higher
+     */
+    private static final class TopK {
+
+	private final long[] heap;
+	private int size;
+
+	TopK(int n) {
+	    this.heap = new long[n];
+	}
+
+	void offer(int matches, int row) {
+	    this.offer(((long) matches << 32) | (Integer.MAX_VALUE - row));
+	}
+
+	private void offer(long entry) {
+	    if (size < heap.length) {
+		int i = size++;
+		while (i > 0) {
+		    int parent = (i - 1) >>> 1;
+		    if (heap[parent] <= entry) {
+			break;
+		    }
+		    heap[i] = heap[parent];
+		    i = parent;
+		}
+		heap[i] = entry;
+	    } else if (entry > heap[0]) {
+		// replace the weakest, and sift it down
+		int i = 0;
+		while (true) {
+		    int child = 2 * i + 1;
+		    if (child >= size) {
+			break;
+		    }
+		    if (child + 1 < size && heap[child + 1] < heap[child]) {
+			child++;
+		    }
+		    if (heap[child] >= entry) {
+			break;
+		    }
+		    heap[i] = heap[child];
+		    i = child;
+		}
+		heap[i] = entry;
+	    }
+	}
+
+	TopK addAll(TopK other) {
+	    for (int i = 0; i < other.size; i++) {
+		this.offer(other.heap[i]);
+	    }
+	    return this;
+	}
+
+	int[] sortedRows() {
+	    long[] entries = Arrays.copyOf(heap, size);
+	    Arrays.sort(entries);
+	    int[] result = new int[size];
+	    for (int i = 0; i < size; i++) {
+		result[i] = Integer.MAX_VALUE - (int) entries[size - 1 - i];
+	    }
+	    return result;
+	}
+    }
+
+}
@@ -0,0 +1,86 @@
+package lazo.sketch;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Per-thread pool of sketches for ingestion loops that sketch one column at a
+ * time, so that each column reuses the hash value arrays, permutations and
+ * cardinality estimator of a previous one instead of allocating them:
+ *
+ * <pre>
+ * SketchPool&lt;LazoSketch&gt; pool = new SketchPool&lt;&gt;(() -&gt; new LazoSketch(k));
+ * LazoSketch sketch = pool.acquire();
+ * try {
+ *     sketch.updateAll(values);
+ *     index.insert(key, sketch);
+ * } finally {
+ *     pool.release(sketch);
+ * }
+ * </pre>
+ *
+ * Released sketches are reset, so neither the sketch nor the arrays obtained
+ * from it can be used after release; LazoIndex copies what it keeps. Each
+ * thread has its own idle sketches, so acquire and release do not synchronize.
+ * A sketch released by another thread joins that thread's pool.
+ */
+public class SketchPool<T extends Sketch> {
+
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    private final Supplier<T> factory;
+    private final int maxIdle;
+    private final ThreadLocal<ArrayDeque<T>> idle = ThreadLocal.withInitial(ArrayDeque::new);
+
+    public SketchPool(Supplier<T> factory) {
+	this(factory, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * A pool that creates sketches with factory, and keeps at most maxIdle
+     * released sketches per thread
+     */
+    public SketchPool(Supplier<T> factory, int maxIdle) {
+	if (maxIdle < 0) {
+	    throw new IllegalArgumentException("The number of idle sketches cannot be negative");
+	}
+	this.factory = factory;
+	this.maxIdle = maxIdle;
+    }
+
+    /**
+     * An empty sketch, reused if this thread released one before
+     */
+    public T acquire() {
+	T sketch = idle.get().pollLast();
+	return sketch != null ? sketch : factory.get();
+    }
+
+    /**
+     * Resets the sketch and keeps it for the next acquire of this thread, or
+     * drops it if the thread already has maxIdle idle sketches
+     */
+    public void release(T sketch) {
+	if (sketch == null) {
+	    throw new IllegalArgumentException("Sketch cannot be null");
+	}
+	ArrayDeque<T> sketches = idle.get();
+	for (T s : sketches) {
+	    if (s == sketch) {
+		throw new IllegalArgumentException("Sketch has already been released");
+	    }
+	}
+	sketch.reset();
+	if (sketches.size() < maxIdle) {
+	    sketches.addLast(sketch);
+	}
+    }
+
+    /**
+     * Number of idle sketches of the calling thread
+     */
+    public int getIdleCount() {
+	return idle.get().size();
+    }
+
+}
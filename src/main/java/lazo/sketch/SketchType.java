@@ -1,6 +1,6 @@
 package lazo.sketch;
 
 public enum SketchType {
-    MINHASH, MINHASH_OPTIMAL, LAZO
+    MINHASH, MINHASH_OPTIMAL, LAZO, WEIGHTED_MINHASH
 
 }
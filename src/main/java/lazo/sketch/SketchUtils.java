@@ -1,23 +1,40 @@
 package lazo.sketch;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 
 public class SketchUtils {
 
+    // number of values hashed before sweeping the permutations
+    public static final int BLOCK_SIZE = 256;
+
+    // permutation families are immutable, so all sketches with the same
+    // (family, k, seed) share one instance, indexed by (k << 32 | seed)
+    private static final Map<PermutationFamilyType, Map<Long, PermutationFamily>> permutationFamilies = new EnumMap<>(
+	    PermutationFamilyType.class);
+    static {
+	for (PermutationFamilyType pft : PermutationFamilyType.values()) {
+	    permutationFamilies.put(pft, new ConcurrentHashMap<>());
+	}
+    }
+
     public static float jaccard(long[] one, long[] other) {
 	if (one.length != other.length) {
 	    throw new IllegalArgumentException("Cannot compute Jaccard of differently-sized MinHash sketches");
 	}
-	float k = one.length;
-	float hits = 0;
-	for (int i = 0; i < k; i++) {
-	    if (one[i] == other[i])
-		hits++;
+	// branch-free integer count: mismatches do not cost a mispredicted branch
+	// and there is no float dependency chain, so the JIT can unroll freely
+	int hits = 0;
+	for (int i = 0; i < one.length; i++) {
+	    hits += one[i] == other[i] ? 1 : 0;
 	}
-	float js = hits / k;
+	float js = (float) hits / one.length;
 	return js;
     }
 
@@ -26,14 +43,109 @@ public class SketchUtils {
 	switch (hft) {
 	case MURMUR3:
 	    hf = Hashing.murmur3_128(seed);
+	    break;
+	case XXH64:
+	    hf = ByteHashFunction.xxh64(seed);
+	    break;
+	case WYHASH:
+	    hf = ByteHashFunction.wyhash(seed);
+	    break;
 	}
 	return hf;
     }
 
+    public static PermutationFamily initializePermutationFamily(PermutationFamilyType pft, int k, int seed) {
+	long key = ((long) k << 32) | (seed & 0xffffffffL);
+	return permutationFamilies.get(pft).computeIfAbsent(key, x -> createPermutationFamily(pft, k, seed));
+    }
+
+    private static PermutationFamily createPermutationFamily(PermutationFamilyType pft, int k, int seed) {
+	PermutationFamily pf = null;
+	switch (pft) {
+	case MERSENNE:
+	    pf = new MersennePermutationFamily(k, seed);
+	    break;
+	case MULTIPLY_SHIFT:
+	    pf = new MultiplyShiftPermutationFamily(k, seed);
+	    break;
+	case XOR_SHIFT:
+	    pf = new XorShiftPermutationFamily(k, seed);
+	    break;
+	}
+	return pf;
+    }
+
     public static long[] initializeHashValues(int k, long fillValue) {
 	long[] hashValues = new long[k];
 	Arrays.fill(hashValues, fillValue);
 	return hashValues;
     }
 
+    public static void hashAll(Sketch sketch, ValueHasher hasher, String[] values) {
+	long[] block = new long[Math.min(BLOCK_SIZE, values.length)];
+	int length = 0;
+	for (String value : values) {
+	    if (value == null) {
+		throw new IllegalArgumentException("Value cannot be null");
+	    }
+	    block[length++] = hasher.hash(value);
+	    if (length == block.length) {
+		sketch.updateAll(block, 0, length);
+		length = 0;
+	    }
+	}
+	if (length > 0) {
+	    sketch.updateAll(block, 0, length);
+	}
+    }
+
+    public static void hashAll(Sketch sketch, ValueHasher hasher, Iterable<? extends CharSequence> values) {
+	long[] block = new long[BLOCK_SIZE];
+	int length = 0;
+	for (CharSequence value : values) {
+	    if (value == null) {
+		throw new IllegalArgumentException("Value cannot be null");
+	    }
+	    block[length++] = hasher.hash(value);
+	    if (length == block.length) {
+		sketch.updateAll(block, 0, length);
+		length = 0;
+	    }
+	}
+	if (length > 0) {
+	    sketch.updateAll(block, 0, length);
+	}
+    }
+
+    /**
+     * Unsigned LEB128 varints, 7 bits per byte
+     */
+    public static void writeVarInt(ByteBuffer out, int value) {
+	while ((value & ~0x7f) != 0) {
+	    out.put((byte) ((value & 0x7f) | 0x80));
+	    value >>>= 7;
+	}
+	out.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+	int value = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = in.get();
+	    value |= (b & 0x7f) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	return value;
+    }
+
+    public static int varIntSize(int value) {
+	int size = 1;
+	while ((value & ~0x7f) != 0) {
+	    size++;
+	    value >>>= 7;
+	}
+	return size;
+    }
 }
@@ -0,0 +1,190 @@
+package lazo.sketch;
+
+import java.util.Arrays;
+
+/**
+ * Sketches all the columns of a table at once, row by row. The MinHash minima
+ * of all columns live in one contiguous long[columns * k], column after
+ * column, instead of one LazoSketch object per column. Each row is hashed into
+ * a small buffer of pending hashes per column and, every ROW_BLOCK rows, each
+ * column's block is swept through the permutations over that column's k
+ * minima (see PermutationFamily.updateBlock), so wide tables are sketched
+ * with sequential memory access rather than a jump to another object per
+ * cell.
+ *
+ * The cardinality of each column is estimated with a CompactHyperLogLog,
+ * whose registers are packed (sparse while the column is small), or from the
+ * MinHash values with CardinalityType.MINHASH. getSketches() returns standard
+ * MINHASH LazoSketches, with the same hash values and cardinality as sketching
+ * each column on its own with the same parameters. Null cells are skipped.
+ */
+public class TableSketcher {
+
+    private static final int SEED = 666;
+    // rows buffered before the permutations are applied, small enough for
+    // the buffer of a wide table to stay in cache
+    private static final int ROW_BLOCK = 64;
+
+    private final int columns;
+    private final int k;
+    private final PermutationFamilyType permutationFamilyType;
+    private final PermutationFamily permutations;
+    private final ValueHasher hasher = new ValueHasher(
+	    SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, SEED), SEED);
+
+    // minima of column c in [c * k, (c + 1) * k)
+    private final long[] minima;
+    // pending hashes of column c in [c * ROW_BLOCK, c * ROW_BLOCK + pending[c])
+    private final long[] block;
+    private final int[] pending;
+    private int pendingRows;
+    // null with CardinalityType.MINHASH
+    private final CompactHyperLogLog[] estimators;
+
+    public TableSketcher(int columns, int k) {
+	this(columns, k, PermutationFamilyType.MERSENNE, CardinalityType.HYPERLOGLOG,
+		CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    public TableSketcher(int columns, int k, PermutationFamilyType permutationFamilyType) {
+	this(columns, k, permutationFamilyType, CardinalityType.HYPERLOGLOG, CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * See LazoSketch(int, SketchType, int)
+     */
+    public TableSketcher(int columns, int k, int cardinalityPrecision) {
+	this(columns, k, PermutationFamilyType.MERSENNE, CardinalityType.HYPERLOGLOG, cardinalityPrecision);
+    }
+
+    /**
+     * See LazoSketch(int, SketchType, CardinalityType)
+     */
+    public TableSketcher(int columns, int k, CardinalityType cardinalityType) {
+	this(columns, k, PermutationFamilyType.MERSENNE, cardinalityType, CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    private TableSketcher(int columns, int k, PermutationFamilyType permutationFamilyType,
+	    CardinalityType cardinalityType, int cardinalityPrecision) {
+	if (columns <= 0) {
+	    throw new IllegalArgumentException("The number of columns must be positive (> 0)");
+	}
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	this.columns = columns;
+	this.k = k;
+	this.permutationFamilyType = permutationFamilyType;
+	this.permutations = SketchUtils.initializePermutationFamily(permutationFamilyType, k, SEED);
+	this.minima = SketchUtils.initializeHashValues(columns * k, Long.MAX_VALUE);
+	this.block = new long[columns * ROW_BLOCK];
+	this.pending = new int[columns];
+	if (cardinalityType == CardinalityType.HYPERLOGLOG) {
+	    this.estimators = new CompactHyperLogLog[columns];
+	    for (int c = 0; c < columns; c++) {
+		this.estimators[c] = new CompactHyperLogLog(cardinalityPrecision);
+	    }
+	} else {
+	    this.estimators = null;
+	}
+    }
+
+    public int getColumns() {
+	return columns;
+    }
+
+    public int getK() {
+	return k;
+    }
+
+    public void updateRow(CharSequence[] row) {
+	this.checkRow(row.length);
+	for (int c = 0; c < columns; c++) {
+	    if (row[c] != null) {
+		this.add(c, hasher.hash(row[c]));
+	    }
+	}
+	this.endRow();
+    }
+
+    /**
+     * Cells are the values encoded in the platform default charset, as in
+     * Sketch.update(byte[], int, int)
+     */
+    public void updateRow(byte[][] cells) {
+	this.checkRow(cells.length);
+	for (int c = 0; c < columns; c++) {
+	    if (cells[c] != null) {
+		this.add(c, hasher.hash(cells[c], 0, cells[c].length));
+	    }
+	}
+	this.endRow();
+    }
+
+    private void checkRow(int length) {
+	if (length != columns) {
+	    throw new IllegalArgumentException("Row has " + length + " cells, expected " + columns);
+	}
+    }
+
+    private void add(int column, long hv) {
+	block[column * ROW_BLOCK + pending[column]++] = hv;
+	if (estimators != null) {
+	    estimators[column].offerHashed(hv);
+	}
+    }
+
+    private void endRow() {
+	if (++pendingRows == ROW_BLOCK) {
+	    this.flush();
+	}
+    }
+
+    private void flush() {
+	for (int c = 0; c < columns; c++) {
+	    if (pending[c] > 0) {
+		permutations.updateBlock(minima, c * k, block, c * ROW_BLOCK, pending[c]);
+		pending[c] = 0;
+	    }
+	}
+	pendingRows = 0;
+    }
+
+    /**
+     * The sketch of a column. It is a copy, so the sketcher can keep going.
+     */
+    public LazoSketch getSketch(int column) {
+	if (column < 0 || column >= columns) {
+	    throw new IllegalArgumentException("Column out of range: " + column);
+	}
+	this.flush();
+	LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH, permutationFamilyType,
+		estimators == null ? null : estimators[column].copy());
+	sketch.setHashValues(Arrays.copyOfRange(minima, column * k, (column + 1) * k));
+	return sketch;
+    }
+
+    public LazoSketch[] getSketches() {
+	LazoSketch[] sketches = new LazoSketch[columns];
+	for (int c = 0; c < columns; c++) {
+	    sketches[c] = this.getSketch(c);
+	}
+	return sketches;
+    }
+
+    /**
+     * Empties all columns, to sketch another table with the same number of
+     * columns
+     */
+    public void reset() {
+	Arrays.fill(minima, Long.MAX_VALUE);
+	Arrays.fill(pending, 0);
+	pendingRows = 0;
+	if (estimators != null) {
+	    for (CompactHyperLogLog estimator : estimators) {
+		estimator.reset();
+	    }
+	}
+    }
+
+}
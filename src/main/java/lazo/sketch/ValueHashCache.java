@@ -0,0 +1,261 @@
+package lazo.sketch;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.hash.HashFunction;
+
+/**
+ * Bounded, concurrent cache of String value -> 64-bit hash, for values that
+ * repeat across many columns (codes, dates, status strings). It is opt-in: once
+ * installed with setGlobal (or enable), every ValueHasher using the same hash
+ * function consults it, i.e., MinHash, MinHashOptimal, WeightedMinHash,
+ * LazoSketch and NGramSignature, and a hot value is hashed once per process.
+ *
+ * The table is direct-mapped: each value can only live in one slot, so a
+ * lookup is one array read and one String.equals. A value that misses is only
+ * admitted if it has been seen more often than the value it would replace,
+ * according to a small count-min sketch of 4-bit counters, 16 per slot, that
+ * are halved periodically (TinyLFU), so one-off values do not flush the hot
+ * ones.
+ * Counters are updated without synchronization, lost increments only make the
+ * frequencies slightly less precise.
+ *
+ * A lookup costs a String.hashCode and a String.equals, and touches memory
+ * that is usually not in the CPU caches, so it only pays off for values that
+ * are expensive to hash: long values, and any value when the default charset
+ * is not UTF-8 (ValueHasher then goes through String.getBytes). Values shorter
+ * than getMinLength() bypass the cache; the default, 64 chars, is about where
+ * a hit becomes cheaper than hashing in place (see
+ * lazo.benchmark.ValueHashCacheSpeed). Use getHitRate() to size the cache.
+ */
+public class ValueHashCache {
+
+    private static volatile ValueHashCache global;
+
+    public static final int DEFAULT_MIN_LENGTH = 64;
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int MAX_FREQUENCY = 15;
+    // 4-bit counters per long
+    private static final int COUNTERS_PER_WORD = 16;
+    // counters are halved after this many increments per cache slot
+    private static final int SAMPLE_FACTOR = 10;
+
+    private final HashFunction hf;
+    private final int minLength;
+    private final int mask;
+    private final AtomicReferenceArray<Entry> table;
+
+    // count-min sketch of value frequencies, 4-bit counters packed in longs
+    private final long[] frequencies;
+    private final int frequencyMask;
+    private final int sampleSize;
+    // racy, an approximate count is enough to know when to age
+    private int additions;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+
+    static final class Entry {
+	final String value;
+	// value.hashCode(), checked before touching value
+	final int valueHashCode;
+	final long hash;
+
+	Entry(String value, int valueHashCode, long hash) {
+	    this.value = value;
+	    this.valueHashCode = valueHashCode;
+	    this.hash = hash;
+	}
+    }
+
+    public ValueHashCache(HashFunction hf, int capacity) {
+	this(hf, capacity, DEFAULT_MIN_LENGTH);
+    }
+
+    /**
+     * A cache for hashes computed with hf, with room for capacity values
+     * (rounded up to a power of 2), of values of at least minLength chars
+     */
+    public ValueHashCache(HashFunction hf, int capacity, int minLength) {
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("Capacity must be positive (> 0)");
+	}
+	if (minLength < 0) {
+	    throw new IllegalArgumentException("Minimum length cannot be negative");
+	}
+	this.hf = hf;
+	this.minLength = minLength;
+	int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+	this.mask = size - 1;
+	this.table = new AtomicReferenceArray<>(size);
+	this.frequencies = new long[size];
+	this.frequencyMask = size * COUNTERS_PER_WORD - 1;
+	this.sampleSize = SAMPLE_FACTOR * size;
+    }
+
+    /**
+     * Installs a cache of the given capacity for the hash function used by
+     * LazoSketch and by the sketches built with their default constructors
+     */
+    public static ValueHashCache enable(int capacity) {
+	return enable(capacity, DEFAULT_MIN_LENGTH);
+    }
+
+    public static ValueHashCache enable(int capacity, int minLength) {
+	ValueHashCache cache = new ValueHashCache(
+		SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, 666), capacity, minLength);
+	setGlobal(cache);
+	return cache;
+    }
+
+    public static void disable() {
+	setGlobal(null);
+    }
+
+    public static void setGlobal(ValueHashCache cache) {
+	global = cache;
+    }
+
+    public static ValueHashCache getGlobal() {
+	return global;
+    }
+
+    public HashFunction getHashFunction() {
+	return hf;
+    }
+
+    public int getMinLength() {
+	return minLength;
+    }
+
+    public int getCapacity() {
+	return table.length();
+    }
+
+    private static int spread(int h) {
+	h *= 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+    /**
+     * The cached entry of value, or null if it is not cached
+     */
+    Entry get(String value) {
+	int h = value.hashCode();
+	Entry e = table.get(spread(h) & mask);
+	if (e != null && e.valueHashCode == h && (e.value == value || e.value.equals(value))) {
+	    // hits count too, or resident values would age out of the sketch
+	    this.increment(h);
+	    hits.increment();
+	    return e;
+	}
+	misses.increment();
+	return null;
+    }
+
+    /**
+     * Offers a value that missed, with its hash. It replaces the value in its
+     * slot if it is more frequent.
+     */
+    void admit(String value, long hash) {
+	int h = value.hashCode();
+	int frequency = this.increment(h);
+	int slot = spread(h) & mask;
+	Entry resident = table.get(slot);
+	if (resident == null || frequency > this.frequency(resident.valueHashCode)) {
+	    table.set(slot, new Entry(value, h, hash));
+	    admissions.increment();
+	}
+    }
+
+    private int counterIndex(int h, int row) {
+	// murmur3 finalizer, with a different offset per row
+	int x = h + row * 0x9E3779B9;
+	x = (x ^ (x >>> 16)) * 0x85EBCA6B;
+	x = (x ^ (x >>> 13)) * 0xC2B2AE35;
+	return (x ^ (x >>> 16)) & frequencyMask;
+    }
+
+    private int frequency(int h) {
+	int min = Integer.MAX_VALUE;
+	for (int row = 0; row < SKETCH_DEPTH; row++) {
+	    int i = counterIndex(h, row);
+	    min = Math.min(min, (int) (frequencies[i >>> 4] >>> ((i & 15) << 2)) & MAX_FREQUENCY);
+	}
+	return min;
+    }
+
+    /**
+     * Increments the counters of h and returns its new frequency estimate
+     */
+    private int increment(int h) {
+	int min = Integer.MAX_VALUE;
+	for (int row = 0; row < SKETCH_DEPTH; row++) {
+	    int i = counterIndex(h, row);
+	    int shift = (i & 15) << 2;
+	    long word = frequencies[i >>> 4];
+	    int f = (int) (word >>> shift) & MAX_FREQUENCY;
+	    if (f < MAX_FREQUENCY) {
+		frequencies[i >>> 4] = word + (1L << shift);
+		f++;
+	    }
+	    min = Math.min(min, f);
+	}
+	if (++additions >= sampleSize) {
+	    this.age();
+	}
+	return min;
+    }
+
+    /**
+     * Halves all counters, so that the frequencies follow recent values
+     */
+    private synchronized void age() {
+	if (additions < sampleSize) {
+	    // another thread just did
+	    return;
+	}
+	for (int i = 0; i < frequencies.length; i++) {
+	    frequencies[i] = (frequencies[i] >>> 1) & 0x7777777777777777L;
+	}
+	additions = 0;
+    }
+
+    public long getHitCount() {
+	return hits.sum();
+    }
+
+    public long getMissCount() {
+	return misses.sum();
+    }
+
+    /**
+     * Number of values stored after a miss, including those that replaced
+     * another value
+     */
+    public long getAdmissionCount() {
+	return admissions.sum();
+    }
+
+    public double getHitRate() {
+	long h = hits.sum();
+	long total = h + misses.sum();
+	return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void resetStats() {
+	hits.reset();
+	misses.reset();
+	admissions.reset();
+    }
+
+    @Override
+    public String toString() {
+	return "ValueHashCache(capacity=" + this.getCapacity() + ", hits=" + this.getHitCount() + ", misses="
+		+ this.getMissCount() + ", hitRate=" + this.getHitRate() + ")";
+    }
+
+}
@@ -0,0 +1,188 @@
+package lazo.sketch;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Hashes values into the 64-bit hashes consumed by the sketches. A value
+ * produces the same hash whether it comes as a String, a CharSequence, a
+ * primitive or as the bytes of its String form in the default charset. Values
+ * are encoded into a reusable scratch buffer, so hashing does not allocate per
+ * call. Not thread-safe, same as the sketches that own it.
+ */
+public class ValueHasher {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final boolean UTF8 = CHARSET.equals(StandardCharsets.UTF_8);
+    // whether numbers are encoded the same in the default charset and ascii
+    private static final boolean ASCII_DIGITS = Arrays.equals("-.0123456789".getBytes(CHARSET),
+	    "-.0123456789".getBytes(StandardCharsets.US_ASCII));
+
+    private final HashFunction hf;
+    private final int seed;
+    // murmur3 with this seed can be computed in-place
+    private final boolean inPlace;
+    // or an in-repo function that works on byte ranges, null otherwise
+    private final ByteHashFunction bytesHf;
+    private byte[] scratch = new byte[64];
+    // last global cache seen, and whether it holds hashes of hf
+    private ValueHashCache checkedCache;
+    private boolean cacheApplies;
+
+    public ValueHasher(HashFunction hf, int seed) {
+	this.hf = hf;
+	this.seed = seed;
+	this.bytesHf = hf instanceof ByteHashFunction ? (ByteHashFunction) hf : null;
+	this.inPlace = bytesHf != null || hf.equals(Hashing.murmur3_128(seed));
+    }
+
+    public long hash(CharSequence value) {
+	ValueHashCache cache = ValueHashCache.getGlobal();
+	if (cache != null && value instanceof String && value.length() >= cache.getMinLength()) {
+	    if (cache != checkedCache) {
+		checkedCache = cache;
+		cacheApplies = cache.getHashFunction().equals(hf);
+	    }
+	    if (cacheApplies) {
+		String s = (String) value;
+		ValueHashCache.Entry e = cache.get(s);
+		if (e != null) {
+		    return e.hash;
+		}
+		long h = this.hashUncached(s);
+		cache.admit(s, h);
+		return h;
+	    }
+	}
+	return this.hashUncached(value);
+    }
+
+    private long hashUncached(CharSequence value) {
+	if (!inPlace || !UTF8) {
+	    return hf.hashString(value, CHARSET).asLong();
+	}
+	int len = this.encodeUTF8(value);
+	return this.hashInPlace(scratch, 0, len);
+    }
+
+    public long hash(byte[] buf, int off, int len) {
+	if (!inPlace) {
+	    return hf.hashBytes(buf, off, len).asLong();
+	}
+	return this.hashInPlace(buf, off, len);
+    }
+
+    private long hashInPlace(byte[] buf, int off, int len) {
+	if (bytesHf != null) {
+	    return bytesHf.hash64(buf, off, len);
+	}
+	return Murmur3.hash64(buf, off, len, seed);
+    }
+
+    public long hash(int value) {
+	return this.hash((long) value);
+    }
+
+    public long hash(long value) {
+	if (!ASCII_DIGITS) {
+	    return this.hash(Long.toString(value));
+	}
+	// same bytes as Long.toString(value)
+	int end = scratch.length;
+	int start = this.writeDigits(value, end);
+	return this.hash(scratch, start, end - start);
+    }
+
+    /**
+     * Integral values in (-10^7, 10^7), the ones that Double.toString prints as
+     * "<integer>.0", are hashed in place. Any other double is hashed through
+     * its Double.toString form, which allocates.
+     */
+    public long hash(double value) {
+	if (!ASCII_DIGITS || value != Math.rint(value) || Math.abs(value) >= 1e7) {
+	    return this.hash(Double.toString(value));
+	}
+	int end = scratch.length;
+	scratch[end - 1] = '0';
+	scratch[end - 2] = '.';
+	int start = this.writeDigits((long) value, end - 2);
+	if (value == 0 && 1 / value < 0) {
+	    // negative zero
+	    scratch[--start] = '-';
+	}
+	return this.hash(scratch, start, end - start);
+    }
+
+    /**
+     * Writes the decimal digits of value right-aligned before end in the
+     * scratch buffer, and returns the start position
+     */
+    private int writeDigits(long value, int end) {
+	int pos = end;
+	// accumulate on the negative side, so that Long.MIN_VALUE is handled
+	long n = value < 0 ? value : -value;
+	do {
+	    scratch[--pos] = (byte) ('0' - (n % 10));
+	    n /= 10;
+	} while (n != 0);
+	if (value < 0) {
+	    scratch[--pos] = '-';
+	}
+	return pos;
+    }
+
+    /**
+     * Same bytes as String.getBytes(UTF_8): unpaired surrogates are replaced
+     * with '?'
+     */
+    private int encodeUTF8(CharSequence value) {
+	int length = value.length();
+	if (scratch.length < length * 3) {
+	    scratch = new byte[Math.max(length * 3, scratch.length * 2)];
+	}
+	byte[] buf = scratch;
+	int pos = 0;
+	int i = 0;
+	if (value instanceof String) {
+	    // ascii prefix, usually the whole value, in a tight loop
+	    String s = (String) value;
+	    for (; i < length; i++) {
+		char c = s.charAt(i);
+		if (c >= 0x80) {
+		    break;
+		}
+		buf[i] = (byte) c;
+	    }
+	    pos = i;
+	}
+	for (; i < length; i++) {
+	    char c = value.charAt(i);
+	    if (c < 0x80) {
+		buf[pos++] = (byte) c;
+	    } else if (c < 0x800) {
+		buf[pos++] = (byte) (0xc0 | (c >> 6));
+		buf[pos++] = (byte) (0x80 | (c & 0x3f));
+	    } else if (Character.isSurrogate(c)) {
+		if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+		    int cp = Character.toCodePoint(c, value.charAt(++i));
+		    buf[pos++] = (byte) (0xf0 | (cp >> 18));
+		    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+		    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+		    buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+		} else {
+		    buf[pos++] = '?';
+		}
+	    } else {
+		buf[pos++] = (byte) (0xe0 | (c >> 12));
+		buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+		buf[pos++] = (byte) (0x80 | (c & 0x3f));
+	    }
+	}
+	return pos;
+    }
+
+}
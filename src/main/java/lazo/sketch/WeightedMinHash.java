@@ -0,0 +1,261 @@
+package lazo.sketch;
+
+import java.util.Arrays;
+
+import com.google.common.hash.HashFunction;
+
+/**
+ * Weighted MinHash for multisets, an implementation of "Improved Consistent
+ * Sampling, Weighted Minhash and L1 Sketching" Sergey Ioffe, ICDM'10 (ICWS).
+ *
+ * Each slot samples a (value, t) pair with probability proportional to the
+ * weight of the value, consistently across sketches, so the fraction of equal
+ * slots of two sketches estimates their weighted Jaccard similarity,
+ * sum(min(wA, wB)) / sum(max(wA, wB)). getHashValues() holds one 64-bit id of
+ * the sampled pair per slot, so the sketch can be compared with
+ * SketchUtils.jaccard and indexed like any other MinHash.
+ *
+ * Weights of repeated values are not added up: each value should be offered
+ * once with its total weight (e.g., its frequency), and repeated updates keep
+ * the largest weight. update without a weight uses weight 1.
+ */
+public class WeightedMinHash implements Sketch {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private int seed;
+    private int k;
+    private HashFunction hf;
+    private ValueHasher hasher;
+
+    // per-slot seeds of the random variables drawn for each value
+    private long[] slotSeeds;
+
+    // id of the sampled (value, t) pair, and ln(a) of the sample, per slot
+    private long[] hashValues;
+    private double[] ranks;
+
+    public WeightedMinHash(int k) {
+	this(k, 666, HashFunctionType.MURMUR3);
+    }
+
+    public WeightedMinHash(int k, int seed, HashFunctionType hashFunctionType) {
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	this.k = k;
+	this.seed = seed;
+	this.hf = SketchUtils.initializeHashFunction(hashFunctionType, this.seed);
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.initializeSlotSeeds();
+	this.hashValues = SketchUtils.initializeHashValues(k, Long.MAX_VALUE);
+	this.ranks = new double[k];
+	Arrays.fill(this.ranks, Double.POSITIVE_INFINITY);
+    }
+
+    private WeightedMinHash(WeightedMinHash template, long[] hashValues, double[] ranks) {
+	this.k = template.k;
+	this.seed = template.seed;
+	this.hf = template.hf;
+	this.hasher = new ValueHasher(this.hf, this.seed);
+	this.slotSeeds = template.slotSeeds;
+	this.hashValues = hashValues;
+	this.ranks = ranks;
+    }
+
+    private void initializeSlotSeeds() {
+	this.slotSeeds = new long[k];
+	for (int i = 0; i < k; i++) {
+	    slotSeeds[i] = Murmur3.fmix64(seed + (i + 1) * GOLDEN_GAMMA);
+	}
+    }
+
+    public void update(String value, double weight) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value), weight);
+    }
+
+    /**
+     * Updates the sketch with a value that has already been hashed with the
+     * sketch hash function, and its weight. Values of weight 0 are not part
+     * of the multiset and are ignored.
+     */
+    public void updateHashed(long hv, double weight) {
+	if (!checkWeight(weight)) {
+	    return;
+	}
+	double logWeight = Math.log(weight);
+	for (int i = 0; i < k; i++) {
+	    // r, c ~ Gamma(2, 1) and beta ~ Uniform(0, 1), fixed per (slot, value)
+	    long state = hv ^ slotSeeds[i];
+	    double r = -Math.log(uniform(state += GOLDEN_GAMMA) * uniform(state += GOLDEN_GAMMA));
+	    double c = -Math.log(uniform(state += GOLDEN_GAMMA) * uniform(state += GOLDEN_GAMMA));
+	    double beta = uniform(state += GOLDEN_GAMMA);
+	    double t = Math.floor(logWeight / r + beta);
+	    // ln(a) = ln(c) - ln(y) - r, with y = exp(r (t - beta))
+	    double rank = Math.log(c) - r * (t - beta) - r;
+	    if (rank < ranks[i]) {
+		ranks[i] = rank;
+		hashValues[i] = Murmur3.fmix64(hv + (long) t * GOLDEN_GAMMA) >>> 3;
+	    }
+	}
+    }
+
+    /**
+     * Uniform double in (0, 1) from a splitmix64 state
+     */
+    private static double uniform(long state) {
+	return ((Murmur3.fmix64(state) >>> 11) + 0.5) * 0x1.0p-53;
+    }
+
+    @Override
+    public void update(String value) {
+	this.update(value, 1);
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value), 1);
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.hash(value), 1);
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.hash(value), 1);
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.hash(value), 1);
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.hash(buf, off, len), 1);
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	this.updateHashed(hv, 1);
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
+	for (int j = offset; j < offset + length; j++) {
+	    this.updateHashed(preHashed[j], 1);
+	}
+    }
+
+    public float jaccard(WeightedMinHash other) {
+	return SketchUtils.jaccard(this.getHashValues(), other.getHashValues());
+    }
+
+    /**
+     * Estimates the total weight of the multiset. The rank a of each value is
+     * exponentially distributed with rate its weight, so the minimum of each
+     * slot is exponential with rate the total weight, and (k - 1) over their
+     * sum is an unbiased estimate of it. For weights of 1 this is the number
+     * of distinct values.
+     */
+    public long cardinality() {
+	double sum = 0;
+	for (double rank : ranks) {
+	    if (rank == Double.POSITIVE_INFINITY) {
+		// nothing seen yet
+		return 0;
+	    }
+	    sum += Math.exp(rank);
+	}
+	return Math.round(Math.max(k - 1, 1) / sum);
+    }
+
+    /**
+     * The sketch of the multiset that holds the largest weight of each value
+     * of this and other
+     */
+    public WeightedMinHash merge(WeightedMinHash other) {
+	if (this.k != other.k) {
+	    throw new IllegalArgumentException("Cannot merge differently-sized MinHash sketches");
+	}
+	long[] mergedHashValues = new long[k];
+	double[] mergedRanks = new double[k];
+	for (int i = 0; i < k; i++) {
+	    boolean mine = this.ranks[i] <= other.ranks[i];
+	    mergedHashValues[i] = mine ? this.hashValues[i] : other.hashValues[i];
+	    mergedRanks[i] = mine ? this.ranks[i] : other.ranks[i];
+	}
+	return new WeightedMinHash(this, mergedHashValues, mergedRanks);
+    }
+
+    @Override
+    public long[] getHashValues() {
+	return this.hashValues;
+    }
+
+    /**
+     * ln(a) of the sample of each slot, needed along the hash values to keep
+     * updating or merging a sketch
+     */
+    public double[] getRanks() {
+	return this.ranks;
+    }
+
+    /**
+     * Whether a value of this weight is part of the set: it must be a finite
+     * non-negative number, and 0 leaves the value out
+     */
+    static boolean checkWeight(double weight) {
+	if (!(weight >= 0) || Double.isInfinite(weight)) {
+	    throw new IllegalArgumentException("Weight must be a finite non-negative number");
+	}
+	return weight > 0;
+    }
+
+    /**
+     * Hash values alone do not say which sample to keep on later updates, use
+     * setHashValues(long[], double[])
+     */
+    @Override
+    public void setHashValues(long[] hashValues) {
+	throw new UnsupportedOperationException("Weighted MinHash sketches need their ranks, use setHashValues(long[], double[])");
+    }
+
+    public void setHashValues(long[] hashValues, double[] ranks) {
+	if (hashValues.length != this.k || ranks.length != this.k) {
+	    throw new IllegalArgumentException("Input array size incompatible with this number of permutations (k)");
+	}
+	this.hashValues = hashValues;
+	this.ranks = ranks;
+    }
+
+    @Override
+    public void reset() {
+	Arrays.fill(this.hashValues, Long.MAX_VALUE);
+	Arrays.fill(this.ranks, Double.POSITIVE_INFINITY);
+    }
+
+}
@@ -0,0 +1,323 @@
+package lazo.sketch;
+
+import java.util.Arrays;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.google.common.hash.HashFunction;
+
+/**
+ * Sketch of the values of a stream seen in a sliding time window, e.g., the
+ * last 30 days of a log-derived column. Time is split in buckets of
+ * bucketWidth (in any unit, as long as timestamps use the same one), and the
+ * sketch keeps a ring of the last numBuckets buckets, each with its own
+ * MinHash minima and CompactHyperLogLog. When time moves past the oldest
+ * bucket, that bucket is cleared and reused, so expiring old data costs O(k)
+ * per bucket instead of a rescan of the history.
+ *
+ * getHashValues() and getCardinality() merge the buckets on read (the
+ * element-wise minimum, and the register-wise maximum), and cache the result
+ * until the next update or rollover. They are exactly those of a MINHASH
+ * LazoSketch of the values whose bucket is in the window. toLazoSketch()
+ * returns such a LazoSketch, to index or query the window.
+ */
+public class WindowedLazoSketch implements Sketch {
+
+    private static final int SEED = 666;
+
+    private final int k;
+    private final int numBuckets;
+    private final long bucketWidth;
+    private final PermutationFamilyType permutationFamilyType;
+    private final PermutationFamily permutations;
+    private final HashFunction hf = SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, SEED);
+    private final ValueHasher hasher = new ValueHasher(hf, SEED);
+
+    // minima of the bucket of epoch e in [(e mod numBuckets) * k, ... + k)
+    private final long[] minima;
+    // null with CardinalityType.MINHASH
+    private final CompactHyperLogLog[] estimators;
+    private final int cardinalityPrecision;
+    // newest bucket, i.e., timestamp / bucketWidth
+    private long currentEpoch = Long.MIN_VALUE;
+
+    // merged on read, null when not up to date
+    private long[] mergedHashValues;
+    private long mergedCardinality = -1;
+
+    /**
+     * A window of numBuckets * bucketWidth time units
+     */
+    public WindowedLazoSketch(int k, int numBuckets, long bucketWidth) {
+	this(k, numBuckets, bucketWidth, PermutationFamilyType.MERSENNE, CardinalityType.HYPERLOGLOG,
+		CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * See LazoSketch(int, SketchType, int). Each bucket has an estimator, so
+     * a lower precision than the default is usually enough.
+     */
+    public WindowedLazoSketch(int k, int numBuckets, long bucketWidth, int cardinalityPrecision) {
+	this(k, numBuckets, bucketWidth, PermutationFamilyType.MERSENNE, CardinalityType.HYPERLOGLOG,
+		cardinalityPrecision);
+    }
+
+    /**
+     * See LazoSketch(int, SketchType, CardinalityType)
+     */
+    public WindowedLazoSketch(int k, int numBuckets, long bucketWidth, CardinalityType cardinalityType) {
+	this(k, numBuckets, bucketWidth, PermutationFamilyType.MERSENNE, cardinalityType,
+		CompactHyperLogLog.DEFAULT_PRECISION);
+    }
+
+    public WindowedLazoSketch(int k, int numBuckets, long bucketWidth, PermutationFamilyType permutationFamilyType,
+	    CardinalityType cardinalityType, int cardinalityPrecision) {
+	if (k <= 0) {
+	    throw new IllegalArgumentException("The number of permutations must be positive (> 0)");
+	}
+	if (numBuckets <= 0 || bucketWidth <= 0) {
+	    throw new IllegalArgumentException("The number of buckets and their width must be positive (> 0)");
+	}
+	this.k = k;
+	this.numBuckets = numBuckets;
+	this.bucketWidth = bucketWidth;
+	this.permutationFamilyType = permutationFamilyType;
+	this.permutations = SketchUtils.initializePermutationFamily(permutationFamilyType, k, SEED);
+	this.minima = SketchUtils.initializeHashValues(numBuckets * k, Long.MAX_VALUE);
+	this.cardinalityPrecision = cardinalityPrecision;
+	if (cardinalityType == CardinalityType.HYPERLOGLOG) {
+	    this.estimators = new CompactHyperLogLog[numBuckets];
+	    for (int b = 0; b < numBuckets; b++) {
+		this.estimators[b] = new CompactHyperLogLog(cardinalityPrecision);
+	    }
+	} else {
+	    this.estimators = null;
+	}
+    }
+
+    public int getNumBuckets() {
+	return numBuckets;
+    }
+
+    public long getBucketWidth() {
+	return bucketWidth;
+    }
+
+    /**
+     * Moves the window so that it ends at timestamp, expiring the buckets that
+     * fall out of it. Earlier timestamps do nothing.
+     */
+    public void advanceTo(long timestamp) {
+	this.advance(Math.floorDiv(timestamp, bucketWidth));
+    }
+
+    private void advance(long epoch) {
+	if (currentEpoch == Long.MIN_VALUE) {
+	    currentEpoch = epoch;
+	    return;
+	}
+	if (epoch <= currentEpoch) {
+	    return;
+	}
+	long expired = Math.min(epoch - currentEpoch, numBuckets);
+	for (long e = epoch - expired + 1; e <= epoch; e++) {
+	    this.clearBucket(this.bucket(e));
+	}
+	currentEpoch = epoch;
+	this.invalidate();
+    }
+
+    private int bucket(long epoch) {
+	return (int) Math.floorMod(epoch, (long) numBuckets);
+    }
+
+    private void clearBucket(int bucket) {
+	Arrays.fill(minima, bucket * k, (bucket + 1) * k, Long.MAX_VALUE);
+	if (estimators != null) {
+	    estimators[bucket].reset();
+	}
+    }
+
+    private void invalidate() {
+	mergedHashValues = null;
+	mergedCardinality = -1;
+    }
+
+    /**
+     * Adds a value seen at timestamp, moving the window forward if needed.
+     * Returns false, and ignores the value, if timestamp is older than the
+     * window.
+     */
+    public boolean update(String value, long timestamp) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	return this.updateHashed(hasher.hash(value), timestamp);
+    }
+
+    public boolean updateHashed(long hv, long timestamp) {
+	long epoch = Math.floorDiv(timestamp, bucketWidth);
+	this.advance(epoch);
+	if (epoch <= currentEpoch - numBuckets) {
+	    return false;
+	}
+	this.add(this.bucket(epoch), hv);
+	return true;
+    }
+
+    private void add(int bucket, long hv) {
+	permutations.update(minima, bucket * k, hv);
+	if (estimators != null) {
+	    estimators[bucket].offerHashed(hv);
+	}
+	this.invalidate();
+    }
+
+    private int currentBucket() {
+	if (currentEpoch == Long.MIN_VALUE) {
+	    throw new IllegalStateException("No timestamp seen yet, use update(value, timestamp) or advanceTo");
+	}
+	return this.bucket(currentEpoch);
+    }
+
+    /**
+     * The update methods without a timestamp add to the newest bucket
+     */
+    @Override
+    public void update(String value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(CharSequence value) {
+	if (value == null) {
+	    throw new IllegalArgumentException("Value cannot be null");
+	}
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(long value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(int value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(double value) {
+	this.updateHashed(hasher.hash(value));
+    }
+
+    @Override
+    public void update(byte[] buf, int off, int len) {
+	this.updateHashed(hasher.hash(buf, off, len));
+    }
+
+    @Override
+    public void updateHashed(long hv) {
+	this.add(this.currentBucket(), hv);
+    }
+
+    @Override
+    public void updateAll(String[] values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(Iterable<? extends CharSequence> values) {
+	SketchUtils.hashAll(this, hasher, values);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed) {
+	this.updateAll(preHashed, 0, preHashed.length);
+    }
+
+    @Override
+    public void updateAll(long[] preHashed, int offset, int length) {
+	int bucket = this.currentBucket();
+	permutations.updateBlock(minima, bucket * k, preHashed, offset, length);
+	if (estimators != null) {
+	    for (int j = offset; j < offset + length; j++) {
+		estimators[bucket].offerHashed(preHashed[j]);
+	    }
+	}
+	this.invalidate();
+    }
+
+    /**
+     * Minima over the buckets in the window
+     */
+    @Override
+    public long[] getHashValues() {
+	if (mergedHashValues == null) {
+	    // a fresh array, so arrays handed out before are not modified
+	    long[] merged = Arrays.copyOf(minima, k);
+	    for (int b = 1; b < numBuckets; b++) {
+		int base = b * k;
+		for (int i = 0; i < k; i++) {
+		    merged[i] = Math.min(merged[i], minima[base + i]);
+		}
+	    }
+	    mergedHashValues = merged;
+	}
+	return mergedHashValues;
+    }
+
+    /**
+     * Distinct values in the window
+     */
+    public long getCardinality() {
+	if (mergedCardinality == -1) {
+	    mergedCardinality = estimators == null ? new MinHash(this.getHashValues(), SEED, hf).cardinality()
+		    : this.mergeEstimators().cardinality();
+	}
+	return mergedCardinality;
+    }
+
+    private CompactHyperLogLog mergeEstimators() {
+	CompactHyperLogLog merged = new CompactHyperLogLog(cardinalityPrecision);
+	try {
+	    for (CompactHyperLogLog estimator : estimators) {
+		merged.addAll(estimator);
+	    }
+	} catch (CardinalityMergeException e) {
+	    // all estimators have the same precision
+	    throw new IllegalStateException(e);
+	}
+	return merged;
+    }
+
+    /**
+     * A MINHASH LazoSketch of the values in the window, e.g., to index it
+     */
+    public LazoSketch toLazoSketch() {
+	LazoSketch sketch = new LazoSketch(k, SketchType.MINHASH, permutationFamilyType,
+		estimators == null ? null : this.mergeEstimators());
+	sketch.setHashValues(this.getHashValues().clone());
+	return sketch;
+    }
+
+    @Override
+    public void setHashValues(long[] hashValues) {
+	throw new UnsupportedOperationException("Windowed sketches cannot be set from hash values, they need the buckets");
+    }
+
+    /**
+     * Empties all buckets, and forgets the current time
+     */
+    @Override
+    public void reset() {
+	for (int b = 0; b < numBuckets; b++) {
+	    this.clearBucket(b);
+	}
+	currentEpoch = Long.MIN_VALUE;
+	this.invalidate();
+    }
+
+}
@@ -0,0 +1,96 @@
+package lazo.sketch;
+
+/**
+ * Allocation-free wyhash (final version 4, https://github.com/wangyi-fudan/wyhash)
+ * with its default secret. hash64 returns the same value as the reference
+ * wyhash(input, len, seed, _wyp). Built around 64x64->128-bit multiplies, so it
+ * reads 16 bytes per multiply and needs few instructions for short values.
+ */
+public class WyHash {
+
+    private static final long S0 = 0x2d358dccaa6c78a5L;
+    private static final long S1 = 0x8bb84b93962eacc9L;
+    private static final long S2 = 0x4b33a62ed433d4a3L;
+    private static final long S3 = 0x4d5a2da51de1aa47L;
+
+    public static long hash64(byte[] buf, int off, int len, long seed) {
+	seed ^= mix(seed ^ S0, S1);
+	long a;
+	long b;
+	if (len <= 16) {
+	    if (len >= 4) {
+		int shift = (len >>> 3) << 2;
+		a = (getInt(buf, off) << 32) | getInt(buf, off + shift);
+		b = (getInt(buf, off + len - 4) << 32) | getInt(buf, off + len - 4 - shift);
+	    } else if (len > 0) {
+		a = ((buf[off] & 0xffL) << 16) | ((buf[off + (len >>> 1)] & 0xffL) << 8) | (buf[off + len - 1] & 0xffL);
+		b = 0;
+	    } else {
+		a = 0;
+		b = 0;
+	    }
+	} else {
+	    int i = len;
+	    int p = off;
+	    if (i > 48) {
+		long see1 = seed;
+		long see2 = seed;
+		do {
+		    seed = mix(getLong(buf, p) ^ S1, getLong(buf, p + 8) ^ seed);
+		    see1 = mix(getLong(buf, p + 16) ^ S2, getLong(buf, p + 24) ^ see1);
+		    see2 = mix(getLong(buf, p + 32) ^ S3, getLong(buf, p + 40) ^ see2);
+		    p += 48;
+		    i -= 48;
+		} while (i > 48);
+		seed ^= see1 ^ see2;
+	    }
+	    while (i > 16) {
+		seed = mix(getLong(buf, p) ^ S1, getLong(buf, p + 8) ^ seed);
+		i -= 16;
+		p += 16;
+	    }
+	    a = getLong(buf, p + i - 16);
+	    b = getLong(buf, p + i - 8);
+	}
+	a ^= S1;
+	b ^= seed;
+	// 128-bit product, low half in a and high half in b
+	long lo = a * b;
+	long hi = multiplyHighUnsigned(a, b);
+	return mix(lo ^ S0 ^ len, hi ^ S1);
+    }
+
+    /**
+     * Folds the 128-bit product of a and b into 64 bits
+     */
+    private static long mix(long a, long b) {
+	return (a * b) ^ multiplyHighUnsigned(a, b);
+    }
+
+    /**
+     * High 64 bits of the unsigned 128-bit product (Math.multiplyHigh is not
+     * available on Java 8, and is signed)
+     */
+    static long multiplyHighUnsigned(long x, long y) {
+	long x1 = x >>> 32;
+	long x2 = x & 0xffffffffL;
+	long y1 = y >>> 32;
+	long y2 = y & 0xffffffffL;
+	long t = x1 * y2 + ((x2 * y2) >>> 32);
+	long z1 = (t & 0xffffffffL) + x2 * y1;
+	return x1 * y1 + (t >>> 32) + (z1 >>> 32);
+    }
+
+    private static long getLong(byte[] buf, int i) {
+	// little endian
+	return (buf[i] & 0xffL) | (buf[i + 1] & 0xffL) << 8 | (buf[i + 2] & 0xffL) << 16
+		| (buf[i + 3] & 0xffL) << 24 | (buf[i + 4] & 0xffL) << 32 | (buf[i + 5] & 0xffL) << 40
+		| (buf[i + 6] & 0xffL) << 48 | (buf[i + 7] & 0xffL) << 56;
+    }
+
+    private static long getInt(byte[] buf, int i) {
+	// little endian, unsigned
+	return (buf[i] & 0xffL) | (buf[i + 1] & 0xffL) << 8 | (buf[i + 2] & 0xffL) << 16 | (buf[i + 3] & 0xffL) << 24;
+    }
+
+}
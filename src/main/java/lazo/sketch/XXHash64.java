@@ -0,0 +1,86 @@
+package lazo.sketch;
+
+/**
+ * Allocation-free XXH64, as specified in
+ * https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md. hash64
+ * returns the same value as the reference XXH64(input, len, seed).
+ */
+public class XXHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    public static long hash64(byte[] buf, int off, int len, long seed) {
+	int end = off + len;
+	int i = off;
+	long h;
+	if (len >= 32) {
+	    long v1 = seed + P1 + P2;
+	    long v2 = seed + P2;
+	    long v3 = seed;
+	    long v4 = seed - P1;
+	    // stripes of 32 bytes, 4 independent lanes
+	    for (; i + 32 <= end; i += 32) {
+		v1 = round(v1, getLong(buf, i));
+		v2 = round(v2, getLong(buf, i + 8));
+		v3 = round(v3, getLong(buf, i + 16));
+		v4 = round(v4, getLong(buf, i + 24));
+	    }
+	    h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+	    h = mergeRound(h, v1);
+	    h = mergeRound(h, v2);
+	    h = mergeRound(h, v3);
+	    h = mergeRound(h, v4);
+	} else {
+	    h = seed + P5;
+	}
+	h += len;
+	for (; i + 8 <= end; i += 8) {
+	    h ^= round(0, getLong(buf, i));
+	    h = Long.rotateLeft(h, 27) * P1 + P4;
+	}
+	if (i + 4 <= end) {
+	    h ^= (getInt(buf, i) & 0xffffffffL) * P1;
+	    h = Long.rotateLeft(h, 23) * P2 + P3;
+	    i += 4;
+	}
+	for (; i < end; i++) {
+	    h ^= (buf[i] & 0xffL) * P5;
+	    h = Long.rotateLeft(h, 11) * P1;
+	}
+	// avalanche
+	h ^= h >>> 33;
+	h *= P2;
+	h ^= h >>> 29;
+	h *= P3;
+	h ^= h >>> 32;
+	return h;
+    }
+
+    private static long round(long acc, long input) {
+	acc += input * P2;
+	acc = Long.rotateLeft(acc, 31);
+	return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+	acc ^= round(0, val);
+	return acc * P1 + P4;
+    }
+
+    private static long getLong(byte[] buf, int i) {
+	// little endian
+	return (buf[i] & 0xffL) | (buf[i + 1] & 0xffL) << 8 | (buf[i + 2] & 0xffL) << 16
+		| (buf[i + 3] & 0xffL) << 24 | (buf[i + 4] & 0xffL) << 32 | (buf[i + 5] & 0xffL) << 40
+		| (buf[i + 6] & 0xffL) << 48 | (buf[i + 7] & 0xffL) << 56;
+    }
+
+    private static int getInt(byte[] buf, int i) {
+	// little endian
+	return (buf[i] & 0xff) | (buf[i + 1] & 0xff) << 8 | (buf[i + 2] & 0xff) << 16 | (buf[i + 3] & 0xff) << 24;
+    }
+
+}
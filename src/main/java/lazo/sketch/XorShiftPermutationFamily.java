@@ -0,0 +1,50 @@
+package lazo.sketch;
+
+import java.util.Random;
+
+class XorShiftPermutationFamily extends PermutationFamily {
+
+    private final long[] s;
+
+    XorShiftPermutationFamily(int k, int seed) {
+	super(k, seed);
+	Random gen = new Random(seed);
+	this.s = new long[k];
+	for (int i = 0; i < k; i++) {
+	    s[i] = gen.nextLong();
+	}
+    }
+
+    @Override
+    public PermutationFamilyType getType() {
+	return PermutationFamilyType.XOR_SHIFT;
+    }
+
+    @Override
+    public long permute(int i, long hv) {
+	return Murmur3.fmix64(hv ^ s[i]) >>> 3;
+    }
+
+    @Override
+    public void update(long[] minima, int minOffset, long hv) {
+	for (int i = 0; i < k; i++) {
+	    long kHashValue = Murmur3.fmix64(hv ^ s[i]) >>> 3;
+	    long min = minima[minOffset + i];
+	    minima[minOffset + i] = min < kHashValue ? min : kHashValue;
+	}
+    }
+
+    @Override
+    public void updateBlock(long[] minima, int minOffset, long[] hashes, int offset, int length) {
+	for (int i = 0; i < k; i++) {
+	    long si = s[i];
+	    long min = minima[minOffset + i];
+	    for (int j = offset; j < offset + length; j++) {
+		long kHashValue = Murmur3.fmix64(hashes[j] ^ si) >>> 3;
+		min = min < kHashValue ? min : kHashValue;
+	    }
+	    minima[minOffset + i] = min;
+	}
+    }
+
+}
@@ -0,0 +1,153 @@
+package lazo.index;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class BandStorageTest {
+
+    private static Set<Integer> asSet(int[] ids) {
+	Set<Integer> set = new HashSet<>();
+	if (ids != null) {
+	    for (int id : ids) {
+		set.add(id);
+	    }
+	}
+	return set;
+    }
+
+    @Test
+    public void testMatchesSetsOfKeys() {
+	checkMatchesSetsOfKeys(IndexMemory.HEAP);
+    }
+
+    @Test
+    public void testMatchesSetsOfKeysOffHeap() {
+	DirectMemory memory = new DirectMemory(Long.MAX_VALUE);
+	checkMatchesSetsOfKeys(memory);
+	assertTrue(memory.getOffHeapBytes() > 0);
+	memory.close();
+	assertTrue(memory.getOffHeapBytes() == 0);
+    }
+
+    private static void checkMatchesSetsOfKeys(IndexMemory memory) {
+	Random rnd = new Random(5);
+	int bands = 4;
+	BandStorage storage = new BandStorage(bands, memory);
+	// the previous layout: per band, segment to set of ids, and per id
+	// the segments it was inserted with
+	List<Map<Integer, Set<Integer>>> tables = new ArrayList<>();
+	for (int b = 0; b < bands; b++) {
+	    tables.add(new HashMap<>());
+	}
+	Map<Integer, List<int[]>> segmentsOf = new HashMap<>();
+	Map<Integer, Long> cardinalityOf = new HashMap<>();
+
+	for (int op = 0; op < 100000; op++) {
+	    int id = rnd.nextInt(3000);
+	    if (rnd.nextInt(4) == 0) {
+		assertTrue(storage.remove(id) == segmentsOf.containsKey(id));
+		List<int[]> all = segmentsOf.remove(id);
+		if (all != null) {
+		    for (int[] segments : all) {
+			for (int b = 0; b < bands; b++) {
+			    Set<Integer> ids = tables.get(b).get(segments[b]);
+			    if (ids != null && ids.remove(id) && ids.isEmpty()) {
+				tables.get(b).remove(segments[b]);
+			    }
+			}
+		    }
+		}
+	    } else {
+		// small segment space, so lists of many sizes
+		int[] segments = new int[bands];
+		for (int b = 0; b < bands; b++) {
+		    segments[b] = rnd.nextInt(b == 0 ? 5 : 2000);
+		}
+		storage.add(id, segments, op);
+		cardinalityOf.put(id, (long) op);
+		segmentsOf.computeIfAbsent(id, i -> new ArrayList<>()).add(segments);
+		for (int b = 0; b < bands; b++) {
+		    tables.get(b).computeIfAbsent(segments[b], s -> new HashSet<>()).add(id);
+		}
+	    }
+	}
+	for (int b = 0; b < bands; b++) {
+	    for (int segment = 0; segment < 2000; segment++) {
+		int[] ids = storage.get(b, segment);
+		Set<Integer> expected = tables.get(b).get(segment);
+		assertTrue(asSet(ids).equals(expected == null ? new HashSet<>() : expected));
+		if (ids != null) {
+		    assertTrue(ids.length == expected.size());
+		}
+	    }
+	}
+	for (int id = 0; id < 3000; id++) {
+	    assertTrue(storage.contains(id) == segmentsOf.containsKey(id));
+	    if (storage.contains(id)) {
+		assertTrue(storage.getCardinality(id) == cardinalityOf.get(id));
+	    }
+	}
+    }
+
+    @Test
+    public void testLargeListsAndCompaction() {
+	BandStorage storage = new BandStorage(1);
+	// two lists that grow in turns, so they keep moving in the arena
+	int n = 200000;
+	for (int id = 0; id < n; id++) {
+	    storage.add(id, new int[] { id % 2 }, 0);
+	}
+	for (int id = 0; id < n; id += 4) {
+	    storage.remove(id);
+	}
+	// back to a single id, and empty
+	for (int id = 2; id < n; id++) {
+	    if (id % 4 != 0) {
+		storage.remove(id);
+	    }
+	}
+	assertTrue(storage.get(0, 0) == null);
+	assertTrue(asSet(storage.get(0, 1)).equals(asSet(new int[] { 1 })));
+	storage.add(5, new int[] { 1 }, 0);
+	storage.add(5, new int[] { 1 }, 0);
+	assertTrue(storage.get(0, 1).length == 2);
+	assertTrue(storage.remove(5));
+	assertTrue(!storage.remove(5));
+	assertTrue(storage.get(0, 1).length == 1);
+    }
+
+    @Test
+    public void testAddAgainFailsCleanly() {
+	DirectMemory memory = new DirectMemory(16 * 1024);
+	BandStorage storage = new BandStorage(4, memory);
+	int added = 0;
+	try {
+	    // the same id with new segments each time, until the memory is
+	    // full in the middle of an add
+	    for (int i = 0; i < 100000; i++) {
+		storage.add(0, new int[] { i, i, i, i }, 0);
+		added++;
+	    }
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    // full
+	}
+	assertTrue(storage.remove(0));
+	for (int b = 0; b < 4; b++) {
+	    for (int i = 0; i <= added; i++) {
+		assertTrue(storage.get(b, i) == null);
+	    }
+	}
+	memory.close();
+    }
+
+}
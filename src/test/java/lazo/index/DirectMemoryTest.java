@@ -0,0 +1,65 @@
+package lazo.index;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DirectMemoryTest {
+
+    @Test
+    public void testArraysAcrossChunks() {
+	DirectMemory memory = new DirectMemory(Long.MAX_VALUE);
+	// one chunk and a half
+	long length = DirectMemory.CHUNK_BYTES / 4 + DirectMemory.CHUNK_BYTES / 8;
+	IntArray ints = memory.allocateInts(10);
+	for (int i = 0; i < 10; i++) {
+	    ints.set(i, -i);
+	}
+	// from one small buffer to chunks, and on to more chunks
+	ints = ints.resize(length);
+	for (long i = 10; i < length; i++) {
+	    ints.set(i, (int) (i * 31));
+	}
+	ints = ints.resize(3 * length);
+	ints.set(3 * length - 1, 7);
+	for (long i = 0; i < length; i++) {
+	    assertTrue(ints.get(i) == (i < 10 ? -i : (int) (i * 31)));
+	}
+	assertTrue(ints.get(3 * length - 1) == 7);
+	ints.copyTo(0, ints, length - 5, 10);
+	assertTrue(ints.get(length - 5 + 9) == -9);
+
+	LongArray longs = memory.allocateLongs(3);
+	longs.set(2, Long.MIN_VALUE);
+	longs = longs.resize(length);
+	longs.set(length - 1, Long.MAX_VALUE);
+	assertTrue(longs.get(2) == Long.MIN_VALUE);
+	assertTrue(longs.get(length - 1) == Long.MAX_VALUE);
+	memory.close();
+	assertTrue(memory.getOffHeapBytes() == 0);
+    }
+
+    @Test
+    public void testCapacity() {
+	DirectMemory memory = new DirectMemory(1000);
+	IntArray ints = memory.allocateInts(200);
+	assertTrue(memory.getOffHeapBytes() == 800);
+	try {
+	    memory.allocateInts(100);
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    assertTrue(memory.getOffHeapBytes() == 800);
+	}
+	ints.free();
+	assertTrue(memory.getOffHeapBytes() == 0);
+	memory.allocateLongs(125);
+	memory.close();
+	try {
+	    memory.allocateInts(1);
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    // closed
+	}
+    }
+
+}
@@ -0,0 +1,210 @@
+package lazo.index;
+
+import static lazo.index.Sketches.sketchOf;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lazo.sketch.LazoSketch;
+import lazo.sketch.PermutationFamilyType;
+import lazo.sketch.SketchType;
+
+public class DurableLazoIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Set<String> results(Set<LazoIndex.LazoCandidate> candidates) {
+	Set<String> results = new HashSet<>();
+	for (LazoIndex.LazoCandidate c : candidates) {
+	    results.add(c.key + " " + c.js + " " + c.jcx + " " + c.jcy);
+	}
+	return results;
+    }
+
+    /**
+     * Applies the same random changes to both indexes, and returns the
+     * sketches used
+     */
+    private static List<LazoSketch> change(DurableLazoIndex durable, LazoIndex expected, int n, long seed) {
+	Random rnd = new Random(seed);
+	List<LazoSketch> sketches = new ArrayList<>();
+	for (int i = 0; i < n; i++) {
+	    int from = rnd.nextInt(2000);
+	    LazoSketch sketch = sketchOf(from, from + 10 + rnd.nextInt(300));
+	    sketches.add(sketch);
+	    String key = "col" + rnd.nextInt(n / 2);
+	    switch (rnd.nextInt(4)) {
+	    case 0:
+		assertTrue(durable.remove(key) == expected.remove(key));
+		break;
+	    case 1:
+		durable.update(key, sketch);
+		expected.update(key, sketch);
+		break;
+	    default:
+		durable.insert(key, sketch);
+		expected.insert(key, sketch);
+	    }
+	}
+	return sketches;
+    }
+
+    private static void assertSameResults(DurableLazoIndex durable, LazoIndex expected, List<LazoSketch> sketches) {
+	for (int q = 0; q < sketches.size(); q += 9) {
+	    LazoSketch sketch = sketches.get(q);
+	    assertTrue(results(expected.query(sketch, 0.2f, 0.2f)).equals(results(durable.query(sketch, 0.2f, 0.2f))));
+	}
+    }
+
+    @Test
+    public void testReplayLog() throws IOException {
+	Path dir = folder.getRoot().toPath();
+	LazoIndex expected = new LazoIndex(64, 0.05f);
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.BATCH, 16, 10, 0);
+	List<LazoSketch> sketches = change(durable, expected, 400, 1);
+	durable.close();
+
+	durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.BATCH, 16, 10, 0);
+	assertSameResults(durable, expected, sketches);
+	// and again, on top of the replayed log
+	sketches.addAll(change(durable, expected, 200, 2));
+	durable.close();
+	durable = new DurableLazoIndex(dir, 64, 0.05f);
+	assertSameResults(durable, expected, sketches);
+	durable.close();
+    }
+
+    @Test
+    public void testCrashWithEveryWrite() throws IOException {
+	Path dir = folder.getRoot().toPath();
+	LazoIndex expected = new LazoIndex(64, 0.05f);
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.EVERY_WRITE, 1, 1, 0);
+	List<LazoSketch> sketches = change(durable, expected, 200, 3);
+	// not closed, as if the process had died
+	DurableLazoIndex recovered = new DurableLazoIndex(dir, 64, 0.05f);
+	assertSameResults(recovered, expected, sketches);
+	recovered.close();
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+	Path dir = folder.getRoot().toPath();
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.EVERY_WRITE, 1, 1, 0);
+	durable.insert("a", sketchOf(0, 100));
+	durable.insert("b", sketchOf(500, 600));
+	durable.close();
+	// half of a record at the end of the log, as a crash while writing it
+	List<Long> segments = WriteAheadLog.segments(dir);
+	Path last = WriteAheadLog.segmentPath(dir, segments.get(segments.size() - 1));
+	byte[] half = new byte[] { 100, 0, 0, 0, 1, 2, 3, 4, 1, 0 };
+	Files.write(last, half, StandardOpenOption.APPEND);
+
+	durable = new DurableLazoIndex(dir, 64, 0.05f);
+	assertTrue(durable.querySimilarity(sketchOf(0, 100), 0.9f).size() == 1);
+	assertTrue(durable.querySimilarity(sketchOf(500, 600), 0.9f).size() == 1);
+	durable.insert("c", sketchOf(1000, 1100));
+	durable.close();
+	durable = new DurableLazoIndex(dir, 64, 0.05f);
+	assertTrue(durable.querySimilarity(sketchOf(1000, 1100), 0.9f).size() == 1);
+	durable.close();
+    }
+
+    @Test
+    public void testSnapshots() throws IOException {
+	Path dir = folder.getRoot().toPath();
+	LazoIndex expected = new LazoIndex(64, 0.05f);
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.NONE, 64, 10, 100);
+	List<LazoSketch> sketches = change(durable, expected, 500, 4);
+	durable.snapshot();
+	sketches.addAll(change(durable, expected, 50, 5));
+	durable.close();
+	// the last snapshot and the log after it
+	int snapshots = 0;
+	for (String name : dir.toFile().list()) {
+	    snapshots += name.startsWith("snapshot-") ? 1 : 0;
+	}
+	assertTrue(snapshots == 1);
+	assertTrue(WriteAheadLog.segments(dir).size() == 1);
+
+	durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.NONE, 64, 10, 100);
+	assertSameResults(durable, expected, sketches);
+	durable.close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+	Path dir = folder.getRoot().toPath();
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f, SyncPolicy.EVERY_WRITE, 1, 1, 300);
+	Thread[] writers = new Thread[4];
+	for (int t = 0; t < writers.length; t++) {
+	    int writer = t;
+	    writers[t] = new Thread(() -> {
+		for (int i = 0; i < 100; i++) {
+		    durable.insert(writer + "-" + i, sketchOf(i * 1000, i * 1000 + 50 + writer));
+		}
+	    });
+	    writers[t].start();
+	}
+	for (Thread writer : writers) {
+	    writer.join();
+	}
+	durable.close();
+
+	DurableLazoIndex recovered = new DurableLazoIndex(dir, 64, 0.05f);
+	for (int i = 0; i < 100; i += 10) {
+	    assertTrue(recovered.querySimilarity(sketchOf(i * 1000, i * 1000 + 50), 0.9f).size() >= 1);
+	}
+	recovered.close();
+    }
+
+    @Test
+    public void testOtherParameters() throws IOException {
+	Path dir = folder.getRoot().toPath();
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f);
+	durable.insert("a", sketchOf(0, 100));
+	durable.snapshot();
+	durable.close();
+	try {
+	    new DurableLazoIndex(dir, 128, 0.05f);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void testPermutationFamilyRecovered() throws IOException {
+	Path dir = folder.getRoot().toPath();
+	LazoSketch xorShift = new LazoSketch(64, SketchType.MINHASH, PermutationFamilyType.XOR_SHIFT);
+	xorShift.update(1);
+	DurableLazoIndex durable = new DurableLazoIndex(dir, 64, 0.05f);
+	durable.insert("a", sketchOf(0, 100));
+	durable.close();
+	// from the log, and then from a snapshot
+	for (int i = 0; i < 2; i++) {
+	    durable = new DurableLazoIndex(dir, 64, 0.05f);
+	    try {
+		durable.querySimilarity(xorShift, 0.5f);
+		assertTrue(false);
+	    } catch (IllegalArgumentException e) {
+		// expected
+	    }
+	    durable.snapshot();
+	    durable.close();
+	}
+    }
+
+}
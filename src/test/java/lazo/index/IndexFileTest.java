@@ -0,0 +1,202 @@
+package lazo.index;
+
+import static lazo.index.Sketches.sketchOf;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lazo.sketch.LazoSketch;
+
+public class IndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Object keyOf(int i) {
+	switch (i % 4) {
+	case 0:
+	    return "key" + i;
+	case 1:
+	    return i;
+	case 2:
+	    return (long) i << 33;
+	default:
+	    return Arrays.asList("list", i);
+	}
+    }
+
+    private static Set<String> results(LazoIndex index, LazoSketch sketch) {
+	Set<String> results = new HashSet<>();
+	for (LazoIndex.LazoCandidate c : index.query(sketch, 0.2f, 0.2f)) {
+	    results.add(c.key + " " + c.js + " " + c.jcx + " " + c.jcy);
+	}
+	return results;
+    }
+
+    @Test
+    public void testSaveOpenSameResults() throws IOException {
+	LazoIndex index = new LazoIndex(64, 0.05f);
+	Random rnd = new Random(7);
+	LazoSketch[] sketches = new LazoSketch[600];
+	for (int i = 0; i < sketches.length; i++) {
+	    int from = rnd.nextInt(2000);
+	    sketches[i] = sketchOf(from, from + 10 + rnd.nextInt(500));
+	    index.insert(keyOf(i), sketches[i]);
+	}
+	for (int i = 0; i < sketches.length; i += 5) {
+	    index.remove(keyOf(i));
+	}
+	Path path = folder.getRoot().toPath().resolve("index.lazo");
+	index.save(path);
+
+	try (LazoIndex opened = LazoIndex.open(path)) {
+	    assertTrue(opened.__getNumHashTables() == index.__getNumHashTables());
+	    for (int q = 0; q < sketches.length; q += 7) {
+		assertTrue(results(index, sketches[q]).equals(results(opened, sketches[q])));
+		assertTrue(index.querySlice(sketches[q], 4, 16).equals(opened.querySlice(sketches[q], 4, 16)));
+	    }
+
+	    // saving an opened index gives the same index again
+	    Path copy = folder.getRoot().toPath().resolve("copy.lazo");
+	    opened.save(copy);
+	    try (LazoIndex reopened = LazoIndex.open(copy)) {
+		for (int q = 1; q < sketches.length; q += 11) {
+		    assertTrue(results(index, sketches[q]).equals(results(reopened, sketches[q])));
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testLoadCanChange() throws IOException {
+	LazoIndex index = new LazoIndex(64, 0.05f);
+	Random rnd = new Random(8);
+	LazoSketch[] sketches = new LazoSketch[300];
+	for (int i = 0; i < sketches.length; i++) {
+	    int from = rnd.nextInt(2000);
+	    sketches[i] = sketchOf(from, from + 10 + rnd.nextInt(500));
+	    index.insert(keyOf(i), sketches[i]);
+	}
+	// a key inserted again without removing it keeps both sketches
+	index.insert(keyOf(1), sketches[2]);
+	Path path = folder.getRoot().toPath().resolve("index.lazo");
+	index.save(path);
+
+	LazoIndex loaded = LazoIndex.load(path);
+	for (int q = 0; q < sketches.length; q += 7) {
+	    assertTrue(results(index, sketches[q]).equals(results(loaded, sketches[q])));
+	}
+	for (int i = 0; i < sketches.length; i += 3) {
+	    assertTrue(index.remove(keyOf(i)) && loaded.remove(keyOf(i)));
+	    index.insert(keyOf(i), sketches[(i + 1) % sketches.length]);
+	    loaded.insert(keyOf(i), sketches[(i + 1) % sketches.length]);
+	}
+	index.remove(keyOf(1));
+	loaded.remove(keyOf(1));
+	for (int q = 0; q < sketches.length; q += 5) {
+	    assertTrue(results(index, sketches[q]).equals(results(loaded, sketches[q])));
+	}
+    }
+
+    @Test
+    public void testOpenedIsReadOnly() throws IOException {
+	LazoIndex index = new LazoIndex(64, 0.1f, IndexStorageType.OFF_HEAP);
+	index.insert("a", sketchOf(0, 100));
+	Path path = folder.getRoot().toPath().resolve("index.lazo");
+	index.save(path);
+	index.close();
+
+	LazoIndex opened = LazoIndex.open(path);
+	assertTrue(opened.querySimilarity(sketchOf(0, 100), 0.9f).size() == 1);
+	try {
+	    opened.insert("b", sketchOf(0, 100));
+	    assertTrue(false);
+	} catch (UnsupportedOperationException e) {
+	    // read-only
+	}
+	try {
+	    opened.remove("a");
+	    assertTrue(false);
+	} catch (UnsupportedOperationException e) {
+	    // read-only
+	}
+	opened.close();
+	try {
+	    opened.querySimilarity(sketchOf(0, 100), 0.9f);
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    // closed
+	}
+    }
+
+    @Test
+    public void testEmptyIndex() throws IOException {
+	Path path = folder.getRoot().toPath().resolve("empty.lazo");
+	new LazoIndex(32, 0.1f).save(path);
+	try (LazoIndex opened = LazoIndex.open(path)) {
+	    assertTrue(opened.querySimilarity(sketchOf(0, 100), 0f).isEmpty());
+	}
+    }
+
+    @Test
+    public void testNotAnIndexFile() throws IOException {
+	Path path = folder.getRoot().toPath().resolve("garbage.lazo");
+	Files.write(path, "not an index at all".getBytes("UTF-8"));
+	try {
+	    LazoIndex.open(path);
+	    assertTrue(false);
+	} catch (IOException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void testBadBandsAndRows() throws IOException {
+	Path path = folder.getRoot().toPath().resolve("index.lazo");
+	LazoIndex index = new LazoIndex(64, 0.1f);
+	index.insert("a", sketchOf(0, 100));
+	index.save(path);
+	byte[] saved = Files.readAllBytes(path);
+	// bands and rows of the first threshold, after k, d, the error rates
+	// and the number of thresholds at the start of the header section
+	for (int[] bandsRows : new int[][] { { 0, 1 }, { 1, 1 << 20 }, { 64, 64 } }) {
+	    ByteBuffer bytes = ByteBuffer.wrap(saved.clone()).order(ByteOrder.LITTLE_ENDIAN);
+	    bytes.putInt(4096 + 20, bandsRows[0]).putInt(4096 + 24, bandsRows[1]);
+	    Files.write(path, bytes.array());
+	    try {
+		LazoIndex.open(path);
+		assertTrue(false);
+	    } catch (IOException e) {
+		// expected
+	    }
+	}
+    }
+
+    @Test
+    public void testKeyNotSerializable() throws IOException {
+	LazoIndex index = new LazoIndex(64, 0.1f);
+	index.insert(new Object(), sketchOf(0, 100));
+	Path path = folder.getRoot().toPath().resolve("index.lazo");
+	try {
+	    index.save(path);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	// no file, and no temporary file left behind
+	assertTrue(folder.getRoot().list().length == 0);
+    }
+
+}
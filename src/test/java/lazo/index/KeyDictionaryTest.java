@@ -0,0 +1,67 @@
+package lazo.index;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class KeyDictionaryTest {
+
+    @Test
+    public void testInternAndRemove() {
+	Random rnd = new Random(9);
+	KeyDictionary dictionary = new KeyDictionary();
+	Map<String, Integer> expected = new HashMap<>();
+	for (int op = 0; op < 100000; op++) {
+	    String key = "key-" + rnd.nextInt(4000);
+	    if (rnd.nextInt(3) == 0) {
+		Integer id = expected.remove(key);
+		assertTrue(dictionary.remove(key) == (id == null ? KeyDictionary.MISSING : id));
+	    } else {
+		int id = dictionary.intern(key);
+		Integer previous = expected.put(key, id);
+		assertTrue(previous == null || previous == id);
+	    }
+	    assertTrue(dictionary.size() == expected.size());
+	}
+	Set<Integer> ids = new HashSet<>();
+	for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+	    assertTrue(dictionary.getId(entry.getKey()) == entry.getValue());
+	    assertTrue(dictionary.getKey(entry.getValue()).equals(entry.getKey()));
+	    assertTrue(ids.add(entry.getValue()));
+	}
+	// removed ids are reused, so ids stay dense
+	assertTrue(dictionary.getIdBound() <= 4000);
+	assertTrue(dictionary.getId("missing") == KeyDictionary.MISSING);
+    }
+
+    @Test
+    public void testEqualKeys() {
+	KeyDictionary dictionary = new KeyDictionary();
+	int id = dictionary.intern(new String("a"));
+	assertTrue(dictionary.intern("a") == id);
+	assertTrue(dictionary.intern(1L) != id);
+	assertTrue(dictionary.getId(1L) != KeyDictionary.MISSING);
+	assertTrue(dictionary.getId(1) == KeyDictionary.MISSING);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() {
+	new KeyDictionary().intern(null);
+    }
+
+    @Test
+    public void testNullKeyIsMissing() {
+	KeyDictionary dictionary = new KeyDictionary();
+	dictionary.intern("a");
+	assertTrue(dictionary.getId(null) == KeyDictionary.MISSING);
+	assertTrue(dictionary.remove(null) == KeyDictionary.MISSING);
+	assertTrue(dictionary.getId("a") != KeyDictionary.MISSING);
+    }
+
+}
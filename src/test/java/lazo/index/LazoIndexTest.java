@@ -1,12 +1,18 @@
 package lazo.index;
 
+import static lazo.index.Sketches.sketchOf;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
 
+import lazo.sketch.CardinalityType;
 import lazo.sketch.LazoSketch;
+import lazo.sketch.PermutationFamilyType;
+import lazo.sketch.SketchType;
 
 public class LazoIndexTest {
 
@@ -77,4 +83,162 @@ public class LazoIndexTest {
 
     // TODO:
 
+
+    @Test
+    public void testCardinalityFromMinHash() {
+	LazoIndex li = new LazoIndex(256);
+	LazoSketch small = new LazoSketch(256, SketchType.MINHASH, CardinalityType.MINHASH);
+	LazoSketch large = new LazoSketch(256, SketchType.MINHASH, CardinalityType.MINHASH);
+	for (int i = 0; i < 1000; i++) {
+	    small.update(i);
+	}
+	for (int i = 0; i < 4000; i++) {
+	    large.update(i);
+	}
+	li.insert("large", large);
+
+	// small is contained in large
+	Set<LazoIndex.LazoCandidate> candidates = li.queryContainment(small, 0.7f);
+	assertTrue(candidates.size() == 1);
+	assertTrue(candidates.iterator().next().key.equals("large"));
+    }
+
+    @Test
+    public void testEstimatesTrackSimilarity() {
+	int k = 256;
+	LazoIndex index = new LazoIndex(k, 0.05f);
+	int[] shifts = new int[] { 1000, 750, 500, 350, 250, 100 };
+	for (int shift : shifts) {
+	    index.insert(shift, sketchOf(shift, shift + 2000, k));
+	}
+	index.insert("disjoint", sketchOf(10000, 12000, k));
+	Set<LazoIndex.LazoCandidate> candidates = index.querySimilarity(sketchOf(0, 2000, k), 0.2f);
+	// each set found once, near its similarity to [0, 2000)
+	assertTrue(candidates.size() == shifts.length);
+	for (LazoIndex.LazoCandidate c : candidates) {
+	    int shift = (Integer) c.key;
+	    float js = (2000f - shift) / (2000f + shift);
+	    assertTrue("js = " + js + " estimated " + c.js, Math.abs(c.js - js) < 0.12f);
+	}
+	Set<Object> keys = index.querySlice(sketchOf(0, 2000, k), 4, 16);
+	assertTrue(!keys.contains("disjoint"));
+    }
+
+    @Test
+    public void testOffHeapSameResults() {
+	LazoIndex heap = new LazoIndex(64, 0.05f);
+	LazoIndex offHeap = new LazoIndex(64, 0.05f, IndexStorageType.OFF_HEAP);
+	Random rnd = new Random(4);
+	LazoSketch[] sketches = new LazoSketch[500];
+	for (int i = 0; i < sketches.length; i++) {
+	    int from = rnd.nextInt(2000);
+	    sketches[i] = sketchOf(from, from + 10 + rnd.nextInt(500));
+	    heap.insert(i, sketches[i]);
+	    offHeap.insert(i, sketches[i]);
+	}
+	for (int i = 0; i < sketches.length; i += 3) {
+	    heap.remove(i);
+	    offHeap.remove(i);
+	}
+	assertTrue(offHeap.getOffHeapBytes() > 0);
+	assertTrue(heap.getOffHeapBytes() == 0);
+	for (int q = 0; q < sketches.length; q += 10) {
+	    Set<Object> expected = new HashSet<>();
+	    for (LazoIndex.LazoCandidate c : heap.query(sketches[q], 0.2f, 0.2f)) {
+		expected.add(c.key + " " + c.js + " " + c.jcx + " " + c.jcy);
+	    }
+	    Set<Object> actual = new HashSet<>();
+	    for (LazoIndex.LazoCandidate c : offHeap.query(sketches[q], 0.2f, 0.2f)) {
+		actual.add(c.key + " " + c.js + " " + c.jcx + " " + c.jcy);
+	    }
+	    assertTrue(expected.equals(actual));
+	}
+	offHeap.close();
+	assertTrue(offHeap.getOffHeapBytes() == 0);
+	try {
+	    offHeap.querySimilarity(sketches[1], 0.5f);
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    // closed
+	}
+    }
+
+    @Test
+    public void testOffHeapCapacity() {
+	LazoIndex index = new LazoIndex(64, 0.05f, 64 * 1024);
+	int inserted = 0;
+	try {
+	    for (int i = 0; i < 100000; i++) {
+		index.insert(i, sketchOf(i * 100, i * 100 + 50));
+		inserted++;
+	    }
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    assertTrue(index.getOffHeapBytes() <= 64 * 1024);
+	}
+	// the key that did not fit is not in the index, the others are
+	assertTrue(!index.remove(inserted));
+	assertTrue(index.querySimilarity(sketchOf(0, 50), 0.9f).size() == 1);
+	index.close();
+    }
+
+    @Test
+    public void testConcurrentQueryMetrics() throws InterruptedException {
+	LazoIndex index = new LazoIndex(64, 0.05f);
+	Random rnd = new Random(5);
+	LazoSketch[] sketches = new LazoSketch[300];
+	for (int i = 0; i < sketches.length; i++) {
+	    int from = rnd.nextInt(2000);
+	    sketches[i] = sketchOf(from, from + 10 + rnd.nextInt(1000));
+	    index.insert(i, sketches[i]);
+	}
+	for (LazoSketch sketch : sketches) {
+	    index.query(sketch, 0.2f, 0.2f);
+	}
+	int corrections = index.corrections;
+	int jcxImpactful = index.jcx_impactful_corrections;
+	assertTrue(corrections > 0);
+
+	// each thread runs the same queries, and adds the same corrections
+	Thread[] threads = new Thread[4];
+	for (int t = 0; t < threads.length; t++) {
+	    threads[t] = new Thread(() -> {
+		for (LazoSketch sketch : sketches) {
+		    index.query(sketch, 0.2f, 0.2f);
+		}
+	    });
+	    threads[t].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	assertTrue(index.corrections == (threads.length + 1) * corrections);
+	assertTrue(index.jcx_impactful_corrections == (threads.length + 1) * jcxImpactful);
+    }
+
+    @Test
+    public void testIndexHoldsOnePermutationFamily() {
+	LazoIndex index = new LazoIndex(64);
+	LazoSketch mersenne = new LazoSketch(64, SketchType.MINHASH, PermutationFamilyType.MERSENNE);
+	LazoSketch xorShift = new LazoSketch(64, SketchType.MINHASH, PermutationFamilyType.XOR_SHIFT);
+	for (int i = 0; i < 100; i++) {
+	    mersenne.update(i);
+	    xorShift.update(i);
+	}
+	index.insert("a", mersenne);
+	try {
+	    index.insert("b", xorShift);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	try {
+	    index.querySimilarity(xorShift, 0.5f);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	assertTrue(index.querySimilarity(mersenne, 0.9f).size() == 1);
+    }
+
 }
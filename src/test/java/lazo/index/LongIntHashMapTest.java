@@ -0,0 +1,45 @@
+package lazo.index;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void testMatchesHashMap() {
+	Random rnd = new Random(3);
+	LongIntHashMap map = new LongIntHashMap();
+	Map<Long, Integer> expected = new HashMap<>();
+	for (int op = 0; op < 200000; op++) {
+	    // few distinct keys, so that removals hit chains of collisions
+	    long key = rnd.nextInt(5000) * 0x100000000L;
+	    int value = rnd.nextInt(1000);
+	    if (rnd.nextInt(3) == 0) {
+		Integer previous = expected.remove(key);
+		assertTrue(map.remove(key) == (previous == null ? LongIntHashMap.MISSING : previous));
+	    } else {
+		Integer previous = expected.put(key, value);
+		assertTrue(map.put(key, value) == (previous == null ? LongIntHashMap.MISSING : previous));
+	    }
+	    assertTrue(map.size() == expected.size());
+	}
+	for (long key = 0; key < 5000; key++) {
+	    Integer value = expected.get(key * 0x100000000L);
+	    assertTrue(map.get(key * 0x100000000L) == (value == null ? LongIntHashMap.MISSING : value));
+	}
+	map.clear();
+	assertTrue(map.size() == 0);
+	assertTrue(map.get(0) == LongIntHashMap.MISSING);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValue() {
+	new LongIntHashMap().put(1, -1);
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.Set;
 
 import org.junit.Test;
 
+import lazo.sketch.BBitMinHash;
 import lazo.sketch.MinHash;
 
 public class MinHashLSHTest {
@@ -56,4 +57,55 @@ public class MinHashLSHTest {
 	assertTrue(candidates.size() == 1);
     }
 
+    private static MinHash sketchOf(int from, int to) {
+	MinHash mh = new MinHash(64);
+	for (int j = from; j < to; j++) {
+	    mh.update(new Integer(j).toString());
+	}
+	return mh;
+    }
+
+    @Test
+    public void testSimilarFoundInLaterBands() {
+	MinHashLSH index = new MinHashLSH(0.5f, 64, 8, 8);
+	long[] query = new long[64];
+	long[] similar = new long[64];
+	for (int i = 0; i < 64; i++) {
+	    query[i] = i;
+	    // differs from the query in the first band only
+	    similar[i] = i < 8 ? i + 1000 : i;
+	}
+	MinHash mh = new MinHash(64);
+	mh.setHashValues(similar);
+	index.insert("similar", mh);
+	mh = new MinHash(64);
+	mh.setHashValues(query);
+	assertTrue(index.query(mh).contains("similar"));
+    }
+
+    @Test
+    public void testBBitInsertAndQuery() {
+	for (int b : new int[] { 4, 8 }) {
+	    MinHashLSH index = new MinHashLSH(0.5f, 64);
+	    index.insert("same", new BBitMinHash(sketchOf(0, 450).getHashValues(), b));
+	    index.insert("similar", new BBitMinHash(sketchOf(50, 500).getHashValues(), b));
+	    Set<Object> candidates = index.query(new BBitMinHash(sketchOf(0, 450).getHashValues(), b));
+	    assertTrue(candidates.contains("same"));
+	    assertTrue(candidates.contains("similar"));
+	    // an index holds a single b
+	    try {
+		index.insert("other", new BBitMinHash(sketchOf(0, 450).getHashValues(), 2 * b));
+		assertTrue(false);
+	    } catch (IllegalArgumentException e) {
+		// expected
+	    }
+	    try {
+		index.query(sketchOf(0, 450));
+		assertTrue(false);
+	    } catch (IllegalArgumentException e) {
+		// expected
+	    }
+	}
+    }
+
 }
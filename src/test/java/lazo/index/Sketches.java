@@ -0,0 +1,24 @@
+package lazo.index;
+
+import lazo.sketch.LazoSketch;
+
+/**
+ * Sketches of ranges of integers shared by the index tests.
+ */
+final class Sketches {
+
+    private Sketches() {
+    }
+
+    static LazoSketch sketchOf(int from, int to) {
+	return sketchOf(from, to, 64);
+    }
+
+    static LazoSketch sketchOf(int from, int to, int k) {
+	LazoSketch sketch = new LazoSketch(k);
+	for (int v = from; v < to; v++) {
+	    sketch.update(v);
+	}
+	return sketch;
+    }
+}
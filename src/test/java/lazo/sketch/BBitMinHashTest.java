@@ -0,0 +1,147 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import lazo.index.LazoIndex;
+
+public class BBitMinHashTest {
+
+    @Test
+    public void testPackingKeepsLowestBits() {
+	long[] hv = new long[] { 0, 1, 2, 3, 0xABCDEF, -1L, Long.MAX_VALUE, 12345678901L, 7 };
+	for (int b : new int[] { 1, 2, 4, 8, 16, 32 }) {
+	    BBitMinHash bbit = new BBitMinHash(hv, b);
+	    long mask = (1L << b) - 1;
+	    for (int i = 0; i < hv.length; i++) {
+		assertTrue(bbit.get(i) == (hv[i] & mask));
+	    }
+	    assertTrue(bbit.sizeInBytes() == ((hv.length * b + 63) / 64) * 8);
+	}
+    }
+
+    @Test
+    public void testMatchingFractionCountsEqualSlots() {
+	Random rnd = new Random(42);
+	// k not a multiple of the values per word
+	long[] hv1 = new long[67];
+	long[] hv2 = new long[67];
+	for (int i = 0; i < hv1.length; i++) {
+	    hv1[i] = rnd.nextLong();
+	    hv2[i] = rnd.nextBoolean() ? hv1[i] : rnd.nextLong();
+	}
+	for (int b : new int[] { 1, 2, 4, 8, 16, 32 }) {
+	    BBitMinHash bbit1 = new BBitMinHash(hv1, b);
+	    BBitMinHash bbit2 = new BBitMinHash(hv2, b);
+	    int matches = 0;
+	    for (int i = 0; i < hv1.length; i++) {
+		if (bbit1.get(i) == bbit2.get(i)) {
+		    matches++;
+		}
+	    }
+	    assertTrue(bbit1.matchingFraction(bbit2) == (float) matches / hv1.length);
+	}
+    }
+
+    @Test
+    public void testJaccardEstimateIsCorrected() {
+	MinHash mh1 = new MinHash(512);
+	MinHash mh2 = new MinHash(512);
+
+	// 1000 shared values out of 3000, i.e., jaccard of 1/3
+	for (int i = 0; i < 2000; i++) {
+	    mh1.update(i);
+	    mh2.update(i + 1000);
+	}
+
+	for (int b : new int[] { 1, 2, 4, 8, 16, 32 }) {
+	    BBitMinHash bbit1 = new BBitMinHash(mh1.getHashValues(), b);
+	    BBitMinHash bbit2 = new BBitMinHash(mh2.getHashValues(), b);
+	    float js = bbit1.jaccard(bbit2);
+	    assertTrue(js > 0.2f && js < 0.46f);
+	}
+    }
+
+    @Test
+    public void testIndexingBBitSketches() {
+	LazoIndex index = new LazoIndex(64);
+
+	LazoSketch indexSketch = new LazoSketch(64);
+	for (int i = 0; i < 100; i++) {
+	    indexSketch.update(i);
+	}
+	index.insert("test", new BBitMinHash(indexSketch, 8));
+
+	LazoSketch querySketch = new LazoSketch(64);
+	for (int i = 0; i < 100; i++) {
+	    querySketch.update(i);
+	}
+	Set<LazoIndex.LazoCandidate> candidates = index.querySimilarity(new BBitMinHash(querySketch, 8), 0.9f);
+	assertTrue(candidates.size() == 1);
+    }
+
+    /**
+     * Sets [shift, shift + 2000) against [0, 2000), for a jaccard of (2000 -
+     * shift) / (2000 + shift)
+     */
+    private static LazoSketch shifted(int shift, int k) {
+	LazoSketch sketch = new LazoSketch(k);
+	for (int i = shift; i < shift + 2000; i++) {
+	    sketch.update(i);
+	}
+	return sketch;
+    }
+
+    @Test
+    public void testIndexEstimatesWithSmallB() {
+	int k = 256;
+	int[] shifts = new int[] { 1000, 750, 500, 350, 250, 100 };
+	for (int b : new int[] { 1, 2 }) {
+	    LazoIndex index = new LazoIndex(k, 0.05f);
+	    for (int shift : shifts) {
+		index.insert(shift, new BBitMinHash(shifted(shift, k), b));
+	    }
+	    Set<LazoIndex.LazoCandidate> candidates = index.querySimilarity(new BBitMinHash(shifted(0, k), b), 0f);
+	    assertTrue(candidates.size() == shifts.length);
+	    // without the correction for random collisions, 1-bit estimates
+	    // are about (1 + js) / 2
+	    float error = 0;
+	    for (LazoIndex.LazoCandidate c : candidates) {
+		int shift = (Integer) c.key;
+		float js = (2000f - shift) / (2000f + shift);
+		assertTrue("b = " + b + " js = " + js + " estimated " + c.js, Math.abs(c.js - js) < 0.25f);
+		error += Math.abs(c.js - js);
+	    }
+	    assertTrue("b = " + b + " mean error " + error / shifts.length, error / shifts.length < 0.12f);
+	}
+    }
+
+    @Test
+    public void testIndexHoldsOneB() {
+	LazoIndex index = new LazoIndex(64);
+	index.insert("a", new BBitMinHash(shifted(0, 64), 8));
+	try {
+	    index.insert("b", new BBitMinHash(shifted(0, 64), 4));
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	try {
+	    index.insert("c", shifted(0, 64));
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	try {
+	    index.querySimilarity(shifted(0, 64), 0.5f);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+
+}
@@ -0,0 +1,163 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.ICardinality;
+
+public class CompactHyperLogLogTest {
+
+    private static long[] randomHashes(int n, long seed) {
+	Random rnd = new Random(seed);
+	long[] hashes = new long[n];
+	for (int i = 0; i < n; i++) {
+	    hashes[i] = rnd.nextLong();
+	}
+	return hashes;
+    }
+
+    @Test
+    public void testEstimateWithinError() {
+	int[] sizes = new int[] { 10, 1000, 50000, 1000000 };
+	for (int n : sizes) {
+	    CompactHyperLogLog hll = new CompactHyperLogLog(14);
+	    for (long hv : randomHashes(n, n)) {
+		hll.offerHashed(hv);
+	    }
+	    double error = Math.abs(hll.cardinality() - n) / (double) n;
+	    // ~0.8% standard error at p = 14
+	    assertTrue(error < 0.04);
+	}
+    }
+
+    @Test
+    public void testSmallColumnsStaySparse() {
+	CompactHyperLogLog hll = new CompactHyperLogLog(18);
+	for (long hv : randomHashes(100, 1)) {
+	    hll.offerHashed(hv);
+	}
+	assertTrue(hll.isSparse());
+	assertTrue(hll.sizeof() < 2048);
+	assertTrue(hll.cardinality() == 100);
+
+	for (long hv : randomHashes(200000, 2)) {
+	    hll.offerHashed(hv);
+	}
+	assertTrue(!hll.isSparse());
+	assertTrue(hll.sizeof() < 256 * 1024);
+    }
+
+    @Test
+    public void testSparseAndDenseAgree() {
+	long[] hashes = randomHashes(3000, 3);
+	CompactHyperLogLog sparse = new CompactHyperLogLog(16);
+	for (long hv : hashes) {
+	    sparse.offerHashed(hv);
+	}
+	CompactHyperLogLog dense = new CompactHyperLogLog(16);
+	// forces the dense form
+	for (long hv : randomHashes(100000, 4)) {
+	    dense.offerHashed(hv);
+	}
+	assertTrue(sparse.isSparse());
+	assertTrue(!dense.isSparse());
+	for (int i = 0; i < 1 << 16; i++) {
+	    int a = sparse.getRegister(i);
+	    assertTrue(a >= 0 && a <= 64 - 16 + 1);
+	}
+	CompactHyperLogLog both = new CompactHyperLogLog(16);
+	both.offerHashed(hashes[0]);
+	for (long hv : hashes) {
+	    both.offerHashed(hv);
+	}
+	assertTrue(both.cardinality() == sparse.cardinality());
+    }
+
+    @Test
+    public void testMerge() throws CardinalityMergeException {
+	long[] a = randomHashes(20000, 5);
+	long[] b = randomHashes(300, 6);
+	CompactHyperLogLog hllA = new CompactHyperLogLog(14);
+	CompactHyperLogLog hllB = new CompactHyperLogLog(14);
+	CompactHyperLogLog union = new CompactHyperLogLog(14);
+	for (long hv : a) {
+	    hllA.offerHashed(hv);
+	    union.offerHashed(hv);
+	}
+	for (long hv : b) {
+	    hllB.offerHashed(hv);
+	    union.offerHashed(hv);
+	}
+	ICardinality mergedAB = hllA.merge(hllB);
+	ICardinality mergedBA = hllB.merge(hllA);
+	assertTrue(mergedAB.cardinality() == union.cardinality());
+	assertTrue(mergedBA.cardinality() == union.cardinality());
+	for (int i = 0; i < 1 << 14; i++) {
+	    int r = ((CompactHyperLogLog) mergedBA).getRegister(i);
+	    assertTrue(r == union.getRegister(i));
+	}
+    }
+
+    @Test(expected = CardinalityMergeException.class)
+    public void testMergeDifferentPrecision() throws CardinalityMergeException {
+	new CompactHyperLogLog(14).merge(new CompactHyperLogLog(12));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+	for (int n : new int[] { 0, 50, 100000 }) {
+	    CompactHyperLogLog hll = new CompactHyperLogLog(15);
+	    for (long hv : randomHashes(n, 7)) {
+		hll.offerHashed(hv);
+	    }
+	    CompactHyperLogLog copy = CompactHyperLogLog.fromBytes(hll.getBytes());
+	    assertTrue(copy.isSparse() == hll.isSparse());
+	    assertTrue(copy.cardinality() == hll.cardinality());
+	    for (int i = 0; i < 1 << 15; i++) {
+		assertTrue(copy.getRegister(i) == hll.getRegister(i));
+	    }
+
+	    // from the middle of a little-endian buffer, which is left after it
+	    byte[] bytes = hll.getBytes();
+	    ByteBuffer buf = ByteBuffer.allocate(bytes.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+	    buf.put((byte) 1).put(bytes).put((byte) 2);
+	    buf.position(1);
+	    copy = CompactHyperLogLog.fromBytes(buf);
+	    assertTrue(buf.position() == bytes.length + 1);
+	    for (int i = 0; i < 1 << 15; i++) {
+		assertTrue(copy.getRegister(i) == hll.getRegister(i));
+	    }
+	}
+    }
+
+    @Test
+    public void testReset() {
+	CompactHyperLogLog hll = new CompactHyperLogLog(12);
+	for (long hv : randomHashes(50000, 4)) {
+	    hll.offerHashed(hv);
+	}
+	assertTrue(!hll.isSparse());
+	hll.reset();
+	assertTrue(hll.isSparse());
+	assertTrue(hll.cardinality() == 0);
+
+	// grows into the same estimates as a new estimator
+	for (int n : new int[] { 10, 50000 }) {
+	    hll.reset();
+	    CompactHyperLogLog fresh = new CompactHyperLogLog(12);
+	    for (long hv : randomHashes(n, 5)) {
+		hll.offerHashed(hv);
+		fresh.offerHashed(hv);
+	    }
+	    assertTrue(hll.isSparse() == fresh.isSparse());
+	    assertTrue(hll.cardinality() == fresh.cardinality());
+	}
+    }
+
+}
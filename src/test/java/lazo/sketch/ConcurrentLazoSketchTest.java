@@ -0,0 +1,95 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ConcurrentLazoSketchTest {
+
+    private static void runThreads(int threads, int values, ConcurrentLazoSketch sketch, boolean batch)
+	    throws InterruptedException {
+	List<Thread> workers = new ArrayList<>();
+	for (int t = 0; t < threads; t++) {
+	    int thread = t;
+	    workers.add(new Thread(() -> {
+		if (batch) {
+		    List<String> mine = new ArrayList<>();
+		    for (int i = thread; i < values; i += threads) {
+			mine.add("value-" + i);
+		    }
+		    sketch.updateAll(mine);
+		} else {
+		    for (int i = thread; i < values; i += threads) {
+			sketch.update("value-" + i);
+		    }
+		}
+	    }));
+	}
+	for (Thread worker : workers) {
+	    worker.start();
+	}
+	for (Thread worker : workers) {
+	    worker.join();
+	}
+    }
+
+    @Test
+    public void testSameAsSequential() throws InterruptedException {
+	int values = 50000;
+	for (PermutationFamilyType pft : PermutationFamilyType.values()) {
+	    LazoSketch sequential = new LazoSketch(64, SketchType.MINHASH, pft);
+	    for (int i = 0; i < values; i++) {
+		sequential.update("value-" + i);
+	    }
+	    for (boolean batch : new boolean[] { false, true }) {
+		ConcurrentLazoSketch concurrent = new ConcurrentLazoSketch(64, pft);
+		runThreads(8, values, concurrent, batch);
+		assertTrue(Arrays.equals(concurrent.getHashValues(), sequential.getHashValues()));
+		assertTrue(concurrent.getCardinality() == sequential.getCardinality());
+
+		LazoSketch snapshot = concurrent.toLazoSketch();
+		assertTrue(Arrays.equals(snapshot.getHashValues(), sequential.getHashValues()));
+		assertTrue(snapshot.getCardinality() == sequential.getCardinality());
+	    }
+	}
+    }
+
+    @Test
+    public void testMinHashCardinalityAndReset() throws InterruptedException {
+	LazoSketch sequential = new LazoSketch(128, SketchType.MINHASH, CardinalityType.MINHASH);
+	for (int i = 0; i < 1000; i++) {
+	    sequential.update("value-" + i);
+	}
+	ConcurrentLazoSketch concurrent = new ConcurrentLazoSketch(128, CardinalityType.MINHASH);
+	runThreads(4, 1000, concurrent, false);
+	assertTrue(concurrent.getCardinalityEstimator() == null);
+	assertTrue(concurrent.getCardinality() == sequential.getCardinality());
+	assertTrue(concurrent.toLazoSketch().getCardinalityType() == CardinalityType.MINHASH);
+
+	concurrent.reset();
+	assertTrue(concurrent.getCardinality() == 0);
+	assertTrue(Arrays.equals(concurrent.getHashValues(), new LazoSketch(128).getHashValues()));
+    }
+
+    @Test
+    public void testConcurrentHyperLogLogMatchesCompact() {
+	ConcurrentHyperLogLog concurrent = new ConcurrentHyperLogLog(12);
+	CompactHyperLogLog compact = new CompactHyperLogLog(12);
+	for (int n : new int[] { 0, 10, 100000 }) {
+	    for (int i = 0; i < n; i++) {
+		long hv = Murmur3.fmix64(i * 31 + n);
+		concurrent.offerHashed(hv);
+		compact.offerHashed(hv);
+	    }
+	    assertTrue(concurrent.cardinality() == compact.cardinality());
+	    CompactHyperLogLog snapshot = concurrent.toCompactHyperLogLog();
+	    assertTrue(snapshot.isSparse() == compact.isSparse());
+	    assertTrue(snapshot.cardinality() == compact.cardinality());
+	}
+    }
+
+}
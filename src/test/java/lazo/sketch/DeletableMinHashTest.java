@@ -0,0 +1,97 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DeletableMinHashTest {
+
+    @Test
+    public void testRemoveMatchesRebuiltSketch() {
+	DeletableMinHash sketch = new DeletableMinHash(64);
+	for (int i = 0; i < 10000; i++) {
+	    sketch.update("value-" + i);
+	}
+	// 10% of the values disappear
+	for (int i = 0; i < 10000; i += 10) {
+	    sketch.remove("value-" + i);
+	}
+	assertTrue(!sketch.isStale());
+
+	MinHash rebuilt = new MinHash(64);
+	LazoSketch lazo = new LazoSketch(64, SketchType.MINHASH, CardinalityType.MINHASH);
+	for (int i = 0; i < 10000; i++) {
+	    if (i % 10 != 0) {
+		rebuilt.update("value-" + i);
+		lazo.update("value-" + i);
+	    }
+	}
+	assertTrue(Arrays.equals(sketch.getHashValues(), rebuilt.getHashValues()));
+	assertTrue(sketch.getCardinality() == rebuilt.cardinality());
+
+	LazoSketch converted = sketch.toLazoSketch();
+	assertTrue(Arrays.equals(converted.getHashValues(), lazo.getHashValues()));
+	assertTrue(converted.getCardinality() == lazo.getCardinality());
+    }
+
+    @Test
+    public void testValuesStayWhileCopiesRemain() {
+	DeletableMinHash sketch = new DeletableMinHash(32, 2);
+	MinHash expected = new MinHash(32);
+	for (int i = 0; i < 100; i++) {
+	    sketch.update("value-" + i);
+	    expected.update("value-" + i);
+	}
+	// a second copy of every value, e.g., in another row
+	for (int i = 0; i < 100; i++) {
+	    sketch.update("value-" + i);
+	}
+	for (int i = 0; i < 100; i++) {
+	    sketch.remove("value-" + i);
+	}
+	// removing values never added changes nothing
+	sketch.remove("missing");
+	assertTrue(!sketch.isStale());
+	assertTrue(Arrays.equals(sketch.getHashValues(), expected.getHashValues()));
+
+	// all values gone, with nothing forgotten: an empty sketch
+	DeletableMinHash small = new DeletableMinHash(8, 4);
+	small.update("a");
+	small.update("b");
+	small.remove("a");
+	small.remove("b");
+	assertTrue(!small.isStale());
+	assertTrue(Arrays.equals(small.getHashValues(), new MinHash(8).getHashValues()));
+	assertTrue(small.getCardinality() == 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStaleSketchNeedsRebuild() {
+	DeletableMinHash sketch = new DeletableMinHash(16, 1);
+	for (int i = 0; i < 1000; i++) {
+	    sketch.update("value-" + i);
+	}
+	for (int i = 0; i < 1000; i += 2) {
+	    sketch.remove("value-" + i);
+	}
+	// one candidate per slot, half of the values removed
+	assertTrue(sketch.isStale());
+
+	try {
+	    sketch.getHashValues();
+	} finally {
+	    // rebuilding from the column fixes it
+	    sketch.reset();
+	    MinHash expected = new MinHash(16);
+	    for (int i = 1; i < 1000; i += 2) {
+		sketch.update("value-" + i);
+		expected.update("value-" + i);
+	    }
+	    assertTrue(!sketch.isStale());
+	    assertTrue(Arrays.equals(sketch.getHashValues(), expected.getHashValues()));
+	}
+    }
+
+}
@@ -0,0 +1,115 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+
+public class HashFunctionTest {
+
+    private static long xxh64(String s, long seed) {
+	byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+	return XXHash64.hash64(bytes, 0, bytes.length, seed);
+    }
+
+    private static long wyhash(String s, long seed) {
+	byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+	return WyHash.hash64(bytes, 0, bytes.length, seed);
+    }
+
+    @Test
+    public void testXXHash64ReferenceVectors() {
+	assertTrue(xxh64("", 0) == 0xef46db3751d8e999L);
+	assertTrue(xxh64("a", 0) == 0xd24ec4f1a98c6e5bL);
+	assertTrue(xxh64("abc", 0) == 0x44bc2cf5ad770999L);
+	assertTrue(xxh64("Nobody inspects the spammish repetition", 0) == 0xfbcea83c8a378bf1L);
+    }
+
+    @Test
+    public void testWyHashReferenceVectors() {
+	assertTrue(wyhash("", 0) == 0x93228a4de0eec5a2L);
+	assertTrue(wyhash("a", 1) == 0xc5bac3db178713c4L);
+	assertTrue(wyhash("abc", 2) == 0xa97f2f7b1d9b3314L);
+	assertTrue(wyhash("message digest", 3) == 0x786d1f1df3801df4L);
+	assertTrue(wyhash("abcdefghijklmnopqrstuvwxyz", 4) == 0xdca5a8138ad37c87L);
+	assertTrue(wyhash("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789", 5) == 0xb9e734f117cfaf70L);
+	assertTrue(wyhash("12345678901234567890123456789012345678901234567890123456789012345678901234567890",
+		6) == 0x6cc5eab49a92d617L);
+    }
+
+    @Test
+    public void testInPlaceMatchesHashFunction() {
+	Random rnd = new Random(7);
+	for (HashFunctionType hft : HashFunctionType.values()) {
+	    HashFunction hf = SketchUtils.initializeHashFunction(hft, 666);
+	    ValueHasher hasher = new ValueHasher(hf, 666);
+	    assertTrue(hf.equals(SketchUtils.initializeHashFunction(hft, 666)));
+	    assertTrue(!hf.equals(SketchUtils.initializeHashFunction(hft, 667)));
+	    for (int length = 0; length < 100; length++) {
+		byte[] bytes = new byte[length + 3];
+		rnd.nextBytes(bytes);
+		long expected = hf.hashBytes(Arrays.copyOfRange(bytes, 3, bytes.length)).asLong();
+		assertTrue(hasher.hash(bytes, 3, length) == expected);
+		assertTrue(hf.newHasher().putBytes(bytes, 3, length).hash().asLong() == expected);
+		String s = Long.toString(rnd.nextLong()) + length;
+		assertTrue(hasher.hash(s) == hf.hashString(s, Charset.defaultCharset()).asLong());
+		assertTrue(hasher.hash((long) length) == hasher.hash(Integer.toString(length)));
+	    }
+	}
+    }
+
+    @Test
+    public void testNoCollisionsAndUniformBits() {
+	int n = 1 << 20;
+	for (HashFunctionType hft : HashFunctionType.values()) {
+	    ValueHasher hasher = new ValueHasher(SketchUtils.initializeHashFunction(hft, 666), 666);
+	    long[] hashes = new long[n];
+	    // sequential keys, the usual worst case for weak hashes
+	    for (int i = 0; i < n; i++) {
+		hashes[i] = hasher.hash(i);
+	    }
+	    int[] bitCounts = new int[64];
+	    int[] buckets = new int[1024];
+	    for (long h : hashes) {
+		for (int b = 0; b < 64; b++) {
+		    bitCounts[b] += (int) ((h >>> b) & 1);
+		}
+		buckets[(int) (h >>> 54)]++;
+	    }
+	    Arrays.sort(hashes);
+	    for (int i = 1; i < n; i++) {
+		// expected number of 64-bit collisions among 2^20 values is 2^-25
+		assertTrue(hashes[i] != hashes[i - 1]);
+	    }
+	    for (int b = 0; b < 64; b++) {
+		// each bit set half of the time, within ~6 standard deviations
+		assertTrue(Math.abs(bitCounts[b] - n / 2) < 3000);
+	    }
+	    for (int count : buckets) {
+		// 1024 expected per bucket, ~32 standard deviation
+		assertTrue(Math.abs(count - n / 1024) < 200);
+	    }
+	}
+    }
+
+    @Test
+    public void testSketchesWithFastHashes() {
+	for (HashFunctionType hft : HashFunctionType.values()) {
+	    MinHash a = new MinHash(256, 666, hft);
+	    MinHash b = new MinHash(256, 666, hft);
+	    for (int i = 0; i < 10000; i++) {
+		a.update(i);
+		b.update(i + 5000);
+	    }
+	    // real jaccard is 1/3
+	    assertTrue(Math.abs(a.jaccard(b) - 1 / 3f) < 0.1);
+	}
+    }
+
+}
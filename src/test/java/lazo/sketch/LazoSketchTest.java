@@ -2,8 +2,13 @@ package lazo.sketch;
 
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.Test;
 
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
 import lazo.sketch.LazoSketch;
 import lazo.sketch.SketchType;
 
@@ -86,4 +91,264 @@ public class LazoSketchTest {
 
     }
 
+    @Test
+    public void testBatchUpdateMatchesPerValueUpdate() {
+	LazoSketch mh1 = new LazoSketch(64, SketchType.MINHASH);
+	LazoSketch mh2 = new LazoSketch(64, SketchType.MINHASH);
+
+	String[] values = new String[5000];
+	for (int i = 0; i < values.length; i++) {
+	    values[i] = new Integer(i).toString();
+	    mh1.update(values[i]);
+	}
+	mh2.updateAll(values);
+
+	// Check both hash values and cardinality agree
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh2.getHashValues()));
+	assertTrue(mh1.getCardinality() == mh2.getCardinality());
+    }
+
+    @Test
+    public void testOptimalSketchCanBeUpdatedAfterReads() {
+	LazoSketch mh1 = new LazoSketch(64, SketchType.MINHASH_OPTIMAL);
+	LazoSketch mh2 = new LazoSketch(64, SketchType.MINHASH_OPTIMAL);
+
+	for (int i = 0; i < 500; i++) {
+	    mh1.update(new Integer(i).toString());
+	}
+	mh1.getHashValues();
+	for (int i = 500; i < 1000; i++) {
+	    mh1.update(new Integer(i).toString());
+	    mh2.update(new Integer(i).toString());
+	}
+
+	LazoSketch mh3 = new LazoSketch(64, SketchType.MINHASH_OPTIMAL);
+	for (int i = 0; i < 500; i++) {
+	    mh3.update(new Integer(i).toString());
+	}
+	LazoSketch merged = mh3.merge(mh2);
+
+	// Check merging and updating after a read agree
+	assertTrue(Arrays.equals(mh1.getHashValues(), merged.getHashValues()));
+    }
+
+    @Test
+    public void testCardinalityPrecision() {
+	LazoSketch small = new LazoSketch(64, SketchType.MINHASH, 10);
+	LazoSketch dflt = new LazoSketch(64, SketchType.MINHASH);
+	for (int i = 0; i < 20000; i++) {
+	    small.update(i);
+	    dflt.update(i);
+	}
+	assertTrue(small.getCardinalityEstimator().sizeof() < dflt.getCardinalityEstimator().sizeof());
+	assertTrue(Math.abs(small.getCardinality() - 20000) < 20000 * 0.15);
+	assertTrue(Math.abs(dflt.getCardinality() - 20000) < 20000 * 0.02);
+	LazoSketch merged = small.merge(new LazoSketch(64, SketchType.MINHASH, 10));
+	assertTrue(merged.getCardinality() == small.getCardinality());
+    }
+
+    @Test
+    public void testCardinalityFromMinHash() {
+	for (SketchType sketchType : new SketchType[] { SketchType.MINHASH, SketchType.MINHASH_OPTIMAL }) {
+	    LazoSketch a = new LazoSketch(512, sketchType, CardinalityType.MINHASH);
+	    LazoSketch b = new LazoSketch(512, sketchType, CardinalityType.MINHASH);
+	    assertTrue(a.getCardinalityEstimator() == null);
+	    assertTrue(a.getCardinality() == 0);
+	    for (int i = 0; i < 10000; i++) {
+		a.update(i);
+		b.update(i + 5000);
+	    }
+	    // ~4.4% standard error at k = 512
+	    assertTrue(Math.abs(a.getCardinality() - 10000) < 10000 * 0.15);
+	    LazoSketch merged = a.merge(b);
+	    assertTrue(merged.getCardinalityType() == CardinalityType.MINHASH);
+	    assertTrue(Math.abs(merged.getCardinality() - 15000) < 15000 * 0.15);
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentCardinalityTypes() {
+	new LazoSketch(64, SketchType.MINHASH, CardinalityType.MINHASH)
+		.merge(new LazoSketch(64, SketchType.MINHASH, CardinalityType.HYPERLOGLOG));
+    }
+
+    @Test
+    public void testSerializationRoundTrip() {
+	LazoSketch[] sketches = new LazoSketch[] { new LazoSketch(64), new LazoSketch(128, SketchType.MINHASH_OPTIMAL),
+		new LazoSketch(64, SketchType.MINHASH, PermutationFamilyType.XOR_SHIFT),
+		new LazoSketch(64, SketchType.MINHASH, CardinalityType.MINHASH),
+		new LazoSketch(64, SketchType.MINHASH, new HyperLogLogPlus(14, 25)) };
+	int size = 0;
+	for (int s = 0; s < sketches.length; s++) {
+	    // one small, sparse estimator and large, dense ones
+	    int n = s == 0 ? 10 : 100000;
+	    for (int i = 0; i < n; i++) {
+		sketches[s].update(i);
+	    }
+	    size += sketches[s].getSerializedSize();
+	}
+	assertTrue(sketches[0].getSerializedSize() < 64 * 8 + 100);
+
+	for (ByteBuffer buf : new ByteBuffer[] { ByteBuffer.allocate(size), ByteBuffer.allocateDirect(size) }) {
+	    for (LazoSketch sketch : sketches) {
+		sketch.writeTo(buf);
+	    }
+	    assertTrue(buf.remaining() == 0);
+	    buf.flip();
+	    for (LazoSketch sketch : sketches) {
+		LazoSketch read = LazoSketch.wrap(buf);
+		assertTrue(read.getCardinality() == sketch.getCardinality());
+		assertTrue(read.getCardinalityType() == sketch.getCardinalityType());
+		assertTrue(Arrays.equals(read.getHashValues(), sketch.getHashValues()));
+
+		// updates continue from the serialized state
+		read.update(-1);
+		LazoSketch copy = sketch.merge(sketch);
+		copy.update(-1);
+		assertTrue(Arrays.equals(read.getHashValues(), copy.getHashValues()));
+		assertTrue(read.getCardinality() == copy.getCardinality());
+	    }
+	    assertTrue(buf.remaining() == 0);
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapGarbage() {
+	LazoSketch.wrap(ByteBuffer.wrap(new byte[64]));
+    }
+
+    @Test
+    public void testMergeDifferentEstimators() {
+	LazoSketch[][] pairs = new LazoSketch[][] {
+		{ new LazoSketch(64, SketchType.MINHASH, 14), new LazoSketch(64, SketchType.MINHASH, 18) },
+		{ new LazoSketch(64, SketchType.MINHASH, 14),
+			new LazoSketch(64, SketchType.MINHASH, new HyperLogLogPlus(14)) } };
+	for (LazoSketch[] pair : pairs) {
+	    for (int i = 0; i < 1000; i++) {
+		pair[0].update(i);
+		pair[1].update(i + 500);
+	    }
+	    try {
+		pair[0].merge(pair[1]);
+		assertTrue(false);
+	    } catch (IllegalArgumentException e) {
+		// expected
+	    }
+	}
+    }
+
+    @Test
+    public void testMergeDifferentPermutationFamilies() {
+	LazoSketch a = new LazoSketch(64, SketchType.MINHASH, PermutationFamilyType.MERSENNE);
+	LazoSketch b = new LazoSketch(64, SketchType.MINHASH, PermutationFamilyType.XOR_SHIFT);
+	for (int i = 0; i < 1000; i++) {
+	    a.update(i);
+	    b.update(i);
+	}
+	try {
+	    a.merge(b);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	try {
+	    ((MinHash) a.getSketch()).merge((MinHash) b.getSketch());
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void testMergeDifferentSketchTypes() {
+	LazoSketch a = new LazoSketch(64, SketchType.MINHASH);
+	LazoSketch b = new LazoSketch(64, SketchType.MINHASH_OPTIMAL);
+	for (int i = 0; i < 1000; i++) {
+	    a.update(i);
+	    b.update(i);
+	}
+	try {
+	    a.merge(b);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	try {
+	    b.merge(a);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void testPermutationFamilyOnlyForMinHash() {
+	for (SketchType type : new SketchType[] { SketchType.MINHASH_OPTIMAL, SketchType.WEIGHTED_MINHASH }) {
+	    new LazoSketch(64, type, PermutationFamilyType.MERSENNE);
+	    try {
+		new LazoSketch(64, type, PermutationFamilyType.XOR_SHIFT);
+		assertTrue(false);
+	    } catch (IllegalArgumentException e) {
+		// expected
+	    }
+	}
+    }
+
+    @Test
+    public void testWrapBadTypes() {
+	LazoSketch sketch = new LazoSketch(64);
+	sketch.update("a");
+	// the sketch type and the permutation family type
+	for (int offset : new int[] { 5, 6 }) {
+	    ByteBuffer buf = ByteBuffer.allocate(sketch.getSerializedSize());
+	    sketch.writeTo(buf);
+	    buf.put(offset, (byte) 100);
+	    buf.flip();
+	    try {
+		LazoSketch.wrap(buf);
+		assertTrue(false);
+	    } catch (IllegalArgumentException e) {
+		// expected
+	    }
+	}
+    }
+
+    @Test
+    public void testResetMatchesNewSketch() {
+	for (SketchType type : new SketchType[] { SketchType.MINHASH, SketchType.MINHASH_OPTIMAL,
+		SketchType.WEIGHTED_MINHASH }) {
+	    LazoSketch reused = new LazoSketch(64, type);
+	    for (int i = 0; i < 100000; i++) {
+		reused.update(i);
+	    }
+	    assertTrue(reused.getCardinality() > 90000);
+	    reused.reset();
+	    assertTrue(reused.getCardinality() == 0);
+
+	    LazoSketch fresh = new LazoSketch(64, type);
+	    for (int i = 0; i < 100; i++) {
+		reused.update(i + 500000);
+		fresh.update(i + 500000);
+	    }
+	    assertTrue(Arrays.equals(reused.getHashValues(), fresh.getHashValues()));
+	    assertTrue(reused.getCardinality() == fresh.getCardinality());
+	}
+
+	// a wrapped sketch stops reading its buffer
+	LazoSketch sketch = new LazoSketch(64);
+	sketch.update("a");
+	ByteBuffer buf = ByteBuffer.allocate(sketch.getSerializedSize());
+	sketch.writeTo(buf);
+	buf.flip();
+	LazoSketch read = LazoSketch.wrap(buf);
+	read.reset();
+	assertTrue(read.getCardinality() == 0);
+	assertTrue(Arrays.equals(read.getHashValues(), new LazoSketch(64).getHashValues()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testResetOtherEstimator() {
+	new LazoSketch(64, SketchType.MINHASH, new HyperLogLogPlus(14)).reset();
+    }
+
 }
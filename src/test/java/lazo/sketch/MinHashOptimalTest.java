@@ -2,6 +2,8 @@ package lazo.sketch;
 
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import lazo.sketch.MinHashOptimal;
@@ -73,4 +75,64 @@ public class MinHashOptimalTest {
 	}
     }
 
+    @Test
+    public void testUpdateAfterRead() {
+	MinHashOptimal mh1 = new MinHashOptimal(64);
+	MinHashOptimal mh2 = new MinHashOptimal(64);
+
+	// read mh1 in between updates
+	for (int i = 0; i < 100; i++) {
+	    mh1.update(new Integer(i).toString());
+	    mh2.update(new Integer(i).toString());
+	    if (i % 10 == 0) {
+		mh1.getHashValues();
+	    }
+	}
+
+	// Check reads did not change the result
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh2.getHashValues()));
+    }
+
+    @Test
+    public void testMergeMatchesUnion() {
+	MinHashOptimal mh1 = new MinHashOptimal(64);
+	MinHashOptimal mh2 = new MinHashOptimal(64);
+	MinHashOptimal union = new MinHashOptimal(64);
+
+	for (int i = 0; i < 20; i++) {
+	    mh1.update(new Integer(i).toString());
+	    mh2.update(new Integer(i + 20).toString());
+	    union.update(new Integer(i).toString());
+	    union.update(new Integer(i + 20).toString());
+	}
+	// densify both sides before merging
+	mh1.getHashValues();
+	mh2.getHashValues();
+
+	MinHashOptimal merged = mh1.merge(mh2);
+	assertTrue(Arrays.equals(merged.getHashValues(), union.getHashValues()));
+    }
+
+    @Test
+    public void testResetEmptiesSketch() {
+	MinHashOptimal mh1 = new MinHashOptimal(64);
+	MinHashOptimal mh2 = new MinHashOptimal(64);
+	for (int i = 0; i < 200; i++) {
+	    mh1.update(new Integer(i).toString());
+	}
+	long[] before = mh1.getHashValues().clone();
+	long[] densified = mh1.getHashValues();
+	mh1.reset();
+	// densified copies handed out are not touched
+	assertTrue(Arrays.equals(before, densified));
+	assertTrue(mh1.cardinality() == 0);
+
+	for (int i = 0; i < 5; i++) {
+	    mh1.update(new Integer(i + 1000).toString());
+	    mh2.update(new Integer(i + 1000).toString());
+	}
+	assertTrue(Arrays.equals(mh1.getBins(), mh2.getBins()));
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh2.getHashValues()));
+    }
+
 }
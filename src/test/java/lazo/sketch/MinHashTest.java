@@ -1,8 +1,12 @@
 package lazo.sketch;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -91,4 +95,100 @@ public class MinHashTest {
 	assertTrue(mh3.jaccard(mh1) == 0.5f);
     }
 
+    @Test
+    public void testBatchUpdateMatchesPerValueUpdate() {
+	MinHash mh1 = new MinHash(64);
+	MinHash mh2 = new MinHash(64);
+	MinHash mh3 = new MinHash(64);
+
+	// more values than a single block
+	String[] values = new String[1000];
+	List<String> valueList = new ArrayList<>();
+	for (int i = 0; i < values.length; i++) {
+	    values[i] = new Integer(i).toString();
+	    valueList.add(values[i]);
+	    mh1.update(values[i]);
+	}
+	mh2.updateAll(values);
+	mh3.updateAll(valueList);
+
+	// Check batch and per-value paths agree
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh2.getHashValues()));
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh3.getHashValues()));
+    }
+
+    @Test
+    public void testPrimitiveUpdateMatchesStringUpdate() {
+	MinHash mh1 = new MinHash(64);
+	MinHash mh2 = new MinHash(64);
+
+	for (int i = 0; i < 100; i++) {
+	    mh1.update(new Integer(i).toString());
+	    mh2.update(i);
+	}
+
+	// Check the numeric path hashes like the String path
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh2.getHashValues()));
+    }
+
+    @Test
+    public void testFastMersenneReductionMatchesFloorMod() {
+	long mersennePrime = ((long) 1 << 61) - 1;
+	long[] edges = new long[] { 0, 1, -1, mersennePrime, mersennePrime - 1, mersennePrime + 1, -mersennePrime,
+		Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 7 };
+	for (long x : edges) {
+	    assertTrue(MersennePermutationFamily.mod(x) == Math.floorMod(x, mersennePrime));
+	}
+	Random rnd = new Random(42);
+	for (int i = 0; i < 100000; i++) {
+	    long x = rnd.nextLong();
+	    assertTrue(MersennePermutationFamily.mod(x) == Math.floorMod(x, mersennePrime));
+	}
+    }
+
+    @Test
+    public void testPermutationFamiliesEstimateJaccard() {
+	for (PermutationFamilyType pft : PermutationFamilyType.values()) {
+	    MinHash mh1 = new MinHash(512, 666, HashFunctionType.MURMUR3, pft);
+	    MinHash mh2 = new MinHash(512, 666, HashFunctionType.MURMUR3, pft);
+
+	    // 1000 shared values out of 3000, i.e., jaccard of 1/3
+	    for (int i = 0; i < 2000; i++) {
+		mh1.update(i);
+		mh2.update(i + 1000);
+	    }
+
+	    float js = mh1.jaccard(mh2);
+	    assertTrue(js > 0.25f && js < 0.42f);
+	}
+    }
+
+    @Test
+    public void testPermutationTablesAreShared() {
+	MinHash mh1 = new MinHash(64);
+	MinHash mh2 = new MinHash(64);
+
+	// Same (family, k, seed) share the coefficients
+	assertSame(mh1.getPermutationFamily(), mh2.getPermutationFamily());
+	assertTrue(new MinHash(128).getPermutationFamily() != mh1.getPermutationFamily());
+    }
+
+    @Test
+    public void testResetEmptiesSketch() {
+	MinHash mh1 = new MinHash(64);
+	MinHash mh2 = new MinHash(64);
+	for (int i = 0; i < 50; i++) {
+	    mh1.update(i);
+	}
+	mh1.reset();
+	for (int i = 0; i < 50; i++) {
+	    mh1.update(i + 1000);
+	    mh2.update(i + 1000);
+	}
+	assertTrue(Arrays.equals(mh1.getHashValues(), mh2.getHashValues()));
+
+	mh1.clear();
+	assertTrue(Arrays.equals(mh1.getHashValues(), new MinHash(64).getHashValues()));
+    }
+
 }
@@ -0,0 +1,89 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelSketchBuilderTest {
+
+    private static final int N = 200000;
+
+    private static void assertSameSketch(LazoSketch expected, LazoSketch actual) {
+	assertTrue(Arrays.equals(expected.getHashValues(), actual.getHashValues()));
+	assertTrue(expected.getCardinality() == actual.getCardinality());
+    }
+
+    @Test
+    public void testArraysMatchSequential() {
+	ForkJoinPool pool = new ForkJoinPool(4);
+	for (SketchType sketchType : new SketchType[] { SketchType.MINHASH, SketchType.MINHASH_OPTIMAL }) {
+	    ParallelSketchBuilder builder = new ParallelSketchBuilder(() -> new LazoSketch(64, sketchType), pool);
+	    String[] strings = new String[N];
+	    long[] longs = new long[N];
+	    LazoSketch strSeq = new LazoSketch(64, sketchType);
+	    LazoSketch longSeq = new LazoSketch(64, sketchType);
+	    Random rnd = new Random(1);
+	    for (int i = 0; i < N; i++) {
+		longs[i] = rnd.nextLong();
+		strings[i] = "v" + longs[i];
+		strSeq.update(strings[i]);
+		longSeq.update(longs[i]);
+	    }
+	    assertSameSketch(strSeq, builder.build(strings));
+	    assertSameSketch(strSeq, builder.build(Arrays.spliterator(strings)));
+	    assertSameSketch(strSeq,
+		    builder.build(Spliterators.spliteratorUnknownSize(Arrays.asList(strings).iterator(), 0)));
+	    assertSameSketch(longSeq, builder.build(longs));
+
+	    LazoSketch hashedSeq = new LazoSketch(64, sketchType);
+	    hashedSeq.updateAll(longs);
+	    assertSameSketch(hashedSeq, builder.buildHashed(longs));
+	}
+	pool.shutdown();
+    }
+
+    @Test
+    public void testFileMatchesSequential() throws IOException {
+	StringBuilder content = new StringBuilder();
+	LazoSketch sequential = new LazoSketch(64);
+	Random rnd = new Random(2);
+	for (int i = 0; i < N; i++) {
+	    String value;
+	    if (i % 1000 == 0) {
+		value = "";
+	    } else if (i == N / 2) {
+		// longer than the read buffer
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'x');
+		value = new String(chars);
+	    } else {
+		value = Long.toString(rnd.nextLong());
+	    }
+	    sequential.update(value);
+	    content.append(value).append(i % 3 == 0 ? "\r\n" : "\n");
+	}
+	content.append("last");
+	sequential.update("last");
+
+	Path file = Files.createTempFile("lazo", ".txt");
+	try {
+	    Files.write(file, content.toString().getBytes(StandardCharsets.US_ASCII));
+	    ForkJoinPool pool = new ForkJoinPool(4);
+	    LazoSketch parallel = new ParallelSketchBuilder(() -> new LazoSketch(64), pool).build(file);
+	    assertSameSketch(sequential, parallel);
+	    pool.shutdown();
+	} finally {
+	    Files.delete(file);
+	}
+    }
+
+}
@@ -0,0 +1,95 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class SketchMatrixTest {
+
+    private static long[] randomSketch(Random rnd, long[] base, int shared) {
+	long[] hv = new long[base.length];
+	for (int i = 0; i < hv.length; i++) {
+	    hv[i] = i < shared ? base[i] : rnd.nextLong();
+	}
+	return hv;
+    }
+
+    @Test
+    public void testJaccardAllMatchesPairwise() {
+	Random rnd = new Random(1);
+	int k = 61;
+	long[] query = randomSketch(rnd, new long[k], 0);
+	// tiny blocks, so that the scan is split across the pool
+	ForkJoinPool pool = new ForkJoinPool(3);
+	SketchMatrix matrix = new SketchMatrix(k, 0, pool);
+	SketchMatrix single = new SketchMatrix(k);
+	long[][] sketches = new long[20000][];
+	for (int r = 0; r < sketches.length; r++) {
+	    sketches[r] = randomSketch(rnd, query, rnd.nextInt(k + 1));
+	    assertTrue(matrix.add(sketches[r]) == r);
+	    single.add(sketches[r]);
+	}
+	assertTrue(matrix.size() == sketches.length);
+
+	float[] out = new float[sketches.length];
+	float[] singleOut = new float[sketches.length];
+	matrix.jaccardAll(query, out);
+	single.jaccardAll(query, singleOut);
+	for (int r = 0; r < sketches.length; r++) {
+	    float expected = SketchUtils.jaccard(sketches[r], query);
+	    assertTrue(out[r] == expected);
+	    assertTrue(singleOut[r] == expected);
+	    assertTrue(matrix.jaccard(r, query) == expected);
+	}
+	assertTrue(Arrays.equals(matrix.getRow(7), sketches[7]));
+	pool.shutdown();
+    }
+
+    @Test
+    public void testTopK() {
+	Random rnd = new Random(2);
+	int k = 64;
+	long[] query = randomSketch(rnd, new long[k], 0);
+	SketchMatrix matrix = new SketchMatrix(k);
+	int[] shared = new int[5000];
+	for (int r = 0; r < shared.length; r++) {
+	    // distinct similarities for the best rows, ties below
+	    shared[r] = r % 100 == 0 ? 10 + r / 100 : rnd.nextInt(10);
+	    matrix.add(randomSketch(rnd, query, shared[r]));
+	}
+	int[] top = matrix.topK(query, 5);
+	assertTrue(Arrays.equals(top, new int[] { 4900, 4800, 4700, 4600, 4500 }));
+
+	// all rows, ordered by similarity and then by row
+	int[] all = matrix.topK(query, 10000);
+	assertTrue(all.length == shared.length);
+	for (int i = 1; i < all.length; i++) {
+	    int a = shared[all[i - 1]];
+	    int b = shared[all[i]];
+	    assertTrue(a > b || (a == b && all[i - 1] < all[i]));
+	}
+	assertTrue(matrix.topK(query, 0).length == 0);
+    }
+
+    @Test
+    public void testSetAndSketches() {
+	SketchMatrix matrix = new SketchMatrix(16);
+	MinHash mh = new MinHash(16);
+	mh.update("a");
+	matrix.add(new MinHash(16));
+	matrix.set(0, mh.getHashValues());
+	assertTrue(matrix.jaccard(0, mh.getHashValues()) == 1);
+	assertTrue(matrix.add(new LazoSketch(16)) == 1);
+	assertTrue(matrix.jaccard(1, mh.getHashValues()) == 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongK() {
+	new SketchMatrix(16).add(new long[8]);
+    }
+
+}
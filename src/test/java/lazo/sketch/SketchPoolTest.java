@@ -0,0 +1,65 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SketchPoolTest {
+
+    @Test
+    public void testReleasedSketchesAreReused() {
+	SketchPool<LazoSketch> pool = new SketchPool<>(() -> new LazoSketch(64));
+	LazoSketch empty = new LazoSketch(64);
+
+	LazoSketch first = pool.acquire();
+	for (int i = 0; i < 1000; i++) {
+	    first.update(i);
+	}
+	pool.release(first);
+	assertTrue(pool.getIdleCount() == 1);
+
+	LazoSketch second = pool.acquire();
+	assertSame(first, second);
+	assertTrue(pool.getIdleCount() == 0);
+	// it comes back empty
+	assertTrue(second.getCardinality() == 0);
+	assertTrue(Arrays.equals(second.getHashValues(), empty.getHashValues()));
+    }
+
+    @Test
+    public void testIdleSketchesAreBounded() {
+	SketchPool<MinHash> pool = new SketchPool<>(() -> new MinHash(16), 2);
+	MinHash[] sketches = new MinHash[4];
+	for (int i = 0; i < sketches.length; i++) {
+	    sketches[i] = pool.acquire();
+	}
+	for (MinHash sketch : sketches) {
+	    pool.release(sketch);
+	}
+	assertTrue(pool.getIdleCount() == 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseTwice() {
+	SketchPool<MinHash> pool = new SketchPool<>(() -> new MinHash(16));
+	MinHash sketch = pool.acquire();
+	pool.release(sketch);
+	pool.release(sketch);
+    }
+
+    @Test
+    public void testPoolsArePerThread() throws InterruptedException {
+	SketchPool<MinHash> pool = new SketchPool<>(() -> new MinHash(16));
+	pool.release(pool.acquire());
+	int[] idle = new int[1];
+	Thread thread = new Thread(() -> idle[0] = pool.getIdleCount());
+	thread.start();
+	thread.join();
+	assertTrue(idle[0] == 0);
+	assertTrue(pool.getIdleCount() == 1);
+    }
+
+}
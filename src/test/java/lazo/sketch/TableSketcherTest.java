@@ -0,0 +1,94 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TableSketcherTest {
+
+    private static String cell(int row, int column) {
+	// columns overlap, and column 2 has few distinct values
+	return column == 2 ? "v" + (row % 10) : Integer.toString(row + column * 100);
+    }
+
+    @Test
+    public void testSameAsOneSketchPerColumn() {
+	int columns = 5;
+	int rows = 1000;
+	TableSketcher table = new TableSketcher(columns, 64);
+	LazoSketch[] expected = new LazoSketch[columns];
+	for (int c = 0; c < columns; c++) {
+	    expected[c] = new LazoSketch(64);
+	}
+	for (int r = 0; r < rows; r++) {
+	    String[] row = new String[columns];
+	    for (int c = 0; c < columns; c++) {
+		// a few missing cells
+		if (c == 4 && r % 3 == 0) {
+		    continue;
+		}
+		row[c] = cell(r, c);
+		expected[c].update(row[c]);
+	    }
+	    table.updateRow(row);
+	}
+	LazoSketch[] sketches = table.getSketches();
+	for (int c = 0; c < columns; c++) {
+	    assertTrue(Arrays.equals(sketches[c].getHashValues(), expected[c].getHashValues()));
+	    assertTrue(sketches[c].getCardinality() == expected[c].getCardinality());
+	}
+	assertTrue(sketches[2].getCardinality() == 10);
+
+	// the sketches are copies, and the sketcher can keep going
+	long cardinality = sketches[0].getCardinality();
+	table.updateRow(new String[] { "x", "x", "x", "x", "x" });
+	expected[0].update("x");
+	assertTrue(sketches[0].getCardinality() == cardinality);
+	assertTrue(table.getSketch(0).getCardinality() == expected[0].getCardinality());
+	assertTrue(Arrays.equals(table.getSketch(0).getHashValues(), expected[0].getHashValues()));
+    }
+
+    @Test
+    public void testBytesAndMinHashCardinality() {
+	Charset charset = Charset.defaultCharset();
+	TableSketcher strings = new TableSketcher(3, 32, CardinalityType.MINHASH);
+	TableSketcher bytes = new TableSketcher(3, 32, CardinalityType.MINHASH);
+	for (int r = 0; r < 300; r++) {
+	    String[] row = new String[] { cell(r, 0), cell(r, 1), cell(r, 2) };
+	    byte[][] cells = new byte[3][];
+	    for (int c = 0; c < 3; c++) {
+		cells[c] = row[c].getBytes(charset);
+	    }
+	    strings.updateRow(row);
+	    bytes.updateRow(cells);
+	}
+	for (int c = 0; c < 3; c++) {
+	    LazoSketch a = strings.getSketch(c);
+	    LazoSketch b = bytes.getSketch(c);
+	    assertTrue(a.getCardinalityType() == CardinalityType.MINHASH);
+	    assertTrue(Arrays.equals(a.getHashValues(), b.getHashValues()));
+	    assertTrue(a.getCardinality() == b.getCardinality());
+	}
+    }
+
+    @Test
+    public void testReset() {
+	TableSketcher table = new TableSketcher(2, 16);
+	table.updateRow(new String[] { "a", "b" });
+	table.reset();
+	table.updateRow(new String[] { "c", "d" });
+	LazoSketch c = new LazoSketch(16);
+	c.update("c");
+	assertTrue(Arrays.equals(table.getSketch(0).getHashValues(), c.getHashValues()));
+	assertTrue(table.getSketch(0).getCardinality() == 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRowOfWrongWidth() {
+	new TableSketcher(3, 16).updateRow(new String[] { "a", "b" });
+    }
+
+}
@@ -0,0 +1,141 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+
+public class ValueHashCacheTest {
+
+    private HashFunction hf = SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, 666);
+
+    @After
+    public void disableCache() {
+	ValueHashCache.disable();
+    }
+
+    @Test
+    public void testCachedHashesAreCorrect() {
+	ValueHasher uncached = new ValueHasher(hf, 666);
+	String[] values = new String[1000];
+	long[] expected = new long[values.length];
+	for (int i = 0; i < values.length; i++) {
+	    values[i] = "value-" + (i % 100);
+	    expected[i] = uncached.hash(values[i]);
+	}
+
+	ValueHashCache cache = ValueHashCache.enable(256, 0);
+	ValueHasher hasher = new ValueHasher(hf, 666);
+	for (int round = 0; round < 3; round++) {
+	    for (int i = 0; i < values.length; i++) {
+		// a new String every time, as a parser would produce
+		assertTrue(hasher.hash(new String(values[i])) == expected[i]);
+	    }
+	}
+	assertTrue(cache.getHitCount() + cache.getMissCount() == 3 * values.length);
+	// 100 distinct values, 2^8 slots
+	assertTrue(cache.getHitRate() > 0.8);
+	cache.resetStats();
+	assertTrue(cache.getHitCount() == 0 && cache.getHitRate() == 0);
+    }
+
+    @Test
+    public void testSketchesUseTheCache() {
+	LazoSketch plain = new LazoSketch(64);
+	MinHash plainMinHash = new MinHash(64);
+	for (int i = 0; i < 1000; i++) {
+	    plain.update("v" + (i % 50));
+	    plainMinHash.update("v" + (i % 50));
+	}
+
+	ValueHashCache cache = ValueHashCache.enable(1024, 0);
+	LazoSketch cached = new LazoSketch(64);
+	MinHash cachedMinHash = new MinHash(64);
+	for (int i = 0; i < 1000; i++) {
+	    cached.update("v" + (i % 50));
+	    cachedMinHash.update("v" + (i % 50));
+	}
+	assertTrue(Arrays.equals(plain.getHashValues(), cached.getHashValues()));
+	assertTrue(plain.getCardinality() == cached.getCardinality());
+	assertTrue(Arrays.equals(plainMinHash.getHashValues(), cachedMinHash.getHashValues()));
+	assertTrue(cache.getHitCount() > 1800);
+
+	// other hash functions do not use it
+	long hits = cache.getHitCount() + cache.getMissCount();
+	MinHash other = new MinHash(64, 667, HashFunctionType.MURMUR3);
+	other.update("v1");
+	assertTrue(cache.getHitCount() + cache.getMissCount() == hits);
+
+	// neither do short values by default
+	ValueHashCache.enable(1024);
+	ValueHasher hasher = new ValueHasher(hf, 666);
+	hasher.hash("short");
+	assertTrue(ValueHashCache.getGlobal().getMissCount() == 0);
+    }
+
+    @Test
+    public void testFrequentValuesAreNotEvictedByScans() {
+	ValueHashCache cache = ValueHashCache.enable(64, 0);
+	ValueHasher hasher = new ValueHasher(hf, 666);
+	String[] hot = new String[16];
+	for (int i = 0; i < hot.length; i++) {
+	    hot[i] = "hot-" + i;
+	}
+	// hot values keep coming back among many one-off values
+	int cold = 0;
+	for (int round = 0; round < 50; round++) {
+	    for (String h : hot) {
+		hasher.hash(h);
+	    }
+	    for (int i = 0; i < 200; i++) {
+		hasher.hash("cold-" + cold++);
+	    }
+	}
+	cache.resetStats();
+	for (String h : hot) {
+	    hasher.hash(h);
+	}
+	assertTrue(cache.getHitRate() > 0.7);
+    }
+
+    @Test
+    public void testConcurrentUse() throws InterruptedException {
+	ValueHasher uncached = new ValueHasher(hf, 666);
+	String[] values = new String[500];
+	long[] expected = new long[values.length];
+	for (int i = 0; i < values.length; i++) {
+	    values[i] = "concurrent-" + i;
+	    expected[i] = uncached.hash(values[i]);
+	}
+	ValueHashCache cache = ValueHashCache.enable(128, 0);
+	List<Thread> threads = new ArrayList<>();
+	boolean[] failed = new boolean[1];
+	for (int t = 0; t < 4; t++) {
+	    Thread thread = new Thread(() -> {
+		ValueHasher hasher = new ValueHasher(hf, 666);
+		for (int round = 0; round < 200; round++) {
+		    for (int i = 0; i < values.length; i++) {
+			if (hasher.hash(values[(i * 7 + round) % values.length]) != expected[(i * 7 + round)
+				% values.length]) {
+			    failed[0] = true;
+			}
+		    }
+		}
+	    });
+	    threads.add(thread);
+	    thread.start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	assertTrue(!failed[0]);
+	assertTrue(cache.getHitCount() + cache.getMissCount() == 4 * 200 * values.length);
+    }
+
+}
@@ -0,0 +1,65 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+
+public class ValueHasherTest {
+
+    private HashFunction hf = SketchUtils.initializeHashFunction(HashFunctionType.MURMUR3, 666);
+
+    @Test
+    public void testStringHashesMatchGuava() {
+	ValueHasher hasher = new ValueHasher(hf, 666);
+	Random rnd = new Random(42);
+	// strings of all lengths around the 16-byte block size, with non-ascii
+	// chars, surrogate pairs and unpaired surrogates
+	char[] alphabet = new char[] { 'a', 'Z', '0', ' ', '\u00e9', '\u20ac', '\ud83d', '\ude00' };
+	for (int length = 0; length < 40; length++) {
+	    for (int round = 0; round < 20; round++) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+		    sb.append(alphabet[rnd.nextInt(alphabet.length)]);
+		}
+		String s = sb.toString();
+		long expected = hf.hashString(s, Charset.defaultCharset()).asLong();
+		assertTrue(hasher.hash(s) == expected);
+		assertTrue(hasher.hash(sb) == expected);
+	    }
+	}
+    }
+
+    @Test
+    public void testPrimitiveHashesMatchStringHashes() {
+	ValueHasher hasher = new ValueHasher(hf, 666);
+	long[] longs = new long[] { 0, 1, -1, 9, 10, 42, -42, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+	for (long l : longs) {
+	    assertTrue(hasher.hash(l) == hasher.hash(Long.toString(l)));
+	}
+	int[] ints = new int[] { 0, 7, -7, 65536, Integer.MAX_VALUE, Integer.MIN_VALUE };
+	for (int i : ints) {
+	    assertTrue(hasher.hash(i) == hasher.hash(Integer.toString(i)));
+	}
+	double[] doubles = new double[] { 0.0, -0.0, 1.0, -3.0, 9999999.0, 1e7, 0.5, -2.25, 1e-5, Double.NaN,
+		Double.POSITIVE_INFINITY };
+	for (double d : doubles) {
+	    assertTrue(hasher.hash(d) == hasher.hash(Double.toString(d)));
+	}
+    }
+
+    @Test
+    public void testByteRangeHashMatchesStringHash() {
+	ValueHasher hasher = new ValueHasher(hf, 666);
+	String s = "some value of a column";
+	byte[] bytes = ("xx" + s + "yy").getBytes(Charset.defaultCharset());
+	int off = "xx".getBytes(Charset.defaultCharset()).length;
+	int len = s.getBytes(Charset.defaultCharset()).length;
+	assertTrue(hasher.hash(bytes, off, len) == hasher.hash(s));
+    }
+
+}
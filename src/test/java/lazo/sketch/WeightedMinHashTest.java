@@ -0,0 +1,129 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.Test;
+
+import lazo.index.LazoIndex;
+import lazo.index.MinHashLSH;
+
+public class WeightedMinHashTest {
+
+    private static double weightA(int i) {
+	return 1 + i % 7;
+    }
+
+    private static double weightB(int i) {
+	return 1 + i % 3;
+    }
+
+    @Test
+    public void testWeightedJaccard() {
+	int k = 1024;
+	WeightedMinHash a = new WeightedMinHash(k);
+	WeightedMinHash b = new WeightedMinHash(k);
+	double min = 0;
+	double max = 0;
+	// a has values [0, 2000), b has [1000, 3000)
+	for (int i = 0; i < 3000; i++) {
+	    double wA = i < 2000 ? weightA(i) : 0;
+	    double wB = i >= 1000 ? weightB(i) : 0;
+	    a.update(Integer.toString(i), wA);
+	    b.update(Integer.toString(i), wB);
+	    min += Math.min(wA, wB);
+	    max += Math.max(wA, wB);
+	}
+	double js = min / max;
+	// ~1.5% standard error at k = 1024
+	assertTrue(Math.abs(a.jaccard(b) - js) < 0.06);
+
+	double totalA = 0;
+	for (int i = 0; i < 2000; i++) {
+	    totalA += weightA(i);
+	}
+	assertTrue(Math.abs(a.cardinality() - totalA) < totalA * 0.1);
+    }
+
+    @Test
+    public void testConsistentAndMaxOfWeights() {
+	WeightedMinHash a = new WeightedMinHash(64);
+	WeightedMinHash b = new WeightedMinHash(64);
+	WeightedMinHash max = new WeightedMinHash(64);
+	for (int i = 0; i < 500; i++) {
+	    a.update(Integer.toString(i), weightA(i));
+	    b.update(Integer.toString(i), weightB(i));
+	    max.update(Integer.toString(i), Math.max(weightA(i), weightB(i)));
+	}
+	// repeated updates keep the largest weight
+	WeightedMinHash repeated = new WeightedMinHash(64);
+	for (int i = 0; i < 500; i++) {
+	    repeated.update(Integer.toString(i), weightB(i));
+	    repeated.update(Integer.toString(i), weightA(i));
+	}
+	assertTrue(Arrays.equals(max.getHashValues(), repeated.getHashValues()));
+	assertTrue(Arrays.equals(max.getHashValues(), a.merge(b).getHashValues()));
+	assertTrue(Arrays.equals(max.getHashValues(), b.merge(a).getHashValues()));
+    }
+
+    @Test
+    public void testLazoSketchIndexing() {
+	int k = 128;
+	LazoIndex index = new LazoIndex(k);
+	MinHashLSH lsh = new MinHashLSH(0.8f, k);
+	LazoSketch column = new LazoSketch(k, SketchType.WEIGHTED_MINHASH);
+	for (int i = 0; i < 1000; i++) {
+	    column.update(Integer.toString(i), weightA(i));
+	}
+	index.insert("column", column);
+	lsh.insert("column", column.getSketch());
+
+	ByteBuffer buf = ByteBuffer.allocate(column.getSerializedSize());
+	column.writeTo(buf);
+	buf.flip();
+	LazoSketch query = LazoSketch.wrap(buf);
+	assertTrue(Arrays.equals(query.getHashValues(), column.getHashValues()));
+	// a copy of the column with one more value
+	query.update("new", 1);
+
+	Set<LazoIndex.LazoCandidate> candidates = index.querySimilarity(query, 0.9f);
+	assertTrue(candidates.size() == 1);
+	Set<Object> lshCandidates = lsh.query(query.getSketch());
+	assertTrue(lshCandidates.contains("column"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeightsNeedWeightedSketch() {
+	new LazoSketch(64, SketchType.MINHASH).update("value", 2.0);
+    }
+
+    @Test
+    public void testWeightCheckedFirst() {
+	LazoSketch sketch = new LazoSketch(64, SketchType.WEIGHTED_MINHASH);
+	for (int i = 0; i < 100; i++) {
+	    sketch.update("v" + i, 1.0);
+	}
+	long cardinality = sketch.getCardinality();
+	try {
+	    sketch.update("bad", -1.0);
+	    assertTrue(false);
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	for (int i = 100; i < 200; i++) {
+	    sketch.update("v" + i, 0.0);
+	}
+	// neither is counted
+	assertTrue(sketch.getCardinality() == cardinality);
+	try {
+	    sketch.setHashValues(sketch.getHashValues());
+	    assertTrue(false);
+	} catch (UnsupportedOperationException e) {
+	    // needs the ranks
+	}
+    }
+
+}
@@ -0,0 +1,71 @@
+package lazo.sketch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WindowedLazoSketchTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Test
+    public void testOnlyTheWindowCounts() {
+	// the last 7 days
+	WindowedLazoSketch window = new WindowedLazoSketch(64, 7, DAY, 14);
+	for (int day = 0; day < 30; day++) {
+	    for (int i = 0; i < 200; i++) {
+		// values drift over time, and some repeat across days
+		assertTrue(window.update("value-" + (day * 100 + i), day * DAY + i * 1000));
+	    }
+	}
+	LazoSketch expected = new LazoSketch(64, SketchType.MINHASH, 14);
+	for (int day = 23; day < 30; day++) {
+	    for (int i = 0; i < 200; i++) {
+		expected.update("value-" + (day * 100 + i));
+	    }
+	}
+	assertTrue(Arrays.equals(window.getHashValues(), expected.getHashValues()));
+	assertTrue(window.getCardinality() == expected.getCardinality());
+
+	LazoSketch snapshot = window.toLazoSketch();
+	assertTrue(Arrays.equals(snapshot.getHashValues(), expected.getHashValues()));
+	assertTrue(snapshot.getCardinality() == expected.getCardinality());
+
+	// older than the window
+	assertTrue(!window.update("late", 20 * DAY));
+	// late, but in the window
+	assertTrue(window.update("late", 25 * DAY));
+	expected.update("late");
+	assertTrue(Arrays.equals(window.getHashValues(), expected.getHashValues()));
+	assertTrue(window.getCardinality() == expected.getCardinality());
+    }
+
+    @Test
+    public void testEverythingExpires() {
+	WindowedLazoSketch window = new WindowedLazoSketch(32, 4, 10, CardinalityType.MINHASH);
+	window.advanceTo(0);
+	window.updateAll(new String[] { "a", "b", "c" });
+	window.update("d");
+	assertTrue(window.getCardinality() > 0);
+	long[] before = window.getHashValues();
+
+	window.advanceTo(1000);
+	assertTrue(window.getCardinality() == 0);
+	assertTrue(Arrays.equals(window.getHashValues(), new MinHash(32).getHashValues()));
+	// arrays handed out before are not modified
+	assertTrue(!Arrays.equals(before, window.getHashValues()));
+
+	window.update("e");
+	MinHash e = new MinHash(32);
+	e.update("e");
+	assertTrue(Arrays.equals(window.getHashValues(), e.getHashValues()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUpdateNeedsTime() {
+	new WindowedLazoSketch(32, 4, 10).update("a");
+    }
+
+}